@@ -0,0 +1,351 @@
+package gna;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import libpract.*;
+
+/**
+ * Benchmarks of the seam search, the flood fill, the stitch and the full compositor, in the style of JMH:
+ * every benchmark runs a number of warmup iterations and then a number of measured iterations, every iteration
+ * repeats the operation until the iteration time is used up. Only the operation itself is timed, the setup of a
+ * fresh mask for the flood fill is not. The results are printed as a table and written as JMH JSON, so the usual
+ * JMH tools can compare two runs.
+ *
+ * The benchmarks are parameterised by the size of the images, the content of the images and the variant: the
+ * seam mode for seam, the fill mode for floodfill, both for stitch. The contents are
+ *
+ *   noise      independent random pixels, the worst case of every search
+ *   gradient   two smooth gradients that differ slightly, a flat cost landscape
+ *   serpentine a cheap corridor that winds from the top to the bottom, like the spiral example the seam goes
+ *              left and up, so the mask needs the flood fill
+ *   zee, spiraal, color
+ *              the sample pairs of the images directory, at their own size
+ *
+ * Arguments, all optional:
+ *   -sizes 256,512         the widths and heights of the generated images
+ *   -content noise,zee     the contents
+ *   -benchmarks seam,stitch  the benchmarks: seam, floodfill, stitch and compositor
+ *   -wi 2 -i 5             the number of warmup and measured iterations
+ *   -time 500              the time of an iteration in milliseconds
+ *   -images images         the directory of the sample pairs
+ *   -o results.json        the file the JSON results are written to
+ */
+public class StitcherBenchmark
+{
+	/**
+	 * The names of the benchmarks.
+	 */
+	private static final String[] BENCHMARKS = {"seam", "floodfill", "stitch", "compositor"};
+
+	/**
+	 * The names of the contents, the generated ones first.
+	 */
+	private static final String[] CONTENTS = {"noise", "gradient", "serpentine", "zee", "spiraal", "color"};
+
+	/**
+	 * The critical values of Student's t distribution for a 99.9% confidence interval, by degrees of freedom.
+	 */
+	private static final double[] STUDENT_T = {636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59};
+
+	/**
+	 * Variable storing a value that depends on the result of every operation, so no operation can be left out.
+	 */
+	public static volatile long sink;
+
+	private int[] sizes = {256, 512, 1024, 2048, 4096, 8192};
+	private List<String> contents = Arrays.asList(CONTENTS);
+	private List<String> benchmarks = Arrays.asList(BENCHMARKS);
+	private int warmupIterations = 2;
+	private int measurementIterations = 5;
+	private long iterationTime = 500_000_000L;
+	private String imageDirectory = "images";
+	private String output = null;
+
+	/**
+	 * Variable storing the results, as JSON objects.
+	 */
+	private final List<String> results = new ArrayList<>();
+
+	/**
+	 * An operation that is measured, with a setup that is not.
+	 */
+	private interface Operation
+	{
+		default void setUp() {
+		}
+
+		long run();
+	}
+
+	/**
+	 * Runs the benchmarks with the given arguments, see the description of the class.
+	 */
+	public static void main(String[] args) throws IOException {
+		StitcherBenchmark benchmark = new StitcherBenchmark();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			switch (args[i]) {
+			case "-sizes":
+				benchmark.sizes = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+				break;
+			case "-content":
+				benchmark.contents = Arrays.asList(value.split(","));
+				break;
+			case "-benchmarks":
+				benchmark.benchmarks = Arrays.asList(value.split(","));
+				break;
+			case "-wi":
+				benchmark.warmupIterations = Integer.parseInt(value);
+				break;
+			case "-i":
+				benchmark.measurementIterations = Integer.parseInt(value);
+				break;
+			case "-time":
+				benchmark.iterationTime = Long.parseLong(value) * 1_000_000L;
+				break;
+			case "-images":
+				benchmark.imageDirectory = value;
+				break;
+			case "-o":
+				benchmark.output = value;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if (benchmark.measurementIterations < 1) {
+			throw new IllegalArgumentException("At least one measured iteration is needed.");
+		}
+		benchmark.run();
+	}
+
+	/**
+	 * Runs all selected benchmarks and writes the results.
+	 */
+	private void run() throws IOException {
+		System.out.printf("%-12s %-11s %-10s %-22s %12s %10s%n", "benchmark", "content", "size", "variant", "ms/op", "error");
+		for (String content : contents) {
+			if (Arrays.asList("zee", "spiraal", "color").contains(content)) {
+				int[][] image1 = Util.readImage(new File(imageDirectory, content + "1.png").getPath());
+				int[][] image2 = Util.readImage(new File(imageDirectory, content + "2.png").getPath());
+				this.runAll(content, image1, image2);
+				continue;
+			}
+			for (int size : sizes) {
+				int[][][] pair = generate(content, size);
+				this.runAll(content, pair[0], pair[1]);
+			}
+		}
+		if (output != null) {
+			File file = new File(output);
+			if (file.getAbsoluteFile().getParentFile() != null) {
+				file.getAbsoluteFile().getParentFile().mkdirs();
+			}
+			try (Writer writer = new FileWriter(file)) {
+				writer.write("[\n" + String.join(",\n", results) + "\n]\n");
+			}
+			System.out.println("Results written to " + output);
+		}
+	}
+
+	/**
+	 * Runs the selected benchmarks on one pair of images.
+	 */
+	private void runAll(String content, int[][] image1, int[][] image2) {
+		String size = image1[0].length + "x" + image1.length;
+		if (benchmarks.contains("seam")) {
+			for (SeamMode seamMode : SeamMode.values()) {
+				Stitcher stitcher = new Stitcher(seamMode);
+				CostMap costMap = CostMap.of(image1, image2);
+				this.measure("seam", content, size, seamMode.toString(), () -> stitcher.seam(costMap).size());
+			}
+		}
+		if (benchmarks.contains("floodfill")) {
+			//the mask of the seam, before the fill
+			List<Position> seam = new Stitcher(SeamMode.DIAL).seam(image1, image2);
+			PackedMask seamMask = new PackedMask(image1.length, image1[0].length);
+			for (Position position : seam) {
+				seamMask.getCodes()[position.getY() * seamMask.getWidth() + position.getX()] = PackedMask.SEAM;
+			}
+			PackedMask mask = new PackedMask(image1.length, image1[0].length);
+			for (FillMode fillMode : FillMode.values()) {
+				Stitcher stitcher = new Stitcher();
+				stitcher.setFillMode(fillMode);
+				this.measure("floodfill", content, size, fillMode.toString(), new Operation() {
+					@Override
+					public void setUp() {
+						System.arraycopy(seamMask.getCodes(), 0, mask.getCodes(), 0, mask.getCodes().length);
+					}
+
+					@Override
+					public long run() {
+						stitcher.floodfill(mask);
+						return mask.getCodes()[mask.getCodes().length / 2];
+					}
+				});
+			}
+		}
+		if (benchmarks.contains("stitch")) {
+			for (SeamMode seamMode : SeamMode.values()) {
+				for (FillMode fillMode : FillMode.values()) {
+					Stitcher stitcher = new Stitcher(seamMode);
+					stitcher.setFillMode(fillMode);
+					this.measure("stitch", content, size, seamMode + "/" + fillMode,
+							() -> stitcher.stitch(image1, image2)[image1.length / 2][image1[0].length / 2].ordinal());
+				}
+			}
+		}
+		if (benchmarks.contains("compositor")) {
+			//the generated images overlap for three quarters, the sample pairs completely
+			boolean sample = Arrays.asList("zee", "spiraal", "color").contains(content);
+			int offsetx = sample ? 0 : image1[0].length / 4;
+			int offsety = sample ? 0 : image1.length / 8;
+			this.measure("compositor", content, size, "default",
+					() -> ImageCompositor.composite(image1, image2, offsetx, offsety).length);
+		}
+	}
+
+	/**
+	 * Runs the warmup and measured iterations of one benchmark, prints the score and stores the result.
+	 */
+	private void measure(String benchmark, String content, String size, String variant, Operation operation) {
+		for (int i = 0; i < warmupIterations; i++) {
+			this.iteration(operation);
+		}
+		double[] scores = new double[measurementIterations];
+		for (int i = 0; i < measurementIterations; i++) {
+			scores[i] = this.iteration(operation);
+		}
+		double mean = Arrays.stream(scores).average().getAsDouble();
+		double error = Double.NaN;
+		if (scores.length > 1) {
+			double variance = 0;
+			for (double score : scores) {
+				variance += (score - mean) * (score - mean);
+			}
+			variance /= scores.length - 1;
+			int freedom = scores.length - 1;
+			double t = freedom <= STUDENT_T.length ? STUDENT_T[freedom - 1] : 3.29 + 8.0 / freedom;
+			error = t * Math.sqrt(variance / scores.length);
+		}
+		System.out.printf(Locale.ROOT, "%-12s %-11s %-10s %-22s %12.3f %10.3f%n", benchmark, content, size, variant,
+				mean, error);
+
+		StringBuilder raw = new StringBuilder();
+		for (double score : scores) {
+			raw.append(raw.length() == 0 ? "" : ", ").append(json(score));
+		}
+		results.add(String.format(Locale.ROOT, "  {\n"
+				+ "    \"benchmark\": \"gna.StitcherBenchmark.%s\",\n"
+				+ "    \"mode\": \"avgt\",\n"
+				+ "    \"threads\": 1,\n"
+				+ "    \"forks\": 0,\n"
+				+ "    \"warmupIterations\": %d,\n"
+				+ "    \"warmupTime\": \"%d ms\",\n"
+				+ "    \"measurementIterations\": %d,\n"
+				+ "    \"measurementTime\": \"%d ms\",\n"
+				+ "    \"params\": {\"content\": \"%s\", \"size\": \"%s\", \"variant\": \"%s\"},\n"
+				+ "    \"primaryMetric\": {\n"
+				+ "      \"score\": %s,\n"
+				+ "      \"scoreError\": %s,\n"
+				+ "      \"scoreConfidence\": [%s, %s],\n"
+				+ "      \"scoreUnit\": \"ms/op\",\n"
+				+ "      \"rawData\": [[%s]]\n"
+				+ "    },\n"
+				+ "    \"secondaryMetrics\": {}\n"
+				+ "  }", benchmark, warmupIterations, iterationTime / 1_000_000L, measurementIterations,
+				iterationTime / 1_000_000L, content, size, variant, json(mean), json(error), json(mean - error),
+				json(mean + error), raw));
+	}
+
+	/**
+	 * Runs the operation until the iteration time is used up, at least once, and returns the mean time in milliseconds.
+	 */
+	private double iteration(Operation operation) {
+		long measured = 0;
+		int operations = 0;
+		long start = System.nanoTime();
+		long result = 0;
+		do {
+			operation.setUp();
+			long begin = System.nanoTime();
+			result += operation.run();
+			measured += System.nanoTime() - begin;
+			operations++;
+		} while (System.nanoTime() - start < iterationTime);
+		sink = result;
+		return measured / 1e6 / operations;
+	}
+
+	/**
+	 * Returns the number as a JSON value, NaN as the string JMH uses.
+	 */
+	private static String json(double value) {
+		return Double.isNaN(value) ? "\"NaN\"" : String.format(Locale.ROOT, "%.6f", value);
+	}
+
+	/**
+	 * Returns a pair of generated images of the given content and size.
+	 */
+	static int[][][] generate(String content, int size) {
+		Random random = new Random(size);
+		int[][] image1 = new int[size][size];
+		int[][] image2 = new int[size][size];
+		switch (content) {
+		case "noise":
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					image1[y][x] = random.nextInt(1 << 24);
+					image2[y][x] = random.nextInt(1 << 24);
+				}
+			}
+			break;
+		case "gradient":
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					int red = 255 * x / size;
+					int green = 255 * y / size;
+					int blue = 255 * (x + y) / (2 * size);
+					image1[y][x] = red << 16 | green << 8 | blue;
+					image2[y][x] = Math.min(255, red + 3) << 16 | green << 8 | Math.max(0, blue - 2 + random.nextInt(3));
+				}
+			}
+			break;
+		case "serpentine":
+			//the images differ everywhere except on a corridor that runs right, down, left, down, right, ...
+			int lane = Math.max(4, size / 16);
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					image1[y][x] = random.nextInt(1 << 24);
+					image2[y][x] = image1[y][x] ^ 0x808080;
+				}
+			}
+			boolean right = true;
+			for (int y = 0; y < size; y += 2 * lane) {
+				System.arraycopy(image1[y], 0, image2[y], 0, size);
+				int x = right ? size - 1 : 0;
+				for (int down = y; down < Math.min(size, y + 2 * lane); down++) {
+					image2[down][x] = image1[down][x];
+				}
+				right = !right;
+			}
+			int last = (size - 1) / (2 * lane) * (2 * lane);
+			System.arraycopy(image1[size - 1], 0, image2[size - 1], 0, size);
+			for (int down = last; down < size; down++) {
+				image2[down][size - 1] = image1[down][size - 1];
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown content " + content);
+		}
+		return new int[][][] {image1, image2};
+	}
+}
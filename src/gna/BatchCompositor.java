@@ -0,0 +1,314 @@
+package gna;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Composes many pairs of images without a display. The jobs are read from a manifest with one job per line:
+ *
+ *   image1 image2 offsetx offsety output
+ *
+ * Empty lines and lines starting with # are skipped, relative paths are relative to the directory of the manifest.
+ * Outputs ending in RawImage.EXTENSION are written as raw images, the others as PNG files.
+ * The jobs run on a fixed pool of worker threads with StreamingCompositor. Every job first reserves its estimated
+ * memory from a shared budget, so large jobs wait for each other instead of running out of heap together.
+ * The idle workspaces the shared Stitcher keeps between jobs are limited to a quarter of the budget, and that
+ * quarter is reserved for them before the jobs start.
+ */
+public class BatchCompositor
+{
+	/**
+	 * Variable storing the number of worker threads.
+	 */
+	private final int threads;
+
+	/**
+	 * Variable storing the memory budget of the jobs that run at the same time, in KiB.
+	 */
+	private final int budget;
+
+	/**
+	 * Variable storing the stitcher of all jobs.
+	 */
+	private final Stitcher stitcher = new Stitcher();
+
+	/**
+	 * Creates a compositor with one worker per core and three quarters of the maximal heap as memory budget.
+	 */
+	public BatchCompositor() {
+		this(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().maxMemory() / 4 * 3);
+	}
+
+	/**
+	 * Creates a compositor.
+	 * @param threads      The number of worker threads.
+	 * @param memoryBudget The memory budget of the jobs that run at the same time, in bytes.
+	 * @throws IllegalArgumentException when the number of threads or the budget is not positive
+	 *                                  | threads <= 0 || memoryBudget < 1024
+	 */
+	public BatchCompositor(int threads, long memoryBudget) {
+		if (threads <= 0 || memoryBudget < 1024) {
+			throw new IllegalArgumentException("The number of threads and the memory budget must be positive.");
+		}
+		this.threads = threads;
+		this.budget = (int) Math.min(Integer.MAX_VALUE, memoryBudget / 1024);
+		//at most one workspace per worker is in use, so the pool never needs to keep more
+		stitcher.setMaxPooledWorkspaces(threads);
+		stitcher.setMaxPooledWorkspaceBytes(Math.min(stitcher.getMaxPooledWorkspaceBytes(), 1024L * budget / 4 / threads));
+	}
+
+	/**
+	 * Reads the jobs of the given manifest.
+	 * @param path The path of the manifest.
+	 * @return The jobs, in the order of the manifest.
+	 * @throws IOException when the manifest cannot be read
+	 * @throws IllegalArgumentException when a line is not a valid job
+	 */
+	public static List<Job> readManifest(String path) throws IOException {
+		File directory = new File(path).getAbsoluteFile().getParentFile();
+		List<Job> jobs = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+			String line;
+			int number = 0;
+			while ((line = reader.readLine()) != null) {
+				number++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("\\s+");
+				if (fields.length != 5) {
+					throw new IllegalArgumentException(path + ":" + number + ": expected image1 image2 offsetx offsety output");
+				}
+				try {
+					jobs.add(new Job(resolve(directory, fields[0]), resolve(directory, fields[1]),
+							Integer.parseInt(fields[2]), Integer.parseInt(fields[3]), resolve(directory, fields[4])));
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException(path + ":" + number + ": the offsets must be integers");
+				}
+			}
+		}
+		return jobs;
+	}
+
+	/**
+	 * Returns the path relative to the given directory, or the path itself when it is absolute.
+	 */
+	private static String resolve(File directory, String path) {
+		File file = new File(path);
+		return file.isAbsolute() ? path : new File(directory, path).getPath();
+	}
+
+	/**
+	 * Runs the given jobs and waits until all of them are finished. A job that fails does not stop the others.
+	 * @param jobs The jobs.
+	 * @return The results, in the order of the jobs.
+	 */
+	public List<Result> run(List<Job> jobs) {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		//the buffers the jobs keep in the pool of the stitcher are not part of their estimates
+		Semaphore memory = new Semaphore(budget - (int) (stitcher.getMaxPooledBytes() / 1024), true);
+		try {
+			List<Future<Result>> futures = new ArrayList<>();
+			for (Job job : jobs) {
+				futures.add(pool.submit(() -> this.runJob(job, memory)));
+			}
+			List<Result> results = new ArrayList<>();
+			for (Future<Result> future : futures) {
+				try {
+					results.add(future.get());
+				} catch (ExecutionException e) {
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the jobs.", e);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Runs one job with StreamingCompositor, after reserving its estimated memory.
+	 */
+	private Result runJob(Job job, Semaphore memory) throws InterruptedException {
+		long start = System.nanoTime();
+		try (PixelSource image1 = PixelSource.open(job.getImage1());
+				PixelSource image2 = PixelSource.open(job.getImage2())) {
+			//the workers share one stitcher, so the buffers of its workspaces are reused from one job to the next
+			StreamingCompositor compositor = new StreamingCompositor(StreamingCompositor.DEFAULT_BAND_HEIGHT, stitcher);
+			long bytes = compositor.estimateMemory(image1.getWidth(), image1.getHeight(),
+					image2.getWidth(), image2.getHeight(), job.getOffsetx(), job.getOffsety());
+			//a job larger than the budget runs alone
+			int permits = (int) Math.min(budget - stitcher.getMaxPooledBytes() / 1024, bytes / 1024 + 1);
+			int width = StreamingCompositor.getResultWidth(image1.getWidth(), image2.getWidth(), job.getOffsetx());
+			int height = StreamingCompositor.getResultHeight(image1.getHeight(), image2.getHeight(), job.getOffsety());
+			memory.acquire(permits);
+			try (PixelSink output = PixelSink.create(job.getOutput(), width, height)) {
+				compositor.composite(image1, image2, job.getOffsetx(), job.getOffsety(), output);
+			} finally {
+				memory.release(permits);
+			}
+			return new Result(job, (long) width * height, System.nanoTime() - start, null);
+		} catch (IOException | RuntimeException e) {
+			return new Result(job, 0, System.nanoTime() - start, e.toString());
+		}
+	}
+
+	/**
+	 * Runs the jobs of the manifest args[0] and prints the time of every job and the throughput of the batch.
+	 * An optional args[1] sets the number of worker threads and args[2] the memory budget in MiB.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("BatchCompositor requires a manifest: image1 image2 offsetx offsety output per line.");
+			return;
+		}
+		BatchCompositor batch = new BatchCompositor();
+		if (args.length > 1) {
+			long memoryBudget = args.length > 2 ? Long.parseLong(args[2]) << 20 : Runtime.getRuntime().maxMemory() / 4 * 3;
+			batch = new BatchCompositor(Integer.parseInt(args[1]), memoryBudget);
+		}
+		List<Job> jobs = readManifest(args[0]);
+
+		long start = System.nanoTime();
+		List<Result> results = batch.run(jobs);
+		long wallTime = System.nanoTime() - start;
+
+		long pixels = 0;
+		int failed = 0;
+		for (Result result : results) {
+			if (result.isSuccessful()) {
+				pixels += result.getPixels();
+				System.out.printf("ok     %-40s %8.1f Mpx %8d ms%n", result.getJob().getOutput(),
+						result.getPixels() / 1e6, result.getTime() / 1000000);
+			} else {
+				failed++;
+				System.out.printf("FAILED %-40s %s%n", result.getJob().getOutput(), result.getError());
+			}
+		}
+		double seconds = wallTime / 1e9;
+		System.out.printf("%d jobs, %d failed, %d threads, %.2f s, %.2f jobs/s, %.2f Mpx/s%n", results.size(), failed,
+				batch.threads, seconds, (results.size() - failed) / seconds, pixels / 1e6 / seconds);
+		if (failed > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * A pair of images to compose and the file the result is written to.
+	 */
+	public static class Job
+	{
+		private final String image1;
+		private final String image2;
+		private final int offsetx;
+		private final int offsety;
+		private final String output;
+
+		/**
+		 * Creates a job.
+		 * @param image1  The path of image 1.
+		 * @param image2  The path of image 2.
+		 * @param offsetx The x-offset of image 2.
+		 * @param offsety The y-offset of image 2.
+		 * @param output  The path of the file of the result.
+		 */
+		public Job(String image1, String image2, int offsetx, int offsety, String output) {
+			this.image1 = image1;
+			this.image2 = image2;
+			this.offsetx = offsetx;
+			this.offsety = offsety;
+			this.output = output;
+		}
+
+		public String getImage1() {
+			return image1;
+		}
+
+		public String getImage2() {
+			return image2;
+		}
+
+		public int getOffsetx() {
+			return offsetx;
+		}
+
+		public int getOffsety() {
+			return offsety;
+		}
+
+		public String getOutput() {
+			return output;
+		}
+	}
+
+	/**
+	 * The outcome of a job.
+	 */
+	public static class Result
+	{
+		private final Job job;
+		private final long pixels;
+		private final long time;
+		private final String error;
+
+		private Result(Job job, long pixels, long time, String error) {
+			this.job = job;
+			this.pixels = pixels;
+			this.time = time;
+			this.error = error;
+		}
+
+		/**
+		 * Returns the job.
+		 * @return The job.
+		 */
+		public Job getJob() {
+			return job;
+		}
+
+		/**
+		 * Returns the number of pixels of the result, or 0 when the job failed.
+		 * @return The number of pixels.
+		 */
+		public long getPixels() {
+			return pixels;
+		}
+
+		/**
+		 * Returns the time the job took, in nanoseconds, including the time it waited for memory.
+		 * @return The time of the job.
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * Returns whether the job succeeded.
+		 * @return True when the result was written.
+		 */
+		public boolean isSuccessful() {
+			return error == null;
+		}
+
+		/**
+		 * Returns the description of the error of a failed job, or null when the job succeeded.
+		 * @return The error.
+		 */
+		public String getError() {
+			return error;
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package gna;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A monotone bucket queue (Dial's algorithm) of integer vertices with integer keys.
+ * It can only be used when every key that is inserted lies between the last removed key
+ * and that key plus maxCost, which is the case for Dijkstra with edge costs in [0, maxCost].
+ * The buckets are kept in a circular array of maxCost + 1 doubly linked lists, so insert and
+ * decrease-key take constant time and removing the minimum only scans empty buckets.
+ * A queue has at most as many buckets as vertices, or MIN_BUCKETS for small queues, see supports.
+ */
+public class BucketQueue
+{
+	/**
+	 * Variable storing the number of buckets a queue may have whatever its capacity.
+	 */
+	public static final int MIN_BUCKETS = 1 << 20;
+
+	/**
+	 * Variable storing the first vertex of every bucket, or -1 for an empty bucket.
+	 */
+	private final int[] head;
+
+	/**
+	 * Variable storing the next vertex in the bucket of a vertex, or -1.
+	 */
+	private final int[] next;
+
+	/**
+	 * Variable storing the previous vertex in the bucket of a vertex, or -1.
+	 */
+	private final int[] previous;
+
+	/**
+	 * Variable storing the key of every vertex. A vertex that is not on the queue has key -1.
+	 */
+	private final long[] keys;
+
+	/**
+	 * Variable storing the smallest key that can still be on the queue.
+	 */
+	private long currentKey;
+
+	/**
+	 * Variable storing the number of vertices on the queue.
+	 */
+	private int size;
+
+	/**
+	 * Variables storing the number of insertions and decreased keys, and the largest size, since the queue
+	 * was created or cleared.
+	 */
+	private long insertions;
+	private long decreasedKeys;
+	private int peakSize;
+
+	/**
+	 * Creates an empty queue for the vertices 0 .. capacity-1.
+	 * @param capacity The number of vertices that can be stored on the queue.
+	 * @param maxCost  The largest edge cost.
+	 * @throws IllegalArgumentException when the capacity is negative or the maximal cost is not supported.
+	 *                                  | capacity < 0 || !supports(capacity, maxCost)
+	 */
+	public BucketQueue(int capacity, int maxCost) {
+		if (capacity < 0 || maxCost < 0) {
+			throw new IllegalArgumentException("The capacity and maximal cost of the queue cannot be negative.");
+		}
+		if (!supports(capacity, maxCost)) {
+			throw new IllegalArgumentException("A maximal cost of " + maxCost + " needs more buckets than a queue of "
+					+ capacity + " vertices may have.");
+		}
+		this.head = new int[maxCost + 1];
+		this.next = new int[capacity];
+		this.previous = new int[capacity];
+		this.keys = new long[capacity];
+		for (int i = 0; i < head.length; i++) {
+			head[i] = -1;
+		}
+		for (int i = 0; i < capacity; i++) {
+			keys[i] = -1;
+		}
+	}
+
+	/**
+	 * Returns whether a queue for the given number of vertices supports the given maximal cost. Its maxCost + 1
+	 * buckets may not outnumber its vertices, or MIN_BUCKETS, so the buckets never take much more memory than
+	 * the vertices. A larger cost must be searched with a heap.
+	 * @param capacity The number of vertices of the queue.
+	 * @param maxCost  The largest edge cost.
+	 * @return True when the maximal cost is not negative and maxCost + 1 is at most the capacity or MIN_BUCKETS.
+	 */
+	public static boolean supports(int capacity, int maxCost) {
+		return maxCost >= 0 && maxCost < Math.max(capacity, MIN_BUCKETS);
+	}
+
+	/**
+	 * Returns whether the queue is empty.
+	 * @return True when there are no vertices on the queue; otherwise false.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the number of vertices that can be stored on the queue.
+	 * @return The capacity of the queue.
+	 */
+	public int getCapacity() {
+		return keys.length;
+	}
+
+	/**
+	 * Returns the largest edge cost the queue supports.
+	 * @return The maximal cost.
+	 */
+	public int getMaxCost() {
+		return head.length - 1;
+	}
+
+	/**
+	 * Removes all vertices from the queue and sets the smallest key back to 0.
+	 * Only the buckets and the vertices that are still on the queue are visited.
+	 */
+	public void clear() {
+		for (int bucket = 0; bucket < head.length && size > 0; bucket++) {
+			for (int v = head[bucket]; v != -1; v = next[v]) {
+				keys[v] = -1;
+				size--;
+			}
+			head[bucket] = -1;
+		}
+		currentKey = 0;
+		insertions = 0;
+		decreasedKeys = 0;
+		peakSize = 0;
+	}
+
+	/**
+	 * Returns the number of vertices that were inserted since the queue was created or cleared.
+	 * @return The number of insertions.
+	 */
+	public long getInsertions() {
+		return insertions;
+	}
+
+	/**
+	 * Returns the number of keys that were decreased since the queue was created or cleared.
+	 * @return The number of decreased keys.
+	 */
+	public long getDecreasedKeys() {
+		return decreasedKeys;
+	}
+
+	/**
+	 * Returns the largest number of vertices that were on the queue since it was created or cleared.
+	 * @return The peak size of the queue.
+	 */
+	public int getPeakSize() {
+		return peakSize;
+	}
+
+	/**
+	 * Returns whether the given vertex is on the queue.
+	 * @param v The vertex.
+	 * @return True when the vertex is on the queue; otherwise false.
+	 */
+	public boolean contains(int v) {
+		return keys[v] != -1;
+	}
+
+	/**
+	 * Inserts the vertex, or moves it to the bucket of its new key when it is already on the queue.
+	 * @param v   The vertex.
+	 * @param key The (new) key of the vertex.
+	 * @throws IllegalArgumentException when the key lies outside the window of the monotone queue.
+	 *                                  | key < currentKey || key > currentKey + maxCost
+	 */
+	public void insertOrDecrease(int v, long key) {
+		if (key < currentKey || key - currentKey >= head.length) {
+			throw new IllegalArgumentException("The key lies outside the window of the bucket queue.");
+		}
+		if (contains(v)) {
+			unlink(v);
+			decreasedKeys++;
+		} else {
+			size++;
+			insertions++;
+			if (size > peakSize) {
+				peakSize = size;
+			}
+		}
+		keys[v] = key;
+		int bucket = (int) (key % head.length);
+		previous[v] = -1;
+		next[v] = head[bucket];
+		if (head[bucket] != -1) {
+			previous[head[bucket]] = v;
+		}
+		head[bucket] = v;
+	}
+
+	/**
+	 * Removes a vertex with the smallest key and returns it.
+	 * @return A vertex with the smallest key.
+	 * @throws NoSuchElementException when the queue is empty.
+	 *                                | isEmpty()
+	 */
+	public int delMin() {
+		if (size == 0) {
+			throw new NoSuchElementException("The queue is empty.");
+		}
+		int bucket = (int) (currentKey % head.length);
+		while (head[bucket] == -1) {
+			currentKey++;
+			bucket = bucket + 1 == head.length ? 0 : bucket + 1;
+		}
+		int min = head[bucket];
+		unlink(min);
+		keys[min] = -1;
+		size--;
+		return min;
+	}
+
+	/**
+	 * Removes the vertex from the linked list of its bucket.
+	 * @param v The vertex, which is on the queue.
+	 */
+	private void unlink(int v) {
+		if (previous[v] != -1) {
+			next[previous[v]] = next[v];
+		} else {
+			head[(int) (keys[v] % head.length)] = next[v];
+		}
+		if (next[v] != -1) {
+			previous[next[v]] = previous[v];
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package gna;
+
+/**
+ * Receives an image block by block, from the leftmost columns to the rightmost columns.
+ */
+public interface ColumnSink
+{
+	/**
+	 * Writes the next block of columns of the image. The block starts in column x, the rows of a block
+	 * are the rows covered by the images in those columns, so they can differ from block to block.
+	 * @param x      The first column of the block.
+	 * @param y      The first row of the block, which can be negative.
+	 * @param width  The number of columns of the block.
+	 * @param height The number of rows of the block.
+	 * @param pixels The ARGB values of the block, pixel (y + r, x + c) at index r * width + c.
+	 */
+	void writeColumns(int x, int y, int width, int height, int[] pixels);
+}
@@ -0,0 +1,147 @@
+package gna;
+
+/**
+ * Calculates the cost of the pixels of two images, the cost of a seam is the sum of the costs of its pixels.
+ * The costs are calculated one row at a time, so an implementation can use a tight loop over the row.
+ */
+public interface CostFunction
+{
+	/**
+	 * The squared Euclidean distance between the pixels of both images, see ImageCompositor.pixelSqDistance.
+	 */
+	CostFunction SQUARED_DISTANCE = new CostFunction() {
+		@Override
+		public void computeRow(int[][] image1, int[][] image2, int y, int[] costs, int offset) {
+			int[] row1 = image1[y];
+			int[] row2 = image2[y];
+			for (int x = 0; x < row1.length; x++) {
+				costs[offset + x] = ImageCompositor.pixelSqDistance(row1[x], row2[x]);
+			}
+		}
+
+		@Override
+		public void computeSpan(ImageView image1, ImageView image2, int y, int first, int last, int[] costs, int offset) {
+			if (!image1.hasArray() || !image2.hasArray()) {
+				//read the mapped pixels where they are
+				for (int x = first; x <= last; x++) {
+					costs[offset + x - first] = ImageCompositor.pixelSqDistance(image1.get(y, x), image2.get(y, x));
+				}
+				return;
+			}
+			int[] row1 = image1.getRow(y);
+			int[] row2 = image2.getRow(y);
+			int x1 = image1.getX();
+			int x2 = image2.getX();
+			for (int x = first; x <= last; x++) {
+				costs[offset + x - first] = ImageCompositor.pixelSqDistance(row1[x1 + x], row2[x2 + x]);
+			}
+		}
+	};
+
+	/**
+	 * The squared distance between the pixels plus the squared differences between the horizontal and vertical
+	 * gray-value gradients of both images. A seam with this cost avoids edges that only appear in one image.
+	 */
+	CostFunction GRADIENT = new CostFunction() {
+		@Override
+		public void computeRow(int[][] image1, int[][] image2, int y, int[] costs, int offset) {
+			int[] row1 = image1[y];
+			int[] row2 = image2[y];
+			int[] below1 = image1[Math.min(y + 1, image1.length - 1)];
+			int[] below2 = image2[Math.min(y + 1, image2.length - 1)];
+			for (int x = 0; x < row1.length; x++) {
+				int right = Math.min(x + 1, row1.length - 1);
+				int horizontal = (gray(row1[right]) - gray(row1[x])) - (gray(row2[right]) - gray(row2[x]));
+				int vertical = (gray(below1[x]) - gray(row1[x])) - (gray(below2[x]) - gray(row2[x]));
+				costs[offset + x] = ImageCompositor.pixelSqDistance(row1[x], row2[x])
+						+ horizontal * horizontal + vertical * vertical;
+			}
+		}
+
+		@Override
+		public void computeSpan(ImageView image1, ImageView image2, int y, int first, int last, int[] costs, int offset) {
+			int width = image1.getWidth();
+			int below = Math.min(y + 1, image1.getHeight() - 1);
+			if (!image1.hasArray() || !image2.hasArray()) {
+				//read the mapped pixels where they are
+				for (int x = first; x <= last; x++) {
+					int right = Math.min(x + 1, width - 1);
+					int pixel1 = image1.get(y, x);
+					int pixel2 = image2.get(y, x);
+					int horizontal = (gray(image1.get(y, right)) - gray(pixel1)) - (gray(image2.get(y, right)) - gray(pixel2));
+					int vertical = (gray(image1.get(below, x)) - gray(pixel1)) - (gray(image2.get(below, x)) - gray(pixel2));
+					costs[offset + x - first] = ImageCompositor.pixelSqDistance(pixel1, pixel2)
+							+ horizontal * horizontal + vertical * vertical;
+				}
+				return;
+			}
+			int[] row1 = image1.getRow(y);
+			int[] row2 = image2.getRow(y);
+			int[] below1 = image1.getRow(below);
+			int[] below2 = image2.getRow(below);
+			int x1 = image1.getX();
+			int x2 = image2.getX();
+			for (int x = first; x <= last; x++) {
+				int right = Math.min(x + 1, width - 1);
+				int horizontal = (gray(row1[x1 + right]) - gray(row1[x1 + x])) - (gray(row2[x2 + right]) - gray(row2[x2 + x]));
+				int vertical = (gray(below1[x1 + x]) - gray(row1[x1 + x])) - (gray(below2[x2 + x]) - gray(row2[x2 + x]));
+				costs[offset + x - first] = ImageCompositor.pixelSqDistance(row1[x1 + x], row2[x2 + x])
+						+ horizontal * horizontal + vertical * vertical;
+			}
+		}
+
+		private int gray(int pixel) {
+			return (((pixel >> 16) & 0xFF) + ((pixel >> 8) & 0xFF) + (pixel & 0xFF)) / 3;
+		}
+	};
+
+	/**
+	 * Calculates the costs of row y. The costs must not be negative.
+	 * @param image1 The values of image 1.
+	 * @param image2 The values of image 2, with the same dimensions as image1.
+	 * @param y      The row.
+	 * @param costs  The array in which the costs are stored.
+	 * @param offset The index in costs where the cost of pixel (y, 0) is stored.
+	 */
+	void computeRow(int[][] image1, int[][] image2, int y, int[] costs, int offset);
+
+	/**
+	 * Calculates the costs of row y of two views, with the same dimensions. The default implementation calls
+	 * computeSpan for the whole row.
+	 * @param image1 The view of image 1.
+	 * @param image2 The view of image 2.
+	 * @param y      The row of the views.
+	 * @param costs  The array in which the costs are stored.
+	 * @param offset The index in costs where the cost of pixel (y, 0) is stored.
+	 */
+	default void computeRow(ImageView image1, ImageView image2, int y, int[] costs, int offset) {
+		this.computeSpan(image1, image2, y, 0, image1.getWidth() - 1, costs, offset);
+	}
+
+	/**
+	 * Calculates the costs of the pixels first up to last of row y of two views, with the same dimensions. The costs
+	 * are the costs computeRow calculates for those pixels, so a seam search in a corridor only calculates the costs
+	 * of the corridor. The default implementation copies row y and the row below it of both views and calls
+	 * computeRow(int[][], int[][], int, int[], int), so a function that reads other rows must override it.
+	 * @param image1 The view of image 1.
+	 * @param image2 The view of image 2.
+	 * @param y      The row of the views.
+	 * @param first  The first column of the span.
+	 * @param last   The last column of the span.
+	 * @param costs  The array in which the costs are stored.
+	 * @param offset The index in costs where the cost of pixel (y, first) is stored.
+	 */
+	default void computeSpan(ImageView image1, ImageView image2, int y, int first, int last, int[] costs, int offset) {
+		int below = Math.min(y + 1, image1.getHeight() - 1);
+		int width = image1.getWidth();
+		int[][] rows1 = new int[2][width];
+		int[][] rows2 = new int[2][width];
+		image1.copyRow(y, 0, width, rows1[0], 0);
+		image1.copyRow(below, 0, width, rows1[1], 0);
+		image2.copyRow(y, 0, width, rows2[0], 0);
+		image2.copyRow(below, 0, width, rows2[1], 0);
+		int[] row = new int[width];
+		this.computeRow(rows1, rows2, 0, row, 0);
+		System.arraycopy(row, first, costs, offset, last - first + 1);
+	}
+}
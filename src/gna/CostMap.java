@@ -0,0 +1,171 @@
+package gna;
+
+/**
+ * The costs of all pixels of two images, calculated once and stored row by row in one int array.
+ * The cost of pixel (y, x) is stored at index y * width + x, the vertex of that pixel in the seam search.
+ */
+public class CostMap
+{
+	/**
+	 * Variable storing the width of the images.
+	 */
+	private final int width;
+
+	/**
+	 * Variable storing the height of the images.
+	 */
+	private final int height;
+
+	/**
+	 * Variable storing the costs of the pixels.
+	 */
+	private final int[] costs;
+
+	/**
+	 * Variable storing the largest cost.
+	 */
+	private final int maxCost;
+
+	/**
+	 * Creates a cost map of the given costs.
+	 * @param height The height of the images.
+	 * @param width  The width of the images.
+	 * @param costs  The height * width costs, stored row by row. The array may be longer, the elements after the
+	 *               first height * width are ignored.
+	 * @throws IllegalArgumentException when the dimensions do not match the costs or a cost is negative
+	 *                                  | height <= 0 || width <= 0 || costs.length < height * width
+	 *                                  | || costs[i] < 0
+	 */
+	public CostMap(int height, int width, int[] costs) {
+		if (height <= 0 || width <= 0 || costs == null || costs.length < height * width) {
+			throw new IllegalArgumentException("The costs do not match the dimensions of the images.");
+		}
+		int max = 0;
+		int min = 0;
+		for (int i = 0; i < height * width; i++) {
+			max = Math.max(max, costs[i]);
+			min = Math.min(min, costs[i]);
+		}
+		if (min < 0) {
+			throw new IllegalArgumentException("The cost of a pixel cannot be negative.");
+		}
+		this.height = height;
+		this.width = width;
+		this.costs = costs;
+		this.maxCost = max;
+	}
+
+	/**
+	 * Returns the cost map of the squared distances between the pixels of both images.
+	 * @param image1 The values of image 1.
+	 * @param image2 The values of image 2, with the same dimensions as image1.
+	 * @return The cost map.
+	 */
+	public static CostMap of(int[][] image1, int[][] image2) {
+		return of(image1, image2, CostFunction.SQUARED_DISTANCE);
+	}
+
+	/**
+	 * Returns the cost map of both images for the given cost function.
+	 * @param image1       The values of image 1.
+	 * @param image2       The values of image 2, with the same dimensions as image1.
+	 * @param costFunction The cost function.
+	 * @return The cost map.
+	 */
+	public static CostMap of(int[][] image1, int[][] image2, CostFunction costFunction) {
+		return of(image1, image2, costFunction, new int[image1.length * image1[0].length]);
+	}
+
+	/**
+	 * Returns the cost map of both images for the given cost function, with the costs stored in the given array.
+	 * @param image1       The values of image 1.
+	 * @param image2       The values of image 2, with the same dimensions as image1.
+	 * @param costFunction The cost function.
+	 * @param costs        The array in which the costs are stored, with at least height * width elements.
+	 * @return The cost map.
+	 * @throws IllegalArgumentException when the array is too short for the dimensions of the images
+	 *                                  | costs.length < image1.length * image1[0].length
+	 */
+	public static CostMap of(int[][] image1, int[][] image2, CostFunction costFunction, int[] costs) {
+		int height = image1.length;
+		int width = image1[0].length;
+		if (costs.length < height * width) {
+			throw new IllegalArgumentException("The costs do not match the dimensions of the images.");
+		}
+		for (int y = 0; y < height; y++) {
+			costFunction.computeRow(image1, image2, y, costs, y * width);
+		}
+		return new CostMap(height, width, costs);
+	}
+
+	/**
+	 * Returns the cost map of two views for the given cost function, with the costs stored in the given array.
+	 * Row y of the cost map is row y of the views, so the cost map of mirrored views is mirrored as well.
+	 * The pixels of the images are read through the views and never copied.
+	 * @param image1       The view of image 1.
+	 * @param image2       The view of image 2.
+	 * @param costFunction The cost function.
+	 * @param costs        The array in which the costs are stored, with at least height * width elements.
+	 * @return The cost map.
+	 * @throws IllegalArgumentException when the views have other dimensions or the array is too short for them
+	 *                                  | image1.getHeight() != image2.getHeight() || image1.getWidth() != image2.getWidth()
+	 *                                  | || costs.length < image1.getHeight() * image1.getWidth()
+	 */
+	public static CostMap of(ImageView image1, ImageView image2, CostFunction costFunction, int[] costs) {
+		int height = image1.getHeight();
+		int width = image1.getWidth();
+		if (image2.getHeight() != height || image2.getWidth() != width) {
+			throw new IllegalArgumentException("The views have other dimensions.");
+		}
+		if (costs.length < height * width) {
+			throw new IllegalArgumentException("The costs do not match the dimensions of the images.");
+		}
+		for (int y = 0; y < height; y++) {
+			costFunction.computeRow(image1, image2, y, costs, y * width);
+		}
+		return new CostMap(height, width, costs);
+	}
+
+	/**
+	 * Returns the width of the images.
+	 * @return The width of the images.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height of the images.
+	 * @return The height of the images.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the costs of the pixels, the cost of pixel (y, x) is stored at index y * width + x. The array may
+	 * be longer than height * width when it was taken from a SeamWorkspace.
+	 * @return The costs of the pixels.
+	 */
+	public int[] getCosts() {
+		return costs;
+	}
+
+	/**
+	 * Returns the cost of pixel (y, x).
+	 * @param y The y-coordinate.
+	 * @param x The x-coordinate.
+	 * @return The cost of the pixel.
+	 */
+	public int getCost(int y, int x) {
+		return costs[y * width + x];
+	}
+
+	/**
+	 * Returns the largest cost of a pixel.
+	 * @return The largest cost of a pixel.
+	 */
+	public int getMaxCost() {
+		return maxCost;
+	}
+}
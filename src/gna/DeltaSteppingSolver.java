@@ -0,0 +1,305 @@
+package gna;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+/**
+ * Parallel shortest path from the upper left to the lower right corner of the 8-connected pixel grid,
+ * using delta-stepping. The tentative distances are grouped in buckets of width delta, and all vertices
+ * of the current bucket are relaxed in parallel on a ForkJoinPool until the bucket stays empty.
+ *
+ * During the search the distance and the direction of the previous vertex are packed in one long per
+ * vertex, (distance << 3) | direction, so both are updated together with a single compare-and-set.
+ */
+public class DeltaSteppingSolver
+{
+	/**
+	 * The default width of a bucket.
+	 */
+	public static final int DEFAULT_DELTA = 1024;
+
+	/**
+	 * The x-offsets of the eight neighbors of a vertex.
+	 */
+	private static final int[] NEIGHBOR_DX = {-1, 1, 0, 0, -1, -1, 1, 1};
+
+	/**
+	 * The y-offsets of the eight neighbors of a vertex, matching NEIGHBOR_DX.
+	 */
+	private static final int[] NEIGHBOR_DY = {0, 0, -1, 1, -1, 1, -1, 1};
+
+	/**
+	 * Frontiers smaller than this are relaxed in a single task.
+	 */
+	private static final int SEQUENTIAL_THRESHOLD = 2048;
+
+	/**
+	 * Handle for the atomic operations on the packed distances.
+	 */
+	private static final VarHandle PACKED = MethodHandles.arrayElementVarHandle(long[].class);
+
+	/**
+	 * Variable storing the costs of the pixels.
+	 */
+	private final CostMap costMap;
+
+	/**
+	 * Variable storing the width of the images.
+	 */
+	private final int width;
+
+	/**
+	 * Variable storing the height of the images.
+	 */
+	private final int height;
+
+	/**
+	 * Variable storing the width of a bucket.
+	 */
+	private final int delta;
+
+	/**
+	 * Variable storing the pool the relaxations run on.
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Variable storing the packed distance and direction of every vertex during the search.
+	 */
+	private long[] packed;
+
+	/**
+	 * Variable storing for every vertex the last phase in which it was part of the frontier.
+	 */
+	private int[] phaseOf;
+
+	/**
+	 * Variable storing the number of vertices that were relaxed by the search.
+	 */
+	private int settledVertices;
+
+	/**
+	 * Creates a solver for the given cost map, with the default delta on the common pool.
+	 * @param costMap The costs of the pixels.
+	 */
+	public DeltaSteppingSolver(CostMap costMap) {
+		this(costMap, DEFAULT_DELTA, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a solver for the given cost map.
+	 * @param costMap The costs of the pixels.
+	 * @param delta   The width of a bucket.
+	 * @param pool    The pool the relaxations run on.
+	 * @throws IllegalArgumentException when delta is not positive or the pool equals null
+	 *                                  | delta <= 0 || pool == null
+	 */
+	public DeltaSteppingSolver(CostMap costMap, int delta, ForkJoinPool pool) {
+		if (delta <= 0 || pool == null) {
+			throw new IllegalArgumentException("Delta must be positive and the pool cannot be null.");
+		}
+		this.costMap = costMap;
+		this.height = costMap.getHeight();
+		this.width = costMap.getWidth();
+		this.delta = delta;
+		this.pool = pool;
+	}
+
+	/**
+	 * Calculates the shortest path to the lower right corner. Afterwards distTo contains the distance of
+	 * every vertex that was reached (Long.MAX_VALUE otherwise) and previousVertex the previous vertex on
+	 * its shortest path (-1 otherwise). The distance of the target is exact, vertices further away than the
+	 * target may only have an upper bound.
+	 * @param distTo         The array of at least height * width distances, also used as storage during the search.
+	 * @param previousVertex The array of at least height * width previous vertices.
+	 */
+	public void solve(long[] distTo, int[] previousVertex) {
+		int size = height * width;
+		this.packed = distTo;
+		Arrays.fill(packed, 0, size, Long.MAX_VALUE);
+		packed[0] = 0;
+		int target = size - 1;
+
+		//the distances in the buckets lie between the current distance and that plus the largest cost
+		IntList[] buckets = new IntList[costMap.getMaxCost() / delta + 2];
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new IntList();
+		}
+		buckets[0].add(0);
+		this.phaseOf = new int[size];
+		int phase = 0;
+		int queued = 1;
+		int settled = 0;
+		long bucket = 0;
+		while (queued > 0) {
+			while (buckets[(int) (bucket % buckets.length)].size() == 0) {
+				bucket++;
+			}
+			if ((packed[target] >>> 3) < bucket * delta) {
+				break;
+			}
+			IntList current = buckets[(int) (bucket % buckets.length)];
+			while (current.size() > 0) {
+				int[] vertices = this.toFrontier(current, bucket, ++phase);
+				queued -= current.size();
+				current.clear();
+				settled += vertices.length;
+				IntList improved = pool.invoke(new Relaxation(vertices, 0, vertices.length));
+				for (int i = 0; i < improved.size(); i++) {
+					int v = improved.get(i);
+					buckets[(int) (((packed[v] >>> 3) / delta) % buckets.length)].add(v);
+				}
+				queued += improved.size();
+			}
+		}
+		this.settledVertices = settled;
+		this.phaseOf = null;
+
+		//unpack the distances and directions
+		IntStream.range(0, size).parallel().forEach(v -> {
+			if (v == 0 || packed[v] == Long.MAX_VALUE) {
+				previousVertex[v] = -1;
+			} else {
+				int k = (int) (packed[v] & 7);
+				int y = v / width - NEIGHBOR_DY[k];
+				int x = v % width - NEIGHBOR_DX[k];
+				previousVertex[v] = y * width + x;
+				packed[v] >>>= 3;
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of vertices that were relaxed by the last search.
+	 * @return The number of relaxed vertices.
+	 */
+	public int getSettledVertices() {
+		return settledVertices;
+	}
+
+	/**
+	 * Returns the distinct vertices of the list that still belong to the given bucket.
+	 * @param list   The list of vertices that were added to the bucket.
+	 * @param bucket The index of the bucket.
+	 * @param phase  The number of the phase, used to drop duplicates.
+	 * @return The vertices to relax in this phase.
+	 */
+	private int[] toFrontier(IntList list, long bucket, int phase) {
+		int[] frontier = new int[list.size()];
+		int count = 0;
+		for (int i = 0; i < list.size(); i++) {
+			int v = list.get(i);
+			if ((packed[v] >>> 3) / delta == bucket && phaseOf[v] != phase) {
+				phaseOf[v] = phase;
+				frontier[count++] = v;
+			}
+		}
+		return count == frontier.length ? frontier : Arrays.copyOf(frontier, count);
+	}
+
+	/**
+	 * Relaxes the neighbors of the vertex, returns the improved neighbors in the list.
+	 * @param v        The vertex.
+	 * @param improved The list to which the improved neighbors are added.
+	 */
+	private void relax(int v, IntList improved) {
+		long distance = ((long) PACKED.getOpaque(packed, v)) >>> 3;
+		int[] costs = costMap.getCosts();
+		int y = v / width;
+		int x = v - y * width;
+		for (int k = 0; k < NEIGHBOR_DX.length; k++) {
+			int ny = y + NEIGHBOR_DY[k];
+			int nx = x + NEIGHBOR_DX[k];
+			if (ny < 0 || ny >= height || nx < 0 || nx >= width) {
+				continue;
+			}
+			int neighbor = ny * width + nx;
+			long calcDistance = distance + costs[neighbor];
+			long value = (calcDistance << 3) | k;
+			long old = (long) PACKED.getOpaque(packed, neighbor);
+			while ((old >>> 3) > calcDistance) {
+				if (PACKED.compareAndSet(packed, neighbor, old, value)) {
+					improved.add(neighbor);
+					break;
+				}
+				old = (long) PACKED.getOpaque(packed, neighbor);
+			}
+		}
+	}
+
+	/**
+	 * Task relaxing a range of the frontier, split in halves until it is small enough.
+	 */
+	private class Relaxation extends RecursiveTask<IntList>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int[] vertices;
+		private final int from;
+		private final int to;
+
+		private Relaxation(int[] vertices, int from, int to) {
+			this.vertices = vertices;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected IntList compute() {
+			if (to - from <= SEQUENTIAL_THRESHOLD) {
+				IntList improved = new IntList();
+				for (int i = from; i < to; i++) {
+					relax(vertices[i], improved);
+				}
+				return improved;
+			}
+			int middle = (from + to) >>> 1;
+			Relaxation left = new Relaxation(vertices, from, middle);
+			left.fork();
+			IntList right = new Relaxation(vertices, middle, to).compute();
+			IntList result = left.join();
+			result.addAll(right);
+			return result;
+		}
+	}
+
+	/**
+	 * A growable list of ints.
+	 */
+	private static class IntList
+	{
+		private int[] values = new int[16];
+		private int size;
+
+		private int size() {
+			return size;
+		}
+
+		private int get(int i) {
+			return values[i];
+		}
+
+		private void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, 2 * size);
+			}
+			values[size++] = value;
+		}
+
+		private void addAll(IntList other) {
+			if (size + other.size > values.length) {
+				values = Arrays.copyOf(values, Math.max(2 * values.length, size + other.size));
+			}
+			System.arraycopy(other.values, 0, values, size, other.size);
+			size += other.size;
+		}
+
+		private void clear() {
+			size = 0;
+		}
+	}
+}
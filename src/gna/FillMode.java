@@ -0,0 +1,17 @@
+package gna;
+
+/**
+ * The algorithms the Stitcher can use to fill the mask on both sides of the seam. All modes give the same mask.
+ */
+public enum FillMode
+{
+	/**
+	 * Two scanline flood fills, from the lower left and the upper right corner.
+	 */
+	SCANLINE,
+
+	/**
+	 * Parallel connected-component labelling of stripes of rows, see ParallelMaskLabeler.
+	 */
+	PARALLEL
+}
@@ -1,10 +1,14 @@
 package gna;
 
+import java.io.IOException;
 import java.lang.Math;
 
 import libpract.*;
 
 public class ImageCompositor {
+	/** The largest value pixelSqDistance can return */
+	public static final int MAX_PIXEL_SQ_DISTANCE = 3 * 255 * 255;
+
 	/** Squared Euclidean distance between pixel values x and y */
 	public static int pixelSqDistance(int x, int y)
 	{
@@ -16,36 +20,10 @@ public class ImageCompositor {
 	}
 
 
-	private static void flipVertical(int[][] img)
-	{
-		int h = img.length;
-		for (int row = 0; row < h / 2; row++) {
-			for (int col = 0; col < img[0].length; col++) {
-				int t = img[row][col];
-				img[row][col] = img[(h - row - 1)][col];
-				img[(h - row - 1)][col] = t;
-			}
-		}
-	}
-
-
-	private static void flipVertical(Stitch[][] img)
-	{
-		int h = img.length;
-		for (int row = 0; row < h / 2; row++) {
-			for (int col = 0; col < img[0].length; col++) {
-				Stitch t = img[row][col];
-				img[row][col] = img[(h - row - 1)][col];
-				img[(h - row - 1)][col] = t;
-			}
-		}
-	}
-
-
 	public static void main(String[] args)
 	{
 		String file1, file2;
-		int[][] img1, img2;
+		ImageView img1, img2;
 
 		//
 		// Step 1 - Read input images and process arguments
@@ -67,8 +45,41 @@ public class ImageCompositor {
 			}
 		}
 
-		img1 = Util.readImage(args[0]);
-		img2 = Util.readImage(args[1]);
+		// With -Dgna.metrics=file.json the measurements are written to that file,
+		// with -Dgna.metrics=jmx they are registered as an MBean
+		String metricsOption = System.getProperty("gna.metrics");
+		StitchMetrics metrics = metricsOption != null ? new StitchMetrics() : null;
+		if ("jmx".equals(metricsOption))
+			metrics.register("ImageCompositor");
+		Stitcher stitcher = new Stitcher();
+		stitcher.setListener(metrics);
+
+		if (args.length > 4 && !args[4].isEmpty()) {
+			// Stream the result to a file instead of displaying it
+			long start = System.nanoTime();
+			try (PixelSource source1 = PixelSource.open(args[0]);
+					PixelSource source2 = PixelSource.open(args[1])) {
+				try (PixelSink output = PixelSink.create(args[4],
+						StreamingCompositor.getResultWidth(source1.getWidth(), source2.getWidth(), offsetx),
+						StreamingCompositor.getResultHeight(source1.getHeight(), source2.getHeight(), offsety))) {
+					new StreamingCompositor(StreamingCompositor.DEFAULT_BAND_HEIGHT, stitcher).composite(source1,
+							source2, offsetx, offsety, output);
+				}
+			} catch (IOException e) {
+				System.out.println("unable to composite the images: " + e.getMessage());
+			}
+			if (metrics != null)
+				metrics.phaseFinished("stream", System.nanoTime() - start, -1);
+			writeMetrics(metrics, metricsOption);
+			return;
+		}
+
+		long start = System.nanoTime();
+		long allocated = StitchMetrics.allocatedBytes();
+		img1 = readImage(args[0]);
+		img2 = readImage(args[1]);
+		if (metrics != null)
+			metrics.phaseFinished("read", System.nanoTime() - start, StitchMetrics.allocatedBytes() - allocated);
 		if (img1 == null) {
 			System.out.println("unable to read image: " + args[0]);
 			return;
@@ -77,14 +88,92 @@ public class ImageCompositor {
 			return;
 		}
 
-		int width1  = img1[0].length;
-		int height1 = img1.length;
-		int width2  = img2[0].length;
-		int height2 = img2.length;
+		//
+		// Step 4 - Display result
+		//
+
+		int[][] result = composite(img1, img2, offsetx, offsety, stitcher);
+		start = System.nanoTime();
+		allocated = StitchMetrics.allocatedBytes();
+		Util.displayImage(result);
+		if (metrics != null)
+			metrics.phaseFinished("write", System.nanoTime() - start, StitchMetrics.allocatedBytes() - allocated);
+		writeMetrics(metrics, metricsOption);
+	}
+
+	/**
+	 * Writes the metrics to the file of the option, unless the metrics are disabled or registered with JMX.
+	 */
+	private static void writeMetrics(StitchMetrics metrics, String option)
+	{
+		if (metrics == null || option.equals("jmx"))
+			return;
+		try {
+			metrics.writeJson(option);
+		} catch (IOException e) {
+			System.out.println("unable to write the metrics: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns a view of an image read with Util.readImage, or of the mapping when it is a raw image, so a raw
+	 * image is neither decoded nor copied. The mapping stays valid after the file is closed.
+	 */
+	private static ImageView readImage(String path)
+	{
+		try (RawImage raw = RawImage.open(path)) {
+			if (raw != null)
+				return ImageView.of(raw);
+		} catch (IOException e) {
+			return null;
+		}
+		int[][] image = Util.readImage(path);
+		return image != null ? ImageView.of(image) : null;
+	}
+
+	/**
+	 * Composes the two images, image2 is placed offsetx to the right and offsety below image1.
+	 * StreamingCompositor produces the same result without holding the images in memory.
+	 */
+	public static int[][] composite(int[][] img1, int[][] img2, int offsetx, int offsety)
+	{
+		return composite(img1, img2, offsetx, offsety, new Stitcher());
+	}
+
+	/**
+	 * Composes the two images with the given stitcher, the phases are reported to its listener.
+	 */
+	public static int[][] composite(int[][] img1, int[][] img2, int offsetx, int offsety, Stitcher stitcher)
+	{
+		return composite(ImageView.of(img1), ImageView.of(img2), offsetx, offsety, stitcher);
+	}
+
+	/**
+	 * Composes two memory-mapped images with the given stitcher. The overlap is costed and the result is
+	 * composed straight from the mappings, the images are never copied into arrays.
+	 */
+	public static int[][] composite(RawImage img1, RawImage img2, int offsetx, int offsety, Stitcher stitcher)
+	{
+		return composite(ImageView.of(img1), ImageView.of(img2), offsetx, offsety, stitcher);
+	}
+
+	/**
+	 * Composes the images of the two views, each view holds a whole image.
+	 */
+	private static int[][] composite(ImageView img1, ImageView img2, int offsetx, int offsety, Stitcher stitcher)
+	{
+		StitchListener listener = stitcher.getListener();
+		long start = listener != null ? System.nanoTime() : 0;
+		long allocated = listener != null ? StitchMetrics.allocatedBytes() : 0;
+
+		int width1  = img1.getWidth();
+		int height1 = img1.getHeight();
+		int width2  = img2.getWidth();
+		int height2 = img2.getHeight();
 
 
 		//
-		// Step 2 - Create two images for the overlapping part which we will stitch.
+		// Step 2 - Create two views of the overlapping part which we will stitch.
 		//
 
 		// FIXME: Check if the images actually overlap
@@ -93,85 +182,39 @@ public class ImageCompositor {
 		int stitchXend   = Math.min(stitchXstart + width2, width1);
 		int stitchYstart = Math.max(offsety, 0);
 		int stitchYend   = Math.min(offsety + height2, height1);
+		int stitch2Ystart = offsety > 0 ? 0 : -offsety;
 
 		int stitchHeight = stitchYend - stitchYstart;
 		int stitchWidth  = stitchXend - stitchXstart;
 
-		int[][] toStitch1 = new int[stitchHeight][stitchWidth];
-		int[][] toStitch2 = new int[stitchHeight][stitchWidth];
-
-		for (int row = 0; row < stitchHeight; row++) {
-			for (int col = 0; col < stitchWidth; col++) {
-				toStitch1[row][col] = img1[stitchYstart + row][stitchXstart + col];
-				toStitch2[row][col] = img2[offsety > 0 ? row : row - offsety][col];
-			}
-		}
+		// The views read the overlap in img1 and img2, nothing is copied
+		ImageView toStitch1 = img1.window(stitchYstart, stitchXstart, stitchHeight, stitchWidth);
+		ImageView toStitch2 = img2.window(stitch2Ystart, 0, stitchHeight, stitchWidth);
 
 
 		//
 		// Step 3 - Create composed image based on offsetx and offxety
 		//
 
-		// Assure that seam runs from top-left to bottom-right
-		boolean shouldFlip = offsety != 0 && stitchXend == width1 && stitchYend == height1;
-		if (shouldFlip) {
-			flipVertical(toStitch1);
-			flipVertical(toStitch2);
-		}
-		Stitch[][] mask = new Stitcher().stitch(toStitch1, toStitch2);
-		if (shouldFlip) {
-			flipVertical(toStitch1);
-			flipVertical(toStitch2);
-			flipVertical(mask);
+		if (listener != null) {
+			listener.phaseFinished("overlap", System.nanoTime() - start, StitchMetrics.allocatedBytes() - allocated);
 		}
 
-		// Calculate dimensions of resulting image
-		int resultWidth, resultHeight;
-		resultWidth = Math.max(width1, width2 + offsetx);
-		if (offsety > 0)
-			resultHeight = Math.max(height1, height2 + offsety);
-		else
-			resultHeight = Math.max(height1 - offsety, height2);
-
-		int[][] result = new int[resultHeight][resultWidth];
-
-		// Copy image1 to resulting image
-		for (int row = 0; row < height1; row++) {
-			for (int col = 0; col < width1; col++) {
-				// For negative offsety we are pushing image1 down
-				result[(offsety < 0 ? row - offsety : row)][col] = img1[row][col];
-			}
+		// The seam runs from top-left to bottom-right, unless the overlap is the bottom-right corner of image1
+		boolean bottomRight = offsety != 0 && stitchXend == width1 && stitchYend == height1;
+		PackedMask mask = stitcher.stitchPacked(toStitch1, toStitch2,
+				bottomRight ? SeamCorners.BOTTOM_LEFT_TO_TOP_RIGHT : SeamCorners.TOP_LEFT_TO_BOTTOM_RIGHT);
+		if (listener != null) {
+			start = System.nanoTime();
+			allocated = StitchMetrics.allocatedBytes();
 		}
 
-		// Copy image2 to resulting image
-		for (int row = 0; row < height2; row++) {
-			for (int col = 0; col < width2; col++) {
-				// For positive offsety we need to push image2 down
-				result[(offsety < 0 ? row : row + offsety)][col + offsetx] = img2[row][col];
-			}
-		}
+		// Write every pixel of the result once, the rows in parallel
+		int[][] result = new RowCompositor().composite(img1, img2, offsetx, offsety, mask);
 
-		// Copy overlapping part according to the stitch
-		for (int row = 0; row < stitchHeight; row++) {
-			for (int col = 0; col < stitchWidth; col++) {
-				// The value Stitcher.SEAM is replaced by Stitcher.SEAM
-				if (mask[row][col] == Stitch.SEAM)
-					mask[row][col] = Stitch.IMAGE2;
-
-				// Pick the pixel according to the stitcher.
-				if (mask[row][col] == Stitch.IMAGE1)
-					result[Math.abs(offsety) + row][offsetx + col] = toStitch1[row][col];
-				else
-					result[Math.abs(offsety) + row][offsetx + col] = toStitch2[row][col];
-			}
-		}
-
-
-		//
-		// Step 4 - Display result
-		//
-
-		Util.displayImage(result);
+		if (listener != null)
+			listener.phaseFinished("composite", System.nanoTime() - start, StitchMetrics.allocatedBytes() - allocated);
+		return result;
 	}
 
 }
@@ -0,0 +1,84 @@
+package gna;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Reads an image file of any format ImageIO supports, one region of rows at a time.
+ * Depending on the format, ImageIO may decode the rows above the region again for every band.
+ */
+public class ImageIOPixelSource implements PixelSource
+{
+	/**
+	 * Variable storing the stream of the file.
+	 */
+	private final ImageInputStream stream;
+
+	/**
+	 * Variable storing the reader of the image.
+	 */
+	private final ImageReader reader;
+
+	/**
+	 * Variable storing the width of the image.
+	 */
+	private final int width;
+
+	/**
+	 * Variable storing the height of the image.
+	 */
+	private final int height;
+
+	/**
+	 * Opens the given image file.
+	 * @param path The path of the image file.
+	 * @throws IOException when the file cannot be read or has a format ImageIO does not support
+	 */
+	public ImageIOPixelSource(String path) throws IOException {
+		stream = ImageIO.createImageInputStream(new File(path));
+		if (stream == null) {
+			throw new IOException("Unable to open " + path);
+		}
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+		if (!readers.hasNext()) {
+			stream.close();
+			throw new IOException("Unsupported image format: " + path);
+		}
+		reader = readers.next();
+		reader.setInput(stream);
+		width = reader.getWidth(0);
+		height = reader.getHeight(0);
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public void readRows(int y, int count, int[] pixels) throws IOException {
+		ImageReadParam param = reader.getDefaultReadParam();
+		param.setSourceRegion(new Rectangle(0, y, width, count));
+		BufferedImage band = reader.read(0, param);
+		band.getRGB(0, 0, width, count, pixels, 0, width);
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.dispose();
+		stream.close();
+	}
+}
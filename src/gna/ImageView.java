@@ -0,0 +1,229 @@
+package gna;
+
+/**
+ * A rectangular window of an image, optionally mirrored vertically. A view does not copy the pixels: row y of the
+ * view is a row of the image, and its pixels start at column getX() of that row. This way the overlap of two images
+ * is stitched without extracting or flipping it.
+ *
+ * The image is either an int[][] or a memory-mapped RawImage. A view of a RawImage reads the pixels from the
+ * mapping, so an image that was converted once is stitched without decoding it or copying it into an array.
+ * Only a view of an int[][] has rows that can be returned by getRow, see hasArray.
+ */
+public class ImageView
+{
+	/**
+	 * Variable storing the image, or null when the view reads a raw image.
+	 */
+	private final int[][] image;
+
+	/**
+	 * Variable storing the mapped image, or null when the view reads an int[][].
+	 */
+	private final RawImage raw;
+
+	/**
+	 * Variable storing the first row of the window in the image.
+	 */
+	private final int y;
+
+	/**
+	 * Variable storing the first column of the window in the image.
+	 */
+	private final int x;
+
+	/**
+	 * Variable storing the height of the window.
+	 */
+	private final int height;
+
+	/**
+	 * Variable storing the width of the window.
+	 */
+	private final int width;
+
+	/**
+	 * Variable storing whether the first row of the view is the last row of the window.
+	 */
+	private final boolean mirrored;
+
+	/**
+	 * Creates a view of the given window of the image.
+	 * @param image  The image, indexed as image[y][x].
+	 * @param y      The first row of the window.
+	 * @param x      The first column of the window.
+	 * @param height The height of the window.
+	 * @param width  The width of the window.
+	 * @throws IllegalArgumentException when the window is empty or does not lie inside the image
+	 *                                  | height <= 0 || width <= 0 || y < 0 || x < 0
+	 *                                  | || y + height > image.length || x + width > image[0].length
+	 */
+	public ImageView(int[][] image, int y, int x, int height, int width) {
+		this(image, null, image.length, image[0].length, y, x, height, width, false);
+	}
+
+	/**
+	 * Creates a view of the given window of the mapped image, the pixels are read from the mapping.
+	 * @param image  The mapped image.
+	 * @param y      The first row of the window.
+	 * @param x      The first column of the window.
+	 * @param height The height of the window.
+	 * @param width  The width of the window.
+	 * @throws IllegalArgumentException when the window is empty or does not lie inside the image
+	 *                                  | height <= 0 || width <= 0 || y < 0 || x < 0
+	 *                                  | || y + height > image.getHeight() || x + width > image.getWidth()
+	 */
+	public ImageView(RawImage image, int y, int x, int height, int width) {
+		this(null, image, image.getHeight(), image.getWidth(), y, x, height, width, false);
+	}
+
+	/**
+	 * Creates a view of the given window of the image or the mapped image of the given dimensions.
+	 */
+	private ImageView(int[][] image, RawImage raw, int imageHeight, int imageWidth, int y, int x, int height, int width,
+			boolean mirrored) {
+		if (height <= 0 || width <= 0 || y < 0 || x < 0 || y + height > imageHeight || x + width > imageWidth) {
+			throw new IllegalArgumentException("The window does not lie inside the image.");
+		}
+		this.image = image;
+		this.raw = raw;
+		this.y = y;
+		this.x = x;
+		this.height = height;
+		this.width = width;
+		this.mirrored = mirrored;
+	}
+
+	/**
+	 * Returns a view of the whole image.
+	 * @param image The image, indexed as image[y][x].
+	 * @return The view.
+	 */
+	public static ImageView of(int[][] image) {
+		return new ImageView(image, 0, 0, image.length, image[0].length);
+	}
+
+	/**
+	 * Returns a view of the whole mapped image.
+	 * @param image The mapped image.
+	 * @return The view.
+	 */
+	public static ImageView of(RawImage image) {
+		return new ImageView(image, 0, 0, image.getHeight(), image.getWidth());
+	}
+
+	/**
+	 * Returns a view of a window of this view, in the orientation of this view.
+	 * @param y      The first row of the window in this view.
+	 * @param x      The first column of the window in this view.
+	 * @param height The height of the window.
+	 * @param width  The width of the window.
+	 * @return The view of the window.
+	 * @throws IllegalArgumentException when the window is empty or does not lie inside this view
+	 *                                  | height <= 0 || width <= 0 || y < 0 || x < 0
+	 *                                  | || y + height > getHeight() || x + width > getWidth()
+	 */
+	public ImageView window(int y, int x, int height, int width) {
+		if (height <= 0 || width <= 0 || y < 0 || x < 0 || y + height > this.height || x + width > this.width) {
+			throw new IllegalArgumentException("The window does not lie inside the view.");
+		}
+		int top = this.y + (mirrored ? this.height - y - height : y);
+		return new ImageView(image, raw, this.y + this.height, this.x + this.width, top, this.x + x, height, width,
+				mirrored);
+	}
+
+	/**
+	 * Returns the view of the same window, mirrored vertically.
+	 * @return The mirrored view.
+	 */
+	public ImageView mirrored() {
+		return new ImageView(image, raw, y + height, x + width, y, x, height, width, !mirrored);
+	}
+
+	/**
+	 * Returns whether the view reads an int[][], so its rows can be returned by getRow.
+	 * @return True when the view reads an int[][], false when it reads a mapped image.
+	 */
+	public boolean hasArray() {
+		return image != null;
+	}
+
+	/**
+	 * Returns whether the view is mirrored vertically.
+	 * @return True when the first row of the view is the last row of the window.
+	 */
+	public boolean isMirrored() {
+		return mirrored;
+	}
+
+	/**
+	 * Returns the height of the view.
+	 * @return The height of the view.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the width of the view.
+	 * @return The width of the view.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the column of the image where the rows of the view start.
+	 * @return The first column of the window.
+	 */
+	public int getX() {
+		return x;
+	}
+
+	/**
+	 * Returns the row of the image that holds row y of the view, its pixels start at column getX().
+	 * The row is not copied, so it must not be changed.
+	 * @param y The row of the view.
+	 * @return The row of the image.
+	 * @throws UnsupportedOperationException when the view reads a mapped image
+	 *                                       | !hasArray()
+	 */
+	public int[] getRow(int y) {
+		if (image == null) {
+			throw new UnsupportedOperationException("A view of a mapped image has no rows to return.");
+		}
+		return image[this.getImageRow(y)];
+	}
+
+	/**
+	 * Copies the pixels of row y of the view, from column x up to x + length, into the given array.
+	 * @param y      The row of the view.
+	 * @param x      The first column in the view.
+	 * @param length The number of pixels.
+	 * @param pixels The array in which the pixels are stored.
+	 * @param offset The index in pixels where pixel (y, x) is stored.
+	 */
+	public void copyRow(int y, int x, int length, int[] pixels, int offset) {
+		if (image != null) {
+			System.arraycopy(image[this.getImageRow(y)], this.x + x, pixels, offset, length);
+		} else {
+			raw.getRow(this.getImageRow(y), this.x + x, length, pixels, offset);
+		}
+	}
+
+	/**
+	 * Returns the pixel (y, x) of the view.
+	 * @param y The y-coordinate in the view.
+	 * @param x The x-coordinate in the view.
+	 * @return The value of the pixel.
+	 */
+	public int get(int y, int x) {
+		return image != null ? image[this.getImageRow(y)][this.x + x] : raw.getPixel(this.getImageRow(y), this.x + x);
+	}
+
+	/**
+	 * Returns the row of the image that holds row y of the view.
+	 */
+	private int getImageRow(int y) {
+		return this.y + (mirrored ? height - 1 - y : y);
+	}
+}
@@ -0,0 +1,256 @@
+package gna;
+
+import java.util.NoSuchElementException;
+
+/**
+ * An indexed priority queue of integer vertices with double keys, used by Dijkstra's algorithm.
+ * The vertices are the integers 0 .. capacity-1, in the Stitcher a vertex is the index y * width + x.
+ * Contrary to java.util.PriorityQueue the key of a vertex that is already on the queue can be
+ * decreased in logarithmic time, because the queue keeps track of the place of every vertex in the heap.
+ */
+public class IndexMinPQ
+{
+	/**
+	 * Variable storing the binary heap of vertices, using 1-based indexing.
+	 */
+	private final int[] pq;
+
+	/**
+	 * Variable storing the inverse of pq: qp[pq[i]] == i. A vertex that is not on the queue has value -1.
+	 */
+	private final int[] qp;
+
+	/**
+	 * Variable storing the keys of the vertices.
+	 */
+	private final double[] keys;
+
+	/**
+	 * Variable storing the number of vertices on the queue.
+	 */
+	private int size;
+
+	/**
+	 * Variables storing the number of insertions and decreased keys, and the largest size, since the queue
+	 * was created or cleared.
+	 */
+	private long insertions;
+	private long decreasedKeys;
+	private int peakSize;
+
+	/**
+	 * Creates an empty queue for the vertices 0 .. capacity-1.
+	 * @param capacity The number of vertices that can be stored on the queue.
+	 * @throws IllegalArgumentException when the capacity is negative.
+	 *                                  | capacity < 0
+	 */
+	public IndexMinPQ(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("The capacity of the queue cannot be negative.");
+		}
+		this.pq = new int[capacity + 1];
+		this.qp = new int[capacity];
+		this.keys = new double[capacity];
+		for (int i = 0; i < capacity; i++) {
+			qp[i] = -1;
+		}
+	}
+
+	/**
+	 * Returns whether the queue is empty.
+	 * @return True when there are no vertices on the queue; otherwise false.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the number of vertices on the queue.
+	 * @return The number of vertices on the queue.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of vertices that can be stored on the queue.
+	 * @return The capacity of the queue.
+	 */
+	public int getCapacity() {
+		return qp.length;
+	}
+
+	/**
+	 * Removes all vertices from the queue, in time linear in the number of vertices on it.
+	 */
+	public void clear() {
+		for (int i = 1; i <= size; i++) {
+			qp[pq[i]] = -1;
+		}
+		size = 0;
+		insertions = 0;
+		decreasedKeys = 0;
+		peakSize = 0;
+	}
+
+	/**
+	 * Returns the number of vertices that were inserted since the queue was created or cleared.
+	 * @return The number of insertions.
+	 */
+	public long getInsertions() {
+		return insertions;
+	}
+
+	/**
+	 * Returns the number of keys that were decreased since the queue was created or cleared.
+	 * @return The number of decreased keys.
+	 */
+	public long getDecreasedKeys() {
+		return decreasedKeys;
+	}
+
+	/**
+	 * Returns the largest number of vertices that were on the queue since it was created or cleared.
+	 * @return The peak size of the queue.
+	 */
+	public int getPeakSize() {
+		return peakSize;
+	}
+
+	/**
+	 * Returns whether the given vertex is on the queue.
+	 * @param v The vertex.
+	 * @return True when the vertex is on the queue; otherwise false.
+	 */
+	public boolean contains(int v) {
+		return qp[v] != -1;
+	}
+
+	/**
+	 * Returns the smallest key on the queue.
+	 * @return The smallest key on the queue.
+	 * @throws NoSuchElementException when the queue is empty.
+	 *                                | isEmpty()
+	 */
+	public double minKey() {
+		if (size == 0) {
+			throw new NoSuchElementException("The queue is empty.");
+		}
+		return keys[pq[1]];
+	}
+
+	/**
+	 * Inserts the vertex with the given key.
+	 * @param v   The vertex.
+	 * @param key The key of the vertex.
+	 * @throws IllegalArgumentException when the vertex is already on the queue.
+	 *                                  | contains(v)
+	 */
+	public void insert(int v, double key) {
+		if (contains(v)) {
+			throw new IllegalArgumentException("The vertex is already on the queue.");
+		}
+		size++;
+		qp[v] = size;
+		pq[size] = v;
+		keys[v] = key;
+		swim(size);
+		insertions++;
+		if (size > peakSize) {
+			peakSize = size;
+		}
+	}
+
+	/**
+	 * Decreases the key of a vertex that is on the queue.
+	 * @param v   The vertex.
+	 * @param key The new key, which may not be larger than the current key.
+	 * @throws IllegalArgumentException when the vertex is not on the queue or the key would increase.
+	 *                                  | !contains(v) || key > keys[v]
+	 */
+	public void decreaseKey(int v, double key) {
+		if (!contains(v) || key > keys[v]) {
+			throw new IllegalArgumentException("Cannot decrease the key of the vertex.");
+		}
+		keys[v] = key;
+		swim(qp[v]);
+		decreasedKeys++;
+	}
+
+	/**
+	 * Inserts the vertex, or decreases its key when it is already on the queue.
+	 * @param v   The vertex.
+	 * @param key The (new) key of the vertex.
+	 */
+	public void insertOrDecrease(int v, double key) {
+		if (contains(v)) {
+			decreaseKey(v, key);
+		} else {
+			insert(v, key);
+		}
+	}
+
+	/**
+	 * Removes the vertex with the smallest key and returns it.
+	 * @return The vertex with the smallest key.
+	 * @throws NoSuchElementException when the queue is empty.
+	 *                                | isEmpty()
+	 */
+	public int delMin() {
+		if (size == 0) {
+			throw new NoSuchElementException("The queue is empty.");
+		}
+		int min = pq[1];
+		exchange(1, size--);
+		sink(1);
+		qp[min] = -1;
+		return min;
+	}
+
+	/**
+	 * Moves the element on heap position k up until the heap order is restored.
+	 * @param k The heap position.
+	 */
+	private void swim(int k) {
+		while (k > 1 && greater(k / 2, k)) {
+			exchange(k, k / 2);
+			k = k / 2;
+		}
+	}
+
+	/**
+	 * Moves the element on heap position k down until the heap order is restored.
+	 * @param k The heap position.
+	 */
+	private void sink(int k) {
+		while (2 * k <= size) {
+			int j = 2 * k;
+			if (j < size && greater(j, j + 1)) {
+				j++;
+			}
+			if (!greater(k, j)) {
+				break;
+			}
+			exchange(k, j);
+			k = j;
+		}
+	}
+
+	/**
+	 * Returns whether the key on heap position i is larger than the key on heap position j.
+	 */
+	private boolean greater(int i, int j) {
+		return keys[pq[i]] > keys[pq[j]];
+	}
+
+	/**
+	 * Exchanges the elements on heap positions i and j.
+	 */
+	private void exchange(int i, int j) {
+		int swap = pq[i];
+		pq[i] = pq[j];
+		pq[j] = swap;
+		qp[pq[i]] = i;
+		qp[pq[j]] = j;
+	}
+}
@@ -0,0 +1,180 @@
+package gna;
+
+import libpract.*;
+
+/**
+ * A mask stored as one byte per pixel, row by row in one array, instead of a Stitch reference per pixel.
+ * The byte of pixel (y, x) is stored at index y * width + x. A new mask is EMPTY everywhere.
+ */
+public class PackedMask
+{
+	/**
+	 * The code of Stitch.EMPTY, zero so a new array is empty.
+	 */
+	public static final byte EMPTY = 0;
+
+	/**
+	 * The code of Stitch.IMAGE1.
+	 */
+	public static final byte IMAGE1 = 1;
+
+	/**
+	 * The code of Stitch.IMAGE2.
+	 */
+	public static final byte IMAGE2 = 2;
+
+	/**
+	 * The code of Stitch.SEAM.
+	 */
+	public static final byte SEAM = 3;
+
+	/**
+	 * The Stitch values indexed by their code.
+	 */
+	private static final Stitch[] STITCHES = {Stitch.EMPTY, Stitch.IMAGE1, Stitch.IMAGE2, Stitch.SEAM};
+
+	/**
+	 * Variable storing the width of the mask.
+	 */
+	private final int width;
+
+	/**
+	 * Variable storing the height of the mask.
+	 */
+	private final int height;
+
+	/**
+	 * Variable storing the codes of the pixels.
+	 */
+	private final byte[] codes;
+
+	/**
+	 * Creates a mask that is EMPTY everywhere.
+	 * @param height The height of the mask.
+	 * @param width  The width of the mask.
+	 * @throws IllegalArgumentException when a dimension is not positive
+	 *                                  | height <= 0 || width <= 0
+	 */
+	public PackedMask(int height, int width) {
+		if (height <= 0 || width <= 0) {
+			throw new IllegalArgumentException("The dimensions of a mask must be positive.");
+		}
+		this.height = height;
+		this.width = width;
+		this.codes = new byte[height * width];
+	}
+
+	/**
+	 * Returns the packed copy of the given mask.
+	 * @param mask The mask.
+	 * @return The packed mask.
+	 */
+	public static PackedMask of(Stitch[][] mask) {
+		PackedMask packed = new PackedMask(mask.length, mask[0].length);
+		for (int y = 0; y < packed.height; y++) {
+			for (int x = 0; x < packed.width; x++) {
+				packed.codes[y * packed.width + x] = codeOf(mask[y][x]);
+			}
+		}
+		return packed;
+	}
+
+	/**
+	 * Returns the code of the given Stitch value.
+	 * @param stitch The Stitch value.
+	 * @return The code of the value.
+	 */
+	public static byte codeOf(Stitch stitch) {
+		switch (stitch) {
+		case IMAGE1:
+			return IMAGE1;
+		case IMAGE2:
+			return IMAGE2;
+		case SEAM:
+			return SEAM;
+		default:
+			return EMPTY;
+		}
+	}
+
+	/**
+	 * Returns the width of the mask.
+	 * @return The width of the mask.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height of the mask.
+	 * @return The height of the mask.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the codes of the pixels, the code of pixel (y, x) is stored at index y * width + x.
+	 * @return The codes of the pixels.
+	 */
+	public byte[] getCodes() {
+		return codes;
+	}
+
+	/**
+	 * Returns the value of pixel (y, x).
+	 * @param y The y-coordinate.
+	 * @param x The x-coordinate.
+	 * @return The value of the pixel.
+	 */
+	public Stitch get(int y, int x) {
+		return STITCHES[codes[y * width + x]];
+	}
+
+	/**
+	 * Sets the value of pixel (y, x).
+	 * @param y      The y-coordinate.
+	 * @param x      The x-coordinate.
+	 * @param stitch The value of the pixel.
+	 */
+	public void set(int y, int x, Stitch stitch) {
+		codes[y * width + x] = codeOf(stitch);
+	}
+
+	/**
+	 * Copies the values of this mask into the given mask of the same dimensions.
+	 * @param mask The mask to which the values are copied.
+	 */
+	public void copyTo(Stitch[][] mask) {
+		for (int y = 0; y < height; y++) {
+			Stitch[] row = mask[y];
+			for (int x = 0; x < width; x++) {
+				row[x] = STITCHES[codes[y * width + x]];
+			}
+		}
+	}
+
+	/**
+	 * Returns the mask as a 2D array of Stitch values.
+	 * @return The mask as a 2D array.
+	 */
+	public Stitch[][] toArray() {
+		Stitch[][] mask = new Stitch[height][width];
+		this.copyTo(mask);
+		return mask;
+	}
+
+	/**
+	 * Mirrors the mask in place around its horizontal axis.
+	 */
+	public void flipVertical() {
+		byte[] swap = new byte[width];
+		for (int row = 0; row < height / 2; row++) {
+			int top = row * width;
+			int bottom = (height - row - 1) * width;
+			System.arraycopy(codes, top, swap, 0, width);
+			System.arraycopy(codes, bottom, codes, top, width);
+			System.arraycopy(swap, 0, codes, bottom, width);
+		}
+	}
+}
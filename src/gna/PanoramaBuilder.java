@@ -0,0 +1,322 @@
+package gna;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Stitches a row of overlapping frames into one panorama, one frame at a time.
+ *
+ * Every frame is placed offsetx to the right and offsety below the previous frame, as image 2 is placed relative
+ * to image 1 in ImageCompositor. A frame may only overlap the frame before it, so the seam of every overlap only
+ * depends on its two frames: the seams are calculated on a pool while the next frames arrive. The columns left of
+ * the newest frames can no longer change; they are written to a ColumnSink and the frames that lie completely in
+ * those columns are dropped. With two frames the result is the result of ImageCompositor.composite.
+ */
+public class PanoramaBuilder
+{
+	/**
+	 * Variable storing the pool on which the seams are calculated.
+	 */
+	private final ExecutorService pool;
+
+	/**
+	 * Variable storing the supplier of the stitchers, every seam gets its own stitcher.
+	 */
+	private final Supplier<Stitcher> stitchers;
+
+	/**
+	 * Variable storing the number of frames whose seams may still be calculated while columns are written.
+	 */
+	private final int lag;
+
+	/**
+	 * Variable storing the sink that receives the finished columns.
+	 */
+	private final ColumnSink sink;
+
+	/**
+	 * Variable storing the frames that still cover columns that are not written yet, from left to right.
+	 */
+	private final List<Frame> window = new ArrayList<>();
+
+	/**
+	 * Variable storing the number of frames added.
+	 */
+	private int frames = 0;
+
+	/**
+	 * Variable storing the first column that is not written yet.
+	 */
+	private int flushedX;
+
+	/**
+	 * Creates a builder that calculates the seams on the common pool with default stitchers.
+	 * @param sink The sink that receives the finished columns.
+	 */
+	public PanoramaBuilder(ColumnSink sink) {
+		this(ForkJoinPool.commonPool(), Stitcher::new, ForkJoinPool.commonPool().getParallelism(), sink);
+	}
+
+	/**
+	 * Creates a builder.
+	 * @param pool      The pool on which the seams are calculated.
+	 * @param stitchers The supplier of the stitchers, every seam gets its own stitcher.
+	 * @param lag       The number of frames whose seams may still be calculated while columns are written.
+	 *                  Every extra frame of lag keeps one more frame in memory.
+	 * @param sink      The sink that receives the finished columns.
+	 * @throws IllegalArgumentException when an argument equals null or the lag is negative
+	 *                                  | pool == null || stitchers == null || sink == null || lag < 0
+	 */
+	public PanoramaBuilder(ExecutorService pool, Supplier<Stitcher> stitchers, int lag, ColumnSink sink) {
+		if (pool == null || stitchers == null || sink == null || lag < 0) {
+			throw new IllegalArgumentException("The pool, stitchers and sink cannot be null and the lag cannot be negative.");
+		}
+		this.pool = pool;
+		this.stitchers = stitchers;
+		this.lag = lag;
+		this.sink = sink;
+	}
+
+	/**
+	 * Adds the next frame. The offsets of the first frame are ignored.
+	 * @param frame   The values of the frame, indexed as frame[y][x].
+	 * @param offsetx The x-offset of the frame relative to the previous frame.
+	 * @param offsety The y-offset of the frame relative to the previous frame.
+	 * @throws IllegalArgumentException when the frame does not overlap the previous frame, when offsetx is negative,
+	 *                                  or when the frame overlaps the columns of an earlier frame than the previous one
+	 */
+	public void addFrame(int[][] frame, int offsetx, int offsety) {
+		Frame previous = window.isEmpty() ? null : window.get(window.size() - 1);
+		if (previous == null) {
+			Frame first = new Frame(frame, 0, 0, null);
+			window.add(first);
+			flushedX = 0;
+			frames++;
+			return;
+		}
+		if (offsetx < 0) {
+			throw new IllegalArgumentException("Negative offsetx not supported (switch both the images instead)");
+		}
+		int x = previous.x + offsetx;
+		int y = previous.y + offsety;
+		Frame beforePrevious = window.size() > 1 ? window.get(window.size() - 2) : null;
+		if (beforePrevious != null && x < beforePrevious.x + beforePrevious.width) {
+			throw new IllegalArgumentException("A frame can only overlap the frame before it.");
+		}
+		int overlapX = x;
+		int overlapY = Math.max(y, previous.y);
+		int overlapWidth = Math.min(x + frame[0].length, previous.x + previous.width) - overlapX;
+		int overlapHeight = Math.min(y + frame.length, previous.y + previous.height) - overlapY;
+		if (overlapWidth <= 0 || overlapHeight <= 0) {
+			throw new IllegalArgumentException("The frame does not overlap the previous frame.");
+		}
+		//the seam runs from the top-left to the bottom-right corner, unless ImageCompositor would flip the overlap
+		boolean shouldFlip = offsety != 0 && overlapX + overlapWidth == previous.x + previous.width
+				&& overlapY + overlapHeight == previous.y + previous.height;
+		int[][] image1 = previous.pixels;
+		Frame current = new Frame(frame, x, y, pool.submit(() -> stitchOverlap(stitchers.get(),
+				image1, overlapX - previous.x, overlapY - previous.y, frame, overlapX - x, overlapY - y,
+				overlapHeight, overlapWidth, shouldFlip)));
+		current.overlapX = overlapX;
+		current.overlapY = overlapY;
+		window.add(current);
+		frames++;
+
+		//columns left of a frame are finished once no later frame can reach them
+		if (window.size() > lag + 1) {
+			this.flush(window.get(window.size() - 1 - lag).x);
+		}
+	}
+
+	/**
+	 * Writes all columns that are not written yet, after waiting for the remaining seams.
+	 */
+	public void finish() {
+		int end = flushedX;
+		for (Frame frame : window) {
+			end = Math.max(end, frame.x + frame.width);
+		}
+		this.flush(end);
+		window.clear();
+	}
+
+	/**
+	 * Returns the number of frames added.
+	 * @return The number of frames.
+	 */
+	public int getFrames() {
+		return frames;
+	}
+
+	/**
+	 * Returns the number of frames kept in memory.
+	 * @return The number of frames in memory.
+	 */
+	public int getWindowSize() {
+		return window.size();
+	}
+
+	/**
+	 * Writes the columns from flushedX up to end to the sink and drops the frames that end before end.
+	 */
+	private void flush(int end) {
+		if (end <= flushedX) {
+			return;
+		}
+		int top = Integer.MAX_VALUE;
+		int bottom = Integer.MIN_VALUE;
+		for (Frame frame : window) {
+			if (frame.x < end && frame.x + frame.width > flushedX) {
+				top = Math.min(top, frame.y);
+				bottom = Math.max(bottom, frame.y + frame.height);
+			}
+		}
+		int width = end - flushedX;
+		int[] block = new int[(bottom - top) * width];
+		Frame previous = null;
+		for (Frame frame : window) {
+			if (frame.x < end && frame.x + frame.width > flushedX) {
+				this.paint(frame.pixels, frame.x, frame.y, 0, frame.height, 0, frame.width, top, width, block, null);
+				if (previous != null && frame.mask != null) {
+					//inside the overlap the pixels of the previous frame are put back where its mask says so
+					PackedMask mask = join(frame.mask);
+					this.paint(previous.pixels, frame.overlapX, frame.overlapY, frame.overlapY - previous.y, mask.getHeight(),
+							frame.overlapX - previous.x, mask.getWidth(), top, width, block, mask);
+				}
+			}
+			previous = frame;
+		}
+		sink.writeColumns(flushedX, top, width, bottom - top, block);
+		flushedX = end;
+		while (!window.isEmpty() && window.get(0).x + window.get(0).width <= flushedX) {
+			window.remove(0);
+		}
+	}
+
+	/**
+	 * Copies a rectangle of the pixels of a frame into the block, clipped to the columns of the block.
+	 * When a mask is given only the pixels where the mask is IMAGE1 are copied.
+	 */
+	private void paint(int[][] pixels, int x, int y, int firstRow, int rows, int firstColumn, int columns,
+			int top, int width, int[] block, PackedMask mask) {
+		int from = Math.max(x, flushedX);
+		int to = Math.min(x + columns, flushedX + width);
+		if (from >= to) {
+			return;
+		}
+		for (int r = 0; r < rows; r++) {
+			int[] row = pixels[firstRow + r];
+			int offset = (y + r - top) * width - flushedX;
+			if (mask == null) {
+				System.arraycopy(row, firstColumn + from - x, block, offset + from, to - from);
+			} else {
+				byte[] codes = mask.getCodes();
+				int maskRow = r * mask.getWidth() - x;
+				for (int c = from; c < to; c++) {
+					if (codes[maskRow + c] == PackedMask.IMAGE1) {
+						block[offset + c] = row[firstColumn + c - x];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Calculates the mask of the overlap of two frames.
+	 */
+	private static PackedMask stitchOverlap(Stitcher stitcher, int[][] image1, int x1, int y1, int[][] image2, int x2,
+			int y2, int height, int width, boolean shouldFlip) {
+		return stitcher.stitchPacked(new ImageView(image1, y1, x1, height, width), new ImageView(image2, y2, x2, height, width),
+				shouldFlip ? SeamCorners.BOTTOM_LEFT_TO_TOP_RIGHT : SeamCorners.TOP_LEFT_TO_BOTTOM_RIGHT);
+	}
+
+	/**
+	 * Waits for the mask of a seam.
+	 */
+	private static PackedMask join(Future<PackedMask> mask) {
+		try {
+			return mask.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a seam.", e);
+		}
+	}
+
+	/**
+	 * A frame placed in the panorama.
+	 */
+	private static class Frame
+	{
+		private final int[][] pixels;
+		private final int x;
+		private final int y;
+		private final int width;
+		private final int height;
+
+		/**
+		 * The mask of the overlap with the previous frame, or null for the first frame.
+		 */
+		private final Future<PackedMask> mask;
+
+		/**
+		 * The upper left corner of the overlap with the previous frame.
+		 */
+		private int overlapX;
+		private int overlapY;
+
+		private Frame(int[][] pixels, int x, int y, Future<PackedMask> mask) {
+			this.pixels = pixels;
+			this.x = x;
+			this.y = y;
+			this.width = pixels[0].length;
+			this.height = pixels.length;
+			this.mask = mask;
+		}
+	}
+
+	/**
+	 * A sink that collects all columns into one image, with the top row of the panorama as row 0.
+	 */
+	public static class ImageSink implements ColumnSink
+	{
+		private final List<int[]> blocks = new ArrayList<>();
+
+		@Override
+		public void writeColumns(int x, int y, int width, int height, int[] pixels) {
+			blocks.add(new int[] {x, y, width, height});
+			blocks.add(pixels);
+		}
+
+		/**
+		 * Returns the collected image, pixels that are not covered by a frame are 0.
+		 * @return The image, indexed as image[y][x].
+		 */
+		public int[][] getImage() {
+			int top = Integer.MAX_VALUE;
+			int bottom = Integer.MIN_VALUE;
+			int right = 0;
+			for (int i = 0; i < blocks.size(); i += 2) {
+				int[] bounds = blocks.get(i);
+				top = Math.min(top, bounds[1]);
+				bottom = Math.max(bottom, bounds[1] + bounds[3]);
+				right = Math.max(right, bounds[0] + bounds[2]);
+			}
+			int[][] image = new int[bottom - top][right];
+			for (int i = 0; i < blocks.size(); i += 2) {
+				int[] bounds = blocks.get(i);
+				int[] pixels = blocks.get(i + 1);
+				for (int r = 0; r < bounds[3]; r++) {
+					System.arraycopy(pixels, r * bounds[2], image[bounds[1] - top + r], bounds[0], bounds[2]);
+				}
+			}
+			return image;
+		}
+	}
+}
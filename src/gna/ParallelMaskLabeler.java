@@ -0,0 +1,165 @@
+package gna;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Parallel alternative for the floodfill of the Stitcher. The EMPTY pixels of the mask are split into
+ * connected components: the mask is divided in stripes of rows, every stripe is labelled concurrently
+ * with union-find, and the components are merged across the borders of the stripes. Afterwards the
+ * component of the lower left corner becomes Stitch.IMAGE1 and the component of the upper right corner
+ * Stitch.IMAGE2, exactly like the two flood fills. Components connected to neither corner stay EMPTY.
+ */
+public class ParallelMaskLabeler
+{
+	/**
+	 * Variable storing the number of stripes the mask is divided in.
+	 */
+	private final int stripes;
+
+	/**
+	 * Variable storing the pool the stripes are labelled on.
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Variable storing for every pixel its parent in the union-find forest, the pixel (y, x) is y * width + x.
+	 */
+	private int[] parent;
+
+	/**
+	 * Creates a labeler with four stripes per core of the common pool.
+	 */
+	public ParallelMaskLabeler() {
+		this(4 * ForkJoinPool.commonPool().getParallelism(), ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a labeler.
+	 * @param stripes The number of stripes the mask is divided in.
+	 * @param pool    The pool the stripes are labelled on.
+	 * @throws IllegalArgumentException when the number of stripes is not positive or the pool equals null
+	 *                                  | stripes <= 0 || pool == null
+	 */
+	public ParallelMaskLabeler(int stripes, ForkJoinPool pool) {
+		if (stripes <= 0 || pool == null) {
+			throw new IllegalArgumentException("The number of stripes must be positive and the pool cannot be null.");
+		}
+		this.stripes = stripes;
+		this.pool = pool;
+	}
+
+	/**
+	 * Replaces the EMPTY values of the mask that are connected to the lower left corner by Stitch.IMAGE1,
+	 * and those connected to the upper right corner by Stitch.IMAGE2.
+	 * @param mask The packed mask with a given seam.
+	 */
+	public void label(PackedMask mask) {
+		int height = mask.getHeight();
+		int width = mask.getWidth();
+		byte[] codes = mask.getCodes();
+		int count = Math.min(stripes, height);
+		parent = new int[height * width];
+
+		//label every stripe on its own, a stripe only touches its own part of parent
+		pool.submit(() -> IntStream.range(0, count).parallel().forEach(stripe -> {
+			int first = firstRow(stripe, count, height);
+			int last = firstRow(stripe + 1, count, height);
+			for (int y = first; y < last; y++) {
+				for (int x = 0; x < width; x++) {
+					int p = y * width + x;
+					parent[p] = p;
+					if (codes[p] != PackedMask.EMPTY) {
+						continue;
+					}
+					if (x > 0 && codes[p - 1] == PackedMask.EMPTY) {
+						union(p, p - 1);
+					}
+					if (y > first && codes[p - width] == PackedMask.EMPTY) {
+						union(p, p - width);
+					}
+				}
+			}
+		})).join();
+
+		//merge the components across the borders of the stripes
+		for (int stripe = 1; stripe < count; stripe++) {
+			int y = firstRow(stripe, count, height);
+			for (int x = 0; x < width; x++) {
+				if (codes[y * width + x] == PackedMask.EMPTY && codes[(y - 1) * width + x] == PackedMask.EMPTY) {
+					union(y * width + x, (y - 1) * width + x);
+				}
+			}
+		}
+
+		int image1 = codes[(height - 1) * width] == PackedMask.EMPTY ? find((height - 1) * width) : -1;
+		int image2 = codes[width - 1] == PackedMask.EMPTY ? find(width - 1) : -1;
+		pool.submit(() -> IntStream.range(0, count).parallel().forEach(stripe -> {
+			for (int y = firstRow(stripe, count, height); y < firstRow(stripe + 1, count, height); y++) {
+				for (int x = 0; x < width; x++) {
+					int p = y * width + x;
+					if (codes[p] != PackedMask.EMPTY) {
+						continue;
+					}
+					int root = root(p);
+					if (root == image1) {
+						codes[p] = PackedMask.IMAGE1;
+					} else if (root == image2) {
+						codes[p] = PackedMask.IMAGE2;
+					}
+				}
+			}
+		})).join();
+		parent = null;
+	}
+
+	/**
+	 * Returns the first row of the given stripe.
+	 */
+	private static int firstRow(int stripe, int count, int height) {
+		return (int) ((long) stripe * height / count);
+	}
+
+	/**
+	 * Returns the root of the component of p, halving the path on the way.
+	 * @param p The pixel.
+	 * @return The root of the component.
+	 */
+	private int find(int p) {
+		while (parent[p] != p) {
+			parent[p] = parent[parent[p]];
+			p = parent[p];
+		}
+		return p;
+	}
+
+	/**
+	 * Returns the root of the component of p without changing the parents of other pixels,
+	 * so the stripes can look up their roots concurrently.
+	 * @param p The pixel.
+	 * @return The root of the component.
+	 */
+	private int root(int p) {
+		int root = p;
+		while (parent[root] != root) {
+			root = parent[root];
+		}
+		parent[p] = root;
+		return root;
+	}
+
+	/**
+	 * Merges the components of p and q, the root with the smallest index becomes the root of both.
+	 * @param p A pixel.
+	 * @param q Another pixel.
+	 */
+	private void union(int p, int q) {
+		int rootP = find(p);
+		int rootQ = find(q);
+		if (rootP < rootQ) {
+			parent[rootQ] = rootP;
+		} else if (rootQ < rootP) {
+			parent[rootP] = rootQ;
+		}
+	}
+}
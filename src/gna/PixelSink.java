@@ -0,0 +1,42 @@
+package gna;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives an image band by band, from the top row to the bottom row.
+ */
+public interface PixelSink extends Closeable
+{
+	/**
+	 * Returns a sink that writes an image of the given dimensions to the given file, as a raw image
+	 * when the path ends with RawImage.EXTENSION and as a PNG file otherwise.
+	 * @param path   The path of the file.
+	 * @param width  The width of the image.
+	 * @param height The height of the image.
+	 * @return The sink of the image.
+	 * @throws IOException when the file cannot be created
+	 */
+	static PixelSink create(String path, int width, int height) throws IOException {
+		if (path.endsWith(RawImage.EXTENSION)) {
+			return RawImage.create(path, width, height);
+		}
+		return new PngWriter(path, width, height);
+	}
+
+	/**
+	 * Writes the next rows of the image.
+	 * @param pixels The ARGB values of the rows, row by row.
+	 * @param count  The number of rows.
+	 * @throws IOException when the rows cannot be written
+	 */
+	void writeRows(int[] pixels, int count) throws IOException;
+
+	/**
+	 * Finishes the image. Sinks in memory have nothing to finish.
+	 * @throws IOException when the image cannot be finished
+	 */
+	@Override
+	default void close() throws IOException {
+	}
+}
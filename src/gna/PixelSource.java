@@ -0,0 +1,81 @@
+package gna;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * An image that is read in bands of rows, so the whole image never has to be in memory.
+ * Pixels are ARGB values, like the values of Util.readImage.
+ */
+public interface PixelSource extends Closeable
+{
+	/**
+	 * Returns a source that reads the given image file. Raw image files are memory-mapped,
+	 * PNG files are decoded row by row, other formats are read with ImageIO.
+	 * @param path The path of the image file.
+	 * @return The source of the image.
+	 * @throws IOException when the file cannot be read
+	 */
+	static PixelSource open(String path) throws IOException {
+		PixelSource source = RawImage.open(path);
+		if (source == null) {
+			source = PngPixelSource.open(path);
+		}
+		return source != null ? source : new ImageIOPixelSource(path);
+	}
+
+	/**
+	 * Returns a source that reads the given image from memory.
+	 * @param image The values of the image, indexed as image[y][x].
+	 * @return The source of the image.
+	 */
+	static PixelSource of(int[][] image) {
+		return new PixelSource() {
+			@Override
+			public int getWidth() {
+				return image[0].length;
+			}
+
+			@Override
+			public int getHeight() {
+				return image.length;
+			}
+
+			@Override
+			public void readRows(int y, int count, int[] pixels) {
+				for (int row = 0; row < count; row++) {
+					System.arraycopy(image[y + row], 0, pixels, row * image[0].length, image[0].length);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns the width of the image.
+	 * @return The width of the image.
+	 */
+	int getWidth();
+
+	/**
+	 * Returns the height of the image.
+	 * @return The height of the image.
+	 */
+	int getHeight();
+
+	/**
+	 * Reads the rows y up to y + count. Rows are read fastest in increasing order.
+	 * @param y      The first row.
+	 * @param count  The number of rows.
+	 * @param pixels The array in which the pixels are stored, pixel (y + r, x) at index r * getWidth() + x.
+	 * @throws IOException when the rows cannot be read
+	 */
+	void readRows(int y, int count, int[] pixels) throws IOException;
+
+	/**
+	 * Releases the resources of the source. Sources in memory have none.
+	 * @throws IOException when the resources cannot be released
+	 */
+	@Override
+	default void close() throws IOException {
+	}
+}
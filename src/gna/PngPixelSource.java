@@ -0,0 +1,352 @@
+package gna;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes a PNG file row by row, keeping only the current and the previous row in memory.
+ * Non-interlaced color images with 8 bits per sample, and palette images with 8 bits per index, are supported.
+ * Grayscale images and images with 16 bits per sample are left to ImageIO, which converts linear gray to sRGB and
+ * rounds 16 bit samples to 8 bits, so every path sees the same pixels.
+ * Reading a row above the last row read restarts the decoding at the top of the file.
+ */
+public class PngPixelSource implements PixelSource
+{
+	/**
+	 * The first eight bytes of every PNG file.
+	 */
+	private static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+
+	/**
+	 * The type of the chunks with the compressed image data.
+	 */
+	private static final int IDAT = 0x49444154;
+
+	/**
+	 * Variable storing the path of the file.
+	 */
+	private final String path;
+
+	/**
+	 * Variable storing the width of the image.
+	 */
+	private final int width;
+
+	/**
+	 * Variable storing the height of the image.
+	 */
+	private final int height;
+
+	/**
+	 * Variable storing the PNG color type of the image.
+	 */
+	private final int colorType;
+
+	/**
+	 * Variable storing the number of bytes per pixel.
+	 */
+	private final int pixelBytes;
+
+	/**
+	 * Variable storing the ARGB values of the palette, or null when the image has no palette.
+	 */
+	private final int[] palette;
+
+	/**
+	 * Variable storing the decompressed image data, positioned at the start of row nextRow.
+	 */
+	private DataInputStream data;
+
+	/**
+	 * Variable storing the row that is decoded next.
+	 */
+	private int nextRow;
+
+	/**
+	 * Variable storing the unfiltered bytes of the previous row.
+	 */
+	private byte[] previous;
+
+	/**
+	 * Variable storing the bytes of the current row, starting with the filter type.
+	 */
+	private byte[] current;
+
+	/**
+	 * Opens the given PNG file, positioned at the first row.
+	 */
+	private PngPixelSource(String path, int width, int height, int colorType, int[] palette) throws IOException {
+		this.path = path;
+		this.width = width;
+		this.height = height;
+		this.colorType = colorType;
+		this.pixelBytes = channels(colorType);
+		this.palette = palette;
+		this.restart();
+	}
+
+	/**
+	 * Returns a source for the given file, or null when the file is not a PNG file this class supports.
+	 * @param path The path of the image file.
+	 * @return The source of the image, or null.
+	 * @throws IOException when the file cannot be read
+	 */
+	public static PngPixelSource open(String path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+			byte[] signature = new byte[SIGNATURE.length];
+			in.readFully(signature);
+			if (!Arrays.equals(signature, SIGNATURE)) {
+				return null;
+			}
+			//the header always comes first
+			in.readInt();
+			if (in.readInt() != 0x49484452) {
+				return null;
+			}
+			int width = in.readInt();
+			int height = in.readInt();
+			int bitDepth = in.readUnsignedByte();
+			int colorType = in.readUnsignedByte();
+			in.skipBytes(2);
+			int interlace = in.readUnsignedByte();
+			in.skipBytes(4);
+			if (interlace != 0 || channels(colorType) == 0 || bitDepth != 8) {
+				return null;
+			}
+
+			int[] palette = null;
+			while (true) {
+				int length = in.readInt();
+				int type = in.readInt();
+				if (type == IDAT) {
+					break;
+				} else if (type == 0x504C5445) {
+					palette = new int[256];
+					for (int i = 0; i < length / 3; i++) {
+						palette[i] = 0xFF000000 | in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8 | in.readUnsignedByte();
+					}
+					in.skipBytes(length - length / 3 * 3 + 4);
+				} else if (type == 0x74524E53) {
+					//transparency chunks are left to ImageIO
+					return null;
+				} else {
+					in.skipBytes(length + 4);
+				}
+			}
+			if (colorType == 3 && palette == null) {
+				return null;
+			}
+			return new PngPixelSource(path, width, height, colorType, palette);
+		}
+	}
+
+	/**
+	 * Returns the number of samples per pixel of the given color type, or 0 for an unsupported type.
+	 */
+	private static int channels(int colorType) {
+		switch (colorType) {
+		case 3:
+			return 1;
+		case 2:
+			return 3;
+		case 6:
+			return 4;
+		default:
+			return 0;
+		}
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @throws IllegalArgumentException when the rows are not in the image
+	 *                                  | y < 0 || count < 0 || y + count > getHeight()
+	 */
+	@Override
+	public void readRows(int y, int count, int[] pixels) throws IOException {
+		if (y < 0 || count < 0 || y + count > height) {
+			throw new IllegalArgumentException("The rows are not in the image.");
+		}
+		if (y < nextRow) {
+			this.close();
+			this.restart();
+		}
+		while (nextRow < y) {
+			this.decodeRow();
+		}
+		for (int row = 0; row < count; row++) {
+			this.decodeRow();
+			this.convertRow(pixels, row * width);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		data.close();
+	}
+
+	/**
+	 * Opens the file again and positions the data at the first row.
+	 */
+	private void restart() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+		in.skipBytes(SIGNATURE.length);
+		data = new DataInputStream(new InflaterInputStream(new ImageDataStream(in)));
+		nextRow = 0;
+		previous = new byte[width * pixelBytes];
+		current = new byte[width * pixelBytes + 1];
+	}
+
+	/**
+	 * Reads and unfilters the next row into previous.
+	 */
+	private void decodeRow() throws IOException {
+		data.readFully(current);
+		int filter = current[0];
+		int length = previous.length;
+		for (int i = 0; i < length; i++) {
+			int raw = current[i + 1] & 0xFF;
+			int left = i >= pixelBytes ? current[i + 1 - pixelBytes] & 0xFF : 0;
+			int up = previous[i] & 0xFF;
+			int value;
+			switch (filter) {
+			case 0:
+				value = raw;
+				break;
+			case 1:
+				value = raw + left;
+				break;
+			case 2:
+				value = raw + up;
+				break;
+			case 3:
+				value = raw + ((left + up) >> 1);
+				break;
+			case 4:
+				int upLeft = i >= pixelBytes ? previous[i - pixelBytes] & 0xFF : 0;
+				value = raw + paeth(left, up, upLeft);
+				break;
+			default:
+				throw new IOException("Invalid filter type " + filter + " in " + path);
+			}
+			//the unfiltered value is kept in current, so the next bytes of this row can use it as left
+			current[i + 1] = (byte) value;
+		}
+		System.arraycopy(current, 1, previous, 0, length);
+		nextRow++;
+	}
+
+	/**
+	 * The Paeth predictor of the PNG specification.
+	 */
+	private static int paeth(int a, int b, int c) {
+		int p = a + b - c;
+		int pa = Math.abs(p - a);
+		int pb = Math.abs(p - b);
+		int pc = Math.abs(p - c);
+		if (pa <= pb && pa <= pc) {
+			return a;
+		}
+		return pb <= pc ? b : c;
+	}
+
+	/**
+	 * Converts the last decoded row to ARGB values.
+	 */
+	private void convertRow(int[] pixels, int offset) {
+		byte[] row = previous;
+		for (int x = 0; x < width; x++) {
+			int i = x * pixelBytes;
+			int argb;
+			switch (colorType) {
+			case 2:
+				argb = 0xFF000000 | (row[i] & 0xFF) << 16 | (row[i + 1] & 0xFF) << 8 | (row[i + 2] & 0xFF);
+				break;
+			case 3:
+				argb = palette[row[i] & 0xFF];
+				break;
+			default:
+				argb = (row[i + 3] & 0xFF) << 24 | (row[i] & 0xFF) << 16 | (row[i + 1] & 0xFF) << 8 | (row[i + 2] & 0xFF);
+				break;
+			}
+			pixels[offset + x] = argb;
+		}
+	}
+
+	/**
+	 * The concatenated data of the IDAT chunks of a PNG file, read from the first chunk after the signature.
+	 */
+	private static class ImageDataStream extends InputStream
+	{
+		/**
+		 * Variable storing the file.
+		 */
+		private final DataInputStream in;
+
+		/**
+		 * Variable storing the number of data bytes left in the current IDAT chunk, or -1 after the last one.
+		 */
+		private int remaining = 0;
+
+		/**
+		 * Variable storing whether an IDAT chunk was read already.
+		 */
+		private boolean started = false;
+
+		private ImageDataStream(DataInputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return this.read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			while (remaining == 0) {
+				if (started) {
+					//the crc of the previous chunk
+					in.skipBytes(4);
+				}
+				int chunkLength = in.readInt();
+				int type = in.readInt();
+				if (type == IDAT) {
+					started = true;
+					remaining = chunkLength;
+				} else if (started) {
+					remaining = -1;
+				} else {
+					in.skipBytes(chunkLength + 4);
+				}
+			}
+			if (remaining < 0) {
+				return -1;
+			}
+			int read = in.read(buffer, offset, Math.min(length, remaining));
+			if (read > 0) {
+				remaining -= read;
+			}
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
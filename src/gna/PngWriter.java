@@ -0,0 +1,216 @@
+package gna;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes an RGB PNG file band by band. The rows are compressed as they arrive, so only the current
+ * row and one compressed chunk are kept in memory. The alpha values of the pixels are ignored.
+ */
+public class PngWriter implements PixelSink
+{
+	/**
+	 * The maximal number of bytes of one IDAT chunk.
+	 */
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	/**
+	 * Variable storing the file.
+	 */
+	private final DataOutputStream out;
+
+	/**
+	 * Variable storing the compressed stream of the image data, which writes IDAT chunks to out.
+	 */
+	private final DeflaterOutputStream data;
+
+	/**
+	 * Variable storing the width of the image.
+	 */
+	private final int width;
+
+	/**
+	 * Variable storing the height of the image.
+	 */
+	private final int height;
+
+	/**
+	 * Variable storing the filtered bytes of one row, starting with the filter type.
+	 */
+	private final byte[] row;
+
+	/**
+	 * Variable storing the number of rows written.
+	 */
+	private int rows = 0;
+
+	/**
+	 * Creates the given file and writes the header of an image with the given dimensions.
+	 * @param path   The path of the file.
+	 * @param width  The width of the image.
+	 * @param height The height of the image.
+	 * @throws IOException when the file cannot be written
+	 * @throws IllegalArgumentException when a dimension is not positive
+	 *                                  | width <= 0 || height <= 0
+	 */
+	public PngWriter(String path, int width, int height) throws IOException {
+		this(open(path, width, height), width, height);
+	}
+
+	/**
+	 * Writes the header of an image with the given dimensions to the given stream, the stream is closed by close().
+	 * @param stream The stream the image is written to.
+	 * @param width  The width of the image.
+	 * @param height The height of the image.
+	 * @throws IOException when the stream cannot be written
+	 * @throws IllegalArgumentException when a dimension is not positive
+	 *                                  | width <= 0 || height <= 0
+	 */
+	public PngWriter(OutputStream stream, int width, int height) throws IOException {
+		if (width <= 0 || height <= 0) {
+			stream.close();
+			throw new IllegalArgumentException("The dimensions of an image must be positive.");
+		}
+		this.width = width;
+		this.height = height;
+		this.row = new byte[3 * width + 1];
+		this.out = new DataOutputStream(new BufferedOutputStream(stream));
+		out.write(new byte[] {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'});
+		byte[] header = new byte[13];
+		writeInt(header, 0, width);
+		writeInt(header, 4, height);
+		header[8] = 8;
+		header[9] = 2;
+		this.writeChunk("IHDR", header, header.length);
+		this.data = new DeflaterOutputStream(new ChunkStream());
+	}
+
+	/**
+	 * @throws IllegalStateException when the rows do not fit in the image
+	 *                               | count > height - rows written
+	 */
+	@Override
+	public void writeRows(int[] pixels, int count) throws IOException {
+		if (count > height - rows) {
+			throw new IllegalStateException("The rows do not fit in the image.");
+		}
+		for (int r = 0; r < count; r++) {
+			//the Sub filter stores every byte minus the same byte of the pixel on its left
+			row[0] = 1;
+			int left = 0;
+			for (int x = 0; x < width; x++) {
+				int pixel = pixels[r * width + x];
+				row[3 * x + 1] = (byte) ((pixel >> 16) - (left >> 16));
+				row[3 * x + 2] = (byte) ((pixel >> 8) - (left >> 8));
+				row[3 * x + 3] = (byte) (pixel - left);
+				left = pixel;
+			}
+			data.write(row);
+		}
+		rows += count;
+	}
+
+	/**
+	 * Finishes the image data and writes the end of the file.
+	 * @throws IOException when the file cannot be written, or when not all rows were written
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			data.close();
+			this.writeChunk("IEND", new byte[0], 0);
+		} finally {
+			out.close();
+		}
+		if (rows != height) {
+			throw new IOException("Only " + rows + " of the " + height + " rows were written.");
+		}
+	}
+
+	/**
+	 * Creates the file of an image with the given dimensions, the file is not created when a dimension is not positive.
+	 */
+	private static OutputStream open(String path, int width, int height) throws IOException {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("The dimensions of an image must be positive.");
+		}
+		return new FileOutputStream(path);
+	}
+
+	/**
+	 * Writes a chunk with the given type and the first length bytes of data.
+	 */
+	private void writeChunk(String type, byte[] data, int length) throws IOException {
+		byte[] typeBytes = type.getBytes("US-ASCII");
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data, 0, length);
+		out.writeInt(length);
+		out.write(typeBytes);
+		out.write(data, 0, length);
+		out.writeInt((int) crc.getValue());
+	}
+
+	/**
+	 * Stores the given value big-endian at the given index.
+	 */
+	private static void writeInt(byte[] bytes, int index, int value) {
+		bytes[index] = (byte) (value >>> 24);
+		bytes[index + 1] = (byte) (value >>> 16);
+		bytes[index + 2] = (byte) (value >>> 8);
+		bytes[index + 3] = (byte) value;
+	}
+
+	/**
+	 * Collects the compressed data and writes it as IDAT chunks of at most CHUNK_SIZE bytes.
+	 */
+	private class ChunkStream extends OutputStream
+	{
+		/**
+		 * Variable storing the data of the next chunk.
+		 */
+		private final byte[] buffer = new byte[CHUNK_SIZE];
+
+		/**
+		 * Variable storing the number of bytes in the buffer.
+		 */
+		private int size = 0;
+
+		@Override
+		public void write(int b) throws IOException {
+			this.write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			while (length > 0) {
+				int n = Math.min(length, CHUNK_SIZE - size);
+				System.arraycopy(bytes, offset, buffer, size, n);
+				size += n;
+				offset += n;
+				length -= n;
+				if (size == CHUNK_SIZE) {
+					this.flush();
+				}
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (size > 0) {
+				writeChunk("IDAT", buffer, size);
+				size = 0;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.flush();
+		}
+	}
+}
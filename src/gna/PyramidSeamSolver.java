@@ -0,0 +1,277 @@
+package gna;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import libpract.*;
+
+/**
+ * Coarse-to-fine seam search. The cost map is halved in size until it is small, the seam of the smallest
+ * map is calculated with the Stitcher, and on every finer level the seam is searched again, but only in
+ * a band around the seam of the coarser level. The seam is therefore not always optimal, the error can be
+ * measured with measureCostGap and reduced by making the band wider.
+ */
+public class PyramidSeamSolver
+{
+	/**
+	 * The default number of pixels the band extends on both sides of the upsampled seam.
+	 */
+	public static final int DEFAULT_BAND_WIDTH = 8;
+
+	/**
+	 * Cost maps are not halved further when that would make their width or height smaller than this.
+	 */
+	public static final int MIN_LEVEL_SIZE = 32;
+
+	/**
+	 * The x-offsets of the eight neighbors of a vertex.
+	 */
+	private static final int[] NEIGHBOR_DX = {-1, 1, 0, 0, -1, -1, 1, 1};
+
+	/**
+	 * The y-offsets of the eight neighbors of a vertex, matching NEIGHBOR_DX.
+	 */
+	private static final int[] NEIGHBOR_DY = {0, 0, -1, 1, -1, 1, -1, 1};
+
+	/**
+	 * Variable storing the costs of the pixels.
+	 */
+	private final CostMap costMap;
+
+	/**
+	 * Variable storing the number of pixels the band extends on both sides of the upsampled seam.
+	 */
+	private final int bandWidth;
+
+	/**
+	 * Variable storing the cost of the last calculated seam.
+	 */
+	private long cost = -1;
+
+	/**
+	 * Variable storing the number of vertices that were settled on all levels by the last search.
+	 */
+	private int settledVertices;
+
+	/**
+	 * Creates a solver for the given cost map with the default band width.
+	 * @param costMap The costs of the pixels.
+	 */
+	public PyramidSeamSolver(CostMap costMap) {
+		this(costMap, DEFAULT_BAND_WIDTH);
+	}
+
+	/**
+	 * Creates a solver for the given cost map.
+	 * @param costMap   The costs of the pixels.
+	 * @param bandWidth The number of pixels the band extends on both sides of the upsampled seam.
+	 * @throws IllegalArgumentException when the band width is negative
+	 *                                  | bandWidth < 0
+	 */
+	public PyramidSeamSolver(CostMap costMap, int bandWidth) {
+		if (bandWidth < 0) {
+			throw new IllegalArgumentException("The band width cannot be negative.");
+		}
+		this.costMap = costMap;
+		this.bandWidth = bandWidth;
+	}
+
+	/**
+	 * Calculates the seam. Afterwards previousVertex contains the seam, from the lower right corner back to
+	 * the upper left corner, and distTo its cost. Only the vertices in the band of the finest level are reached,
+	 * the others keep distance Long.MAX_VALUE and previous vertex -1.
+	 * @param distTo         The array of at least height * width distances.
+	 * @param previousVertex The array of at least height * width previous vertices.
+	 */
+	public void solve(long[] distTo, int[] previousVertex) {
+		List<CostMap> pyramid = new ArrayList<>();
+		pyramid.add(costMap);
+		while (Math.min(pyramid.get(pyramid.size() - 1).getHeight(), pyramid.get(pyramid.size() - 1).getWidth()) / 2 >= MIN_LEVEL_SIZE) {
+			pyramid.add(downsample(pyramid.get(pyramid.size() - 1)));
+		}
+		int levels = pyramid.size() - 1;
+		settledVertices = 0;
+		if (levels == 0) {
+			//the map is small, search everywhere
+			int[][] band = new int[2][costMap.getHeight()];
+			Arrays.fill(band[1], costMap.getWidth() - 1);
+			this.solveInBand(costMap, band, distTo, previousVertex);
+			cost = distTo[costMap.getHeight() * costMap.getWidth() - 1];
+			return;
+		}
+		
+		SeamSearch search = new Stitcher(SeamMode.DIAL).search(pyramid.get(levels));
+		List<Position> seam = search.getSeam();
+		settledVertices += search.getSettledVertices();
+		for (int level = levels - 1; level >= 0; level--) {
+			CostMap fine = pyramid.get(level);
+			int height = fine.getHeight();
+			int width = fine.getWidth();
+			long[] levelDistTo = level == 0 ? distTo : new long[height * width];
+			int[] levelPreviousVertex = level == 0 ? previousVertex : new int[height * width];
+			this.solveInBand(fine, band(seam, height, width), levelDistTo, levelPreviousVertex);
+			if (level > 0) {
+				seam = path(levelPreviousVertex, width, height * width - 1);
+			}
+		}
+		cost = distTo[costMap.getHeight() * costMap.getWidth() - 1];
+	}
+
+	/**
+	 * Returns the cost of the last calculated seam, or -1 when no seam was calculated.
+	 * @return The cost of the last calculated seam.
+	 */
+	public long getCost() {
+		return cost;
+	}
+
+	/**
+	 * Returns the number of vertices that were settled on all levels by the last search.
+	 * @return The number of settled vertices.
+	 */
+	public int getSettledVertices() {
+		return settledVertices;
+	}
+
+	/**
+	 * Calculates the optimal seam of the full images and returns how much more expensive the last seam
+	 * of this solver is. This runs the full search, so it is meant for tuning the band width, not for
+	 * every stitch.
+	 * @return The cost of the last seam minus the optimal cost.
+	 * @throws IllegalStateException when no seam was calculated yet
+	 *                               | getCost() == -1
+	 */
+	public long measureCostGap() {
+		if (cost == -1) {
+			throw new IllegalStateException("The seam has not been calculated yet.");
+		}
+		return cost - new Stitcher(SeamMode.DIAL).search(costMap).getCost();
+	}
+
+	/**
+	 * Returns for every row of the finer level the first and last column of the band around the seam.
+	 * Every position of the coarse seam covers a block of 2x2 pixels on the finer level.
+	 * @param seam   The seam of the coarser level.
+	 * @param height The height of the finer level.
+	 * @param width  The width of the finer level.
+	 * @return An array {first columns, last columns}, both indexed by row.
+	 */
+	private int[][] band(List<Position> seam, int height, int width) {
+		int[] first = new int[height];
+		int[] last = new int[height];
+		Arrays.fill(first, Integer.MAX_VALUE);
+		Arrays.fill(last, -1);
+		for (Position p : seam) {
+			for (int y = 2 * p.getY(); y < Math.min(2 * p.getY() + 2, height); y++) {
+				first[y] = Math.min(first[y], 2 * p.getX());
+				last[y] = Math.max(last[y], Math.min(2 * p.getX() + 1, width - 1));
+			}
+		}
+		for (int y = 0; y < height; y++) {
+			first[y] = Math.max(0, first[y] - bandWidth);
+			last[y] = Math.min(width - 1, last[y] + bandWidth);
+		}
+		return new int[][] {first, last};
+	}
+
+	/**
+	 * Performs Dial's algorithm from the upper left to the lower right corner, only visiting the band. When the
+	 * bucket queue does not support the largest cost of the map, a heap is used instead.
+	 * @param costMap        The costs of the pixels.
+	 * @param band           The first and last column of the band in every row.
+	 * @param distTo         The array of at least height * width distances.
+	 * @param previousVertex The array of at least height * width previous vertices.
+	 */
+	private void solveInBand(CostMap costMap, int[][] band, long[] distTo, int[] previousVertex) {
+		int height = costMap.getHeight();
+		int width = costMap.getWidth();
+		int[] costs = costMap.getCosts();
+		int[] first = band[0];
+		int[] last = band[1];
+		Arrays.fill(distTo, 0, height * width, Long.MAX_VALUE);
+		Arrays.fill(previousVertex, 0, height * width, -1);
+		distTo[0] = 0;
+		boolean buckets = BucketQueue.supports(height * width, costMap.getMaxCost());
+		BucketQueue bucketQueue = buckets ? new BucketQueue(height * width, costMap.getMaxCost()) : null;
+		IndexMinPQ positionPQ = buckets ? null : new IndexMinPQ(height * width);
+
+		int target = height * width - 1;
+		int current = 0;
+		int settled = 1;
+		while (current != target) {
+			int y = current / width;
+			int x = current - y * width;
+			for (int k = 0; k < NEIGHBOR_DX.length; k++) {
+				int ny = y + NEIGHBOR_DY[k];
+				int nx = x + NEIGHBOR_DX[k];
+				if (ny < 0 || ny >= height || nx < first[ny] || nx > last[ny]) {
+					continue;
+				}
+				int neighbor = ny * width + nx;
+				long calcDistance = distTo[current] + costs[neighbor];
+				if (calcDistance < distTo[neighbor]) {
+					distTo[neighbor] = calcDistance;
+					previousVertex[neighbor] = current;
+					if (buckets) {
+						bucketQueue.insertOrDecrease(neighbor, calcDistance);
+					} else {
+						positionPQ.insertOrDecrease(neighbor, calcDistance);
+					}
+				}
+			}
+			current = buckets ? bucketQueue.delMin() : positionPQ.delMin();
+			settled++;
+		}
+		settledVertices += settled;
+	}
+
+	/**
+	 * Returns the path from the upper left corner to the given vertex.
+	 * @param previousVertex The previous vertices of the search.
+	 * @param width          The width of the image.
+	 * @param target         The last vertex of the path.
+	 * @return The path as a list of positions.
+	 */
+	private static List<Position> path(int[] previousVertex, int width, int target) {
+		int length = 1;
+		for (int v = target; previousVertex[v] != -1; v = previousVertex[v]) {
+			length++;
+		}
+		Position[] path = new Position[length];
+		int v = target;
+		for (int i = length - 1; i >= 0; i--) {
+			path[i] = new Position(v / width, v % width);
+			v = previousVertex[v];
+		}
+		return Arrays.asList(path);
+	}
+
+	/**
+	 * Returns the cost map halved in both dimensions, every cost is the average of a block of (at most) 2x2 costs.
+	 * @param costMap The cost map.
+	 * @return The downsampled cost map.
+	 */
+	static CostMap downsample(CostMap costMap) {
+		int fineHeight = costMap.getHeight();
+		int fineWidth = costMap.getWidth();
+		int height = (fineHeight + 1) / 2;
+		int width = (fineWidth + 1) / 2;
+		int[] fine = costMap.getCosts();
+		int[] costs = new int[height * width];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				long sum = 0;
+				int count = 0;
+				for (int dy = 2 * y; dy < Math.min(2 * y + 2, fineHeight); dy++) {
+					for (int dx = 2 * x; dx < Math.min(2 * x + 2, fineWidth); dx++) {
+						sum += fine[dy * fineWidth + dx];
+						count++;
+					}
+				}
+				costs[y * width + x] = (int) (sum / count);
+			}
+		}
+		return new CostMap(height, width, costs);
+	}
+}
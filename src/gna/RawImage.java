@@ -0,0 +1,266 @@
+package gna;
+
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An image in an uncompressed file that is memory-mapped, so reading it needs no decoding and the operating system
+ * keeps it cached between runs. The file is a header of HEADER_SIZE bytes, the magic bytes "ARGB", the width and the
+ * height as little-endian ints and four reserved bytes, followed by the ARGB values of the pixels as little-endian
+ * ints, row by row. Files larger than a mapping allows are mapped in segments of whole rows.
+ */
+public class RawImage implements PixelSource, PixelSink
+{
+	/**
+	 * The extension of raw image files.
+	 */
+	public static final String EXTENSION = ".argb";
+
+	/**
+	 * The number of bytes before the first pixel.
+	 */
+	public static final int HEADER_SIZE = 16;
+
+	/**
+	 * The first four bytes of every raw image file.
+	 */
+	private static final int MAGIC = 'A' | 'R' << 8 | 'G' << 16 | 'B' << 24;
+
+	/**
+	 * The largest number of bytes mapped in one segment.
+	 */
+	private static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+	/**
+	 * Variable storing the file.
+	 */
+	private final RandomAccessFile file;
+
+	/**
+	 * Variable storing the width of the image.
+	 */
+	private final int width;
+
+	/**
+	 * Variable storing the height of the image.
+	 */
+	private final int height;
+
+	/**
+	 * Variable storing the number of rows per segment.
+	 */
+	private final int rowsPerSegment;
+
+	/**
+	 * Variable storing the mapped pixels of the segments, segment s holds the rows from s * rowsPerSegment.
+	 */
+	private final IntBuffer[] segments;
+
+	/**
+	 * Variable storing the row that writeRows writes next.
+	 */
+	private int nextRow = 0;
+
+	/**
+	 * Maps the pixels of the given file.
+	 */
+	private RawImage(RandomAccessFile file, int width, int height, FileChannel.MapMode mode) throws IOException {
+		this.file = file;
+		this.width = width;
+		this.height = height;
+		this.rowsPerSegment = (int) Math.max(1, MAX_SEGMENT_SIZE / (4L * width));
+		this.segments = new IntBuffer[(height + rowsPerSegment - 1) / rowsPerSegment];
+		FileChannel channel = file.getChannel();
+		for (int s = 0; s < segments.length; s++) {
+			int rows = Math.min(rowsPerSegment, height - s * rowsPerSegment);
+			long position = HEADER_SIZE + 4L * width * s * rowsPerSegment;
+			segments[s] = channel.map(mode, position, 4L * width * rows).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		}
+	}
+
+	/**
+	 * Opens the given raw image file for reading, or returns null when the file is not a raw image file.
+	 * @param path The path of the file.
+	 * @return The image, or null.
+	 * @throws IOException when the file cannot be read or is shorter than its header says
+	 */
+	public static RawImage open(String path) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		try (DataInputStream in = new DataInputStream(new FileInputStream(path))) {
+			if (in.read(header.array()) != HEADER_SIZE || header.getInt(0) != MAGIC) {
+				return null;
+			}
+		}
+		int width = header.getInt(4);
+		int height = header.getInt(8);
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		if (width <= 0 || height <= 0 || file.length() < HEADER_SIZE + 4L * width * height) {
+			file.close();
+			throw new IOException("The raw image " + path + " is truncated.");
+		}
+		return new RawImage(file, width, height, FileChannel.MapMode.READ_ONLY);
+	}
+
+	/**
+	 * Creates a raw image file of the given dimensions, with all pixels 0.
+	 * @param path   The path of the file.
+	 * @param width  The width of the image.
+	 * @param height The height of the image.
+	 * @return The image, open for reading and writing.
+	 * @throws IOException when the file cannot be created
+	 * @throws IllegalArgumentException when a dimension is not positive
+	 *                                  | width <= 0 || height <= 0
+	 */
+	public static RawImage create(String path, int width, int height) throws IOException {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("The dimensions of an image must be positive.");
+		}
+		RandomAccessFile file = new RandomAccessFile(path, "rw");
+		file.setLength(0);
+		file.setLength(HEADER_SIZE + 4L * width * height);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(0, MAGIC).putInt(4, width).putInt(8, height);
+		file.write(header.array());
+		return new RawImage(file, width, height, FileChannel.MapMode.READ_WRITE);
+	}
+
+	/**
+	 * Converts an image file of any format PixelSource can open into a raw image file, band by band.
+	 * @param source The path of the image file.
+	 * @param target The path of the raw image file.
+	 * @throws IOException when a file cannot be read or written
+	 */
+	public static void convert(String source, String target) throws IOException {
+		try (PixelSource image = PixelSource.open(source);
+				RawImage raw = create(target, image.getWidth(), image.getHeight())) {
+			int[] band = new int[StreamingCompositor.DEFAULT_BAND_HEIGHT * image.getWidth()];
+			for (int y = 0; y < image.getHeight(); y += StreamingCompositor.DEFAULT_BAND_HEIGHT) {
+				int rows = Math.min(StreamingCompositor.DEFAULT_BAND_HEIGHT, image.getHeight() - y);
+				image.readRows(y, rows, band);
+				raw.writeRows(band, rows);
+			}
+		}
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the value of pixel (y, x).
+	 * @param y The y-coordinate.
+	 * @param x The x-coordinate.
+	 * @return The ARGB value of the pixel.
+	 */
+	public int getPixel(int y, int x) {
+		return segments[y / rowsPerSegment].get((y % rowsPerSegment) * width + x);
+	}
+
+	/**
+	 * Sets the value of pixel (y, x).
+	 * @param y     The y-coordinate.
+	 * @param x     The x-coordinate.
+	 * @param value The ARGB value of the pixel.
+	 */
+	public void setPixel(int y, int x, int value) {
+		segments[y / rowsPerSegment].put((y % rowsPerSegment) * width + x, value);
+	}
+
+	/**
+	 * Copies the pixels of row y, from column x up to x + length, into the given array.
+	 * @param y      The row.
+	 * @param x      The first column.
+	 * @param length The number of pixels.
+	 * @param pixels The array in which the pixels are stored.
+	 * @param offset The index in pixels where pixel (y, x) is stored.
+	 */
+	public void getRow(int y, int x, int length, int[] pixels, int offset) {
+		segments[y / rowsPerSegment].get((y % rowsPerSegment) * width + x, pixels, offset, length);
+	}
+
+	/**
+	 * @throws IllegalArgumentException when the rows are not in the image
+	 *                                  | y < 0 || count < 0 || y + count > getHeight()
+	 */
+	@Override
+	public void readRows(int y, int count, int[] pixels) {
+		if (y < 0 || count < 0 || y + count > height) {
+			throw new IllegalArgumentException("The rows are not in the image.");
+		}
+		int done = 0;
+		while (done < count) {
+			//the rows of one segment are copied at once
+			int segment = (y + done) / rowsPerSegment;
+			int first = (y + done) % rowsPerSegment;
+			int rows = Math.min(count - done, rowsPerSegment - first);
+			segments[segment].get(first * width, pixels, done * width, rows * width);
+			done += rows;
+		}
+	}
+
+	/**
+	 * Writes the next rows, starting at row 0.
+	 * @throws IllegalStateException when the rows do not fit in the image
+	 *                               | count > getHeight() - rows written
+	 */
+	@Override
+	public void writeRows(int[] pixels, int count) {
+		if (count > height - nextRow) {
+			throw new IllegalStateException("The rows do not fit in the image.");
+		}
+		int done = 0;
+		while (done < count) {
+			int segment = (nextRow + done) / rowsPerSegment;
+			int first = (nextRow + done) % rowsPerSegment;
+			int rows = Math.min(count - done, rowsPerSegment - first);
+			segments[segment].put(first * width, pixels, done * width, rows * width);
+			done += rows;
+		}
+		nextRow += count;
+	}
+
+	/**
+	 * Returns the image as a 2D array.
+	 * @return The values of the image, indexed as image[y][x].
+	 */
+	public int[][] toArray() {
+		int[][] image = new int[height][width];
+		for (int y = 0; y < height; y++) {
+			this.getRow(y, 0, width, image[y], 0);
+		}
+		return image;
+	}
+
+	/**
+	 * Closes the file. The mapping itself is released when the image is garbage collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Converts the image args[0] into the raw image file args[1].
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("RawImage requires an input image and an output file.");
+			return;
+		}
+		long start = System.nanoTime();
+		convert(args[0], args[1]);
+		System.out.printf("%s -> %s in %d ms%n", args[0], args[1], (System.nanoTime() - start) / 1000000);
+	}
+}
@@ -0,0 +1,233 @@
+package gna;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Composes the result image of two images and the mask of their overlap, image 2 placed offsetx to the right
+ * and offsety below image 1, as in ImageCompositor. Every pixel of the result is written exactly once: the parts
+ * of a row outside the overlap are copied with System.arraycopy, and inside the overlap every run of pixels with
+ * the same source is copied at once. The rows are divided in stripes that are composed in parallel.
+ * The images are read through views, so the pixels of a memory-mapped RawImage are copied from the mapping
+ * straight into the result.
+ */
+public class RowCompositor
+{
+	/**
+	 * Variable storing the number of stripes the result is divided in.
+	 */
+	private final int stripes;
+
+	/**
+	 * Variable storing the pool the stripes are composed on.
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates a compositor with four stripes per core of the common pool.
+	 */
+	public RowCompositor() {
+		this(4 * ForkJoinPool.commonPool().getParallelism(), ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a compositor.
+	 * @param stripes The number of stripes the result is divided in.
+	 * @param pool    The pool the stripes are composed on.
+	 * @throws IllegalArgumentException when the number of stripes is not positive or the pool equals null
+	 *                                  | stripes <= 0 || pool == null
+	 */
+	public RowCompositor(int stripes, ForkJoinPool pool) {
+		if (stripes <= 0 || pool == null) {
+			throw new IllegalArgumentException("The number of stripes must be positive and the pool cannot be null.");
+		}
+		this.stripes = stripes;
+		this.pool = pool;
+	}
+
+	/**
+	 * Returns the composed image. In the overlap the pixels that are Stitch.IMAGE1 in the mask come from image 1,
+	 * all other pixels, including the seam, come from image 2. Pixels outside both images are 0.
+	 * @param image1  The first image.
+	 * @param image2  The second image.
+	 * @param offsetx The x-offset of image 2.
+	 * @param offsety The y-offset of image 2.
+	 * @param mask    The mask of the overlap, it is not changed.
+	 * @return The composed image.
+	 * @throws IllegalArgumentException when offsetx is negative or the mask does not match the overlap
+	 *                                  | offsetx < 0 || mask.getHeight() != the height of the overlap
+	 *                                  | || mask.getWidth() != the width of the overlap
+	 */
+	public int[][] composite(int[][] image1, int[][] image2, int offsetx, int offsety, PackedMask mask) {
+		return this.composite(ImageView.of(image1), ImageView.of(image2), offsetx, offsety, mask);
+	}
+
+	/**
+	 * Returns the composed image of two views, see composite(int[][], int[][], int, int, PackedMask).
+	 * @param image1  The view of the first image.
+	 * @param image2  The view of the second image.
+	 * @param offsetx The x-offset of image 2.
+	 * @param offsety The y-offset of image 2.
+	 * @param mask    The mask of the overlap, it is not changed.
+	 * @return The composed image.
+	 * @throws IllegalArgumentException when offsetx is negative or the mask does not match the overlap
+	 *                                  | offsetx < 0 || mask.getHeight() != the height of the overlap
+	 *                                  | || mask.getWidth() != the width of the overlap
+	 */
+	public int[][] composite(ImageView image1, ImageView image2, int offsetx, int offsety, PackedMask mask) {
+		int width1 = image1.getWidth();
+		int height1 = image1.getHeight();
+		int width2 = image2.getWidth();
+		int height2 = image2.getHeight();
+		if (offsetx < 0) {
+			throw new IllegalArgumentException("Negative offsetx not supported (switch both the images instead)");
+		}
+		int stitchHeight = Math.min(offsety + height2, height1) - Math.max(offsety, 0);
+		int stitchWidth = Math.min(offsetx + width2, width1) - offsetx;
+		if (mask.getHeight() != stitchHeight || mask.getWidth() != stitchWidth) {
+			throw new IllegalArgumentException("The mask does not match the overlap of the images.");
+		}
+		int resultWidth = StreamingCompositor.getResultWidth(width1, width2, offsetx);
+		int resultHeight = StreamingCompositor.getResultHeight(height1, height2, offsety);
+		//the first row of both images and of the overlap in the result
+		int top1 = Math.max(0, -offsety);
+		int top2 = Math.max(0, offsety);
+		int stitchTop = Math.abs(offsety);
+		byte[] codes = mask.getCodes();
+		int[][] result = new int[resultHeight][];
+		int count = Math.min(stripes, resultHeight);
+
+		pool.submit(() -> IntStream.range(0, count).parallel().forEach(stripe -> {
+			for (int y = firstRow(stripe, count, resultHeight); y < firstRow(stripe + 1, count, resultHeight); y++) {
+				int[] row = new int[resultWidth];
+				int y1 = y >= top1 && y < top1 + height1 ? y - top1 : -1;
+				int y2 = y >= top2 && y < top2 + height2 ? y - top2 : -1;
+				compositeRow(image1, y1, image2, y2, offsetx, codes, (y - stitchTop) * stitchWidth, stitchWidth,
+						row, 0, resultWidth);
+				result[y] = row;
+			}
+		})).join();
+		return result;
+	}
+
+	/**
+	 * Writes one row of the result. When both images cover the row it is a row of the overlap, and the pixels of
+	 * the overlap are taken from the mask; otherwise the row of the image that covers it is copied. The pixels
+	 * outside both images are set to 0.
+	 * @param row1         The pixels of image 1, or null when image 1 does not cover the row.
+	 * @param offset1      The index of the first pixel of the row in row1.
+	 * @param width1       The width of image 1.
+	 * @param row2         The pixels of image 2, or null when image 2 does not cover the row.
+	 * @param offset2      The index of the first pixel of the row in row2.
+	 * @param width2       The width of image 2.
+	 * @param offsetx      The x-offset of image 2.
+	 * @param codes        The codes of the mask of the overlap.
+	 * @param maskOffset   The index of the row in codes, only used when both images cover the row.
+	 * @param stitchWidth  The width of the overlap.
+	 * @param result       The array in which the row is written.
+	 * @param resultOffset The index of the row in result.
+	 * @param resultWidth  The width of the result.
+	 */
+	static void compositeRow(int[] row1, int offset1, int width1, int[] row2, int offset2, int width2, int offsetx,
+			byte[] codes, int maskOffset, int stitchWidth, int[] result, int resultOffset, int resultWidth) {
+		int end;
+		if (row2 == null) {
+			System.arraycopy(row1, offset1, result, resultOffset, width1);
+			end = width1;
+		} else if (row1 == null) {
+			Arrays.fill(result, resultOffset, resultOffset + offsetx, 0);
+			System.arraycopy(row2, offset2, result, resultOffset + offsetx, width2);
+			end = offsetx + width2;
+		} else {
+			System.arraycopy(row1, offset1, result, resultOffset, offsetx);
+			//copy every run of pixels of the same image at once
+			int x = 0;
+			while (x < stitchWidth) {
+				boolean fromImage1 = codes[maskOffset + x] == PackedMask.IMAGE1;
+				int run = x + 1;
+				while (run < stitchWidth && (codes[maskOffset + run] == PackedMask.IMAGE1) == fromImage1) {
+					run++;
+				}
+				if (fromImage1) {
+					System.arraycopy(row1, offset1 + offsetx + x, result, resultOffset + offsetx + x, run - x);
+				} else {
+					System.arraycopy(row2, offset2 + x, result, resultOffset + offsetx + x, run - x);
+				}
+				x = run;
+			}
+			end = offsetx + stitchWidth;
+			if (offsetx + width2 > end) {
+				System.arraycopy(row2, offset2 + stitchWidth, result, resultOffset + end, width2 - stitchWidth);
+				end = offsetx + width2;
+			} else if (width1 > end) {
+				System.arraycopy(row1, offset1 + end, result, resultOffset + end, width1 - end);
+				end = width1;
+			}
+		}
+		Arrays.fill(result, resultOffset + end, resultOffset + resultWidth, 0);
+	}
+
+	/**
+	 * Writes one row of the result, reading the images through views. See compositeRow(int[], int, int, int[],
+	 * int, int, int, byte[], int, int, int[], int, int), with the rows copied from the views into the result.
+	 * @param image1       The view of image 1.
+	 * @param y1           The row of image 1, or -1 when image 1 does not cover the row.
+	 * @param image2       The view of image 2.
+	 * @param y2           The row of image 2, or -1 when image 2 does not cover the row.
+	 * @param offsetx      The x-offset of image 2.
+	 * @param codes        The codes of the mask of the overlap.
+	 * @param maskOffset   The index of the row in codes, only used when both images cover the row.
+	 * @param stitchWidth  The width of the overlap.
+	 * @param result       The array in which the row is written.
+	 * @param resultOffset The index of the row in result.
+	 * @param resultWidth  The width of the result.
+	 */
+	static void compositeRow(ImageView image1, int y1, ImageView image2, int y2, int offsetx, byte[] codes,
+			int maskOffset, int stitchWidth, int[] result, int resultOffset, int resultWidth) {
+		int width1 = image1.getWidth();
+		int width2 = image2.getWidth();
+		int end;
+		if (y2 == -1) {
+			image1.copyRow(y1, 0, width1, result, resultOffset);
+			end = width1;
+		} else if (y1 == -1) {
+			Arrays.fill(result, resultOffset, resultOffset + offsetx, 0);
+			image2.copyRow(y2, 0, width2, result, resultOffset + offsetx);
+			end = offsetx + width2;
+		} else {
+			image1.copyRow(y1, 0, offsetx, result, resultOffset);
+			//copy every run of pixels of the same image at once
+			int x = 0;
+			while (x < stitchWidth) {
+				boolean fromImage1 = codes[maskOffset + x] == PackedMask.IMAGE1;
+				int run = x + 1;
+				while (run < stitchWidth && (codes[maskOffset + run] == PackedMask.IMAGE1) == fromImage1) {
+					run++;
+				}
+				if (fromImage1) {
+					image1.copyRow(y1, offsetx + x, run - x, result, resultOffset + offsetx + x);
+				} else {
+					image2.copyRow(y2, x, run - x, result, resultOffset + offsetx + x);
+				}
+				x = run;
+			}
+			end = offsetx + stitchWidth;
+			if (offsetx + width2 > end) {
+				image2.copyRow(y2, stitchWidth, width2 - stitchWidth, result, resultOffset + end);
+				end = offsetx + width2;
+			} else if (width1 > end) {
+				image1.copyRow(y1, end, width1 - end, result, resultOffset + end);
+				end = width1;
+			}
+		}
+		Arrays.fill(result, resultOffset + end, resultOffset + resultWidth, 0);
+	}
+
+	/**
+	 * Returns the first row of the given stripe.
+	 */
+	private static int firstRow(int stripe, int count, int height) {
+		return (int) ((long) stripe * height / count);
+	}
+}
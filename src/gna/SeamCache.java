@@ -0,0 +1,339 @@
+package gna;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import libpract.*;
+
+/**
+ * A cache of seams, so a Stitcher does not search again for a seam of an overlap it has seen before.
+ *
+ * A seam is stored under a 128 bit hash of the cost map of the overlap and the seam mode. The cost map depends on
+ * both images and the cost function, so a different cost function gives a different key. A seam is stored as one
+ * direction code per step from the upper left corner, one byte per pixel of the seam. The least recently used seams
+ * are evicted when the seams in memory take more than the memory budget. When a directory is given, every seam is
+ * also written to a file in that directory, and seams that are not in memory are looked up there. The directory is
+ * only a cache: seams that cannot be written or read, or that do not end in the lower right corner of the overlap
+ * of their key, are calculated again.
+ *
+ * The seams in memory and the counters are guarded by the monitor of the cache, so one cache can be shared by the
+ * stitchers of several threads. The files are read and written outside the monitor, so a thread that waits for the
+ * disk does not block the lookups of the other threads.
+ */
+public class SeamCache
+{
+	/**
+	 * The x-offsets of the eight directions of a step.
+	 */
+	private static final int[] DX = {-1, 1, 0, 0, -1, -1, 1, 1};
+
+	/**
+	 * The y-offsets of the eight directions of a step, matching DX.
+	 */
+	private static final int[] DY = {0, 0, -1, 1, -1, 1, -1, 1};
+
+	/**
+	 * The estimated number of bytes an entry takes besides its direction codes.
+	 */
+	private static final int ENTRY_OVERHEAD = 96;
+
+	/**
+	 * Variable storing the memory budget of the seams in memory, in bytes.
+	 */
+	private final long memoryBudget;
+
+	/**
+	 * Variable storing the directory of the seams on disk, or null when there is none.
+	 */
+	private final File directory;
+
+	/**
+	 * Variable storing the seams in memory, from the least to the most recently used.
+	 */
+	private final LinkedHashMap<Key, byte[]> seams = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * Variable storing the number of bytes the seams in memory take.
+	 */
+	private long size = 0;
+
+	/**
+	 * Variables storing the number of lookups that were found in memory, found on disk, and not found.
+	 */
+	private long hits = 0;
+	private long diskHits = 0;
+	private long misses = 0;
+
+	/**
+	 * Creates a cache in memory only.
+	 * @param memoryBudget The memory budget of the seams, in bytes.
+	 */
+	public SeamCache(long memoryBudget) {
+		this(memoryBudget, null);
+	}
+
+	/**
+	 * Creates a cache.
+	 * @param memoryBudget The memory budget of the seams in memory, in bytes.
+	 * @param directory    The directory of the seams on disk, or null for a cache in memory only.
+	 * @throws IllegalArgumentException when the budget is negative or the directory cannot be created
+	 *                                  | memoryBudget < 0 || (directory != null && !directory.isDirectory() && !directory.mkdirs())
+	 */
+	public SeamCache(long memoryBudget, File directory) {
+		if (memoryBudget < 0) {
+			throw new IllegalArgumentException("The memory budget cannot be negative.");
+		}
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalArgumentException("Unable to create the directory " + directory);
+		}
+		this.memoryBudget = memoryBudget;
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the key of the seam of the given cost map with the given seam mode.
+	 * @param costMap  The costs of the pixels.
+	 * @param seamMode The seam mode.
+	 * @return The key.
+	 */
+	public static Key key(CostMap costMap, SeamMode seamMode) {
+		//two independent multiply-xorshift hashes of the costs
+		long h1 = 0x9E3779B97F4A7C15L ^ costMap.getWidth();
+		long h2 = 0xC2B2AE3D27D4EB4FL ^ ((long) costMap.getHeight() << 32 | seamMode.ordinal());
+		int[] costs = costMap.getCosts();
+		for (int i = 0; i < costMap.getHeight() * costMap.getWidth(); i++) {
+			int cost = costs[i];
+			h1 = (h1 ^ cost) * 0xFF51AFD7ED558CCDL;
+			h1 ^= h1 >>> 29;
+			h2 = (h2 + cost) * 0xC4CEB9FE1A85EC53L;
+			h2 ^= h2 >>> 31;
+		}
+		return new Key(h1, h2, costMap.getWidth(), costMap.getHeight());
+	}
+
+	/**
+	 * Returns the seam stored under the given key, or null when it is neither in memory nor on disk.
+	 * @param key The key of the seam.
+	 * @return The seam, from the upper left corner, or null.
+	 */
+	public List<Position> get(Key key) {
+		synchronized (this) {
+			byte[] codes = seams.get(key);
+			if (codes != null) {
+				hits++;
+				return decode(codes, key.height, key.width);
+			}
+		}
+		if (directory != null) {
+			try {
+				byte[] codes = Files.readAllBytes(this.file(key).toPath());
+				List<Position> seam = decode(codes, key.height, key.width);
+				synchronized (this) {
+					diskHits++;
+					this.store(key, codes);
+				}
+				return seam;
+			} catch (IOException | IllegalArgumentException e) {
+				//not on disk, or not a valid seam of this key
+			}
+		}
+		synchronized (this) {
+			misses++;
+		}
+		return null;
+	}
+
+	/**
+	 * Stores the given seam under the given key.
+	 * @param key  The key of the seam.
+	 * @param seam The seam, from the upper left corner, every position adjacent to the previous one.
+	 * @throws IllegalArgumentException when the seam does not start in the upper left corner, has a gap, or does not
+	 *                                  end in the lower right corner of the overlap of the key
+	 */
+	public void put(Key key, List<Position> seam) {
+		byte[] codes = encode(seam);
+		decode(codes, key.height, key.width);
+		synchronized (this) {
+			this.store(key, codes);
+		}
+		if (directory != null) {
+			try {
+				//write to a temporary file first, so a reader never sees half a seam
+				File temporary = File.createTempFile("seam", ".tmp", directory);
+				Files.write(temporary.toPath(), codes);
+				Files.move(temporary.toPath(), this.file(key).toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				//the seam stays in memory only
+			}
+		}
+	}
+
+	/**
+	 * Removes all seams from memory, the seams on disk are kept.
+	 */
+	public synchronized void clear() {
+		seams.clear();
+		size = 0;
+	}
+
+	/**
+	 * Returns the number of seams in memory.
+	 * @return The number of seams in memory.
+	 */
+	public synchronized int getEntries() {
+		return seams.size();
+	}
+
+	/**
+	 * Returns the estimated number of bytes the seams in memory take.
+	 * @return The size of the seams in memory.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of lookups that were found in memory.
+	 * @return The number of hits.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that were found on disk.
+	 * @return The number of disk hits.
+	 */
+	public synchronized long getDiskHits() {
+		return diskHits;
+	}
+
+	/**
+	 * Returns the number of lookups that were not found.
+	 * @return The number of misses.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Stores the codes in memory and evicts the least recently used seams that do not fit in the budget.
+	 */
+	private void store(Key key, byte[] codes) {
+		byte[] old = seams.put(key, codes);
+		if (old != null) {
+			size -= old.length + ENTRY_OVERHEAD;
+		}
+		size += codes.length + ENTRY_OVERHEAD;
+		Iterator<Map.Entry<Key, byte[]>> iterator = seams.entrySet().iterator();
+		while (size > memoryBudget && iterator.hasNext()) {
+			size -= iterator.next().getValue().length + ENTRY_OVERHEAD;
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Returns the file of the seam with the given key.
+	 */
+	private File file(Key key) {
+		return new File(directory, key.toString() + ".seam");
+	}
+
+	/**
+	 * Returns the direction codes of the steps of the seam.
+	 */
+	static byte[] encode(List<Position> seam) {
+		if (seam.isEmpty() || seam.get(0).getX() != 0 || seam.get(0).getY() != 0) {
+			throw new IllegalArgumentException("A seam starts in the upper left corner.");
+		}
+		byte[] codes = new byte[seam.size() - 1];
+		Position previous = seam.get(0);
+		for (int i = 1; i < seam.size(); i++) {
+			Position position = seam.get(i);
+			int dx = position.getX() - previous.getX();
+			int dy = position.getY() - previous.getY();
+			int code = 0;
+			while (code < DX.length && (DX[code] != dx || DY[code] != dy)) {
+				code++;
+			}
+			if (code == DX.length) {
+				throw new IllegalArgumentException("The positions of a seam must be adjacent.");
+			}
+			codes[i - 1] = (byte) code;
+			previous = position;
+		}
+		return codes;
+	}
+
+	/**
+	 * Returns the seam with the given direction codes in an overlap of the given size.
+	 * @throws IllegalArgumentException when a code is not a direction, the seam leaves the overlap, or it does not
+	 *                                  end in the lower right corner
+	 */
+	static List<Position> decode(byte[] codes, int height, int width) {
+		List<Position> seam = new ArrayList<>(codes.length + 1);
+		int x = 0;
+		int y = 0;
+		seam.add(new Position(0, 0));
+		for (byte code : codes) {
+			if (code < 0 || code >= DX.length) {
+				throw new IllegalArgumentException("Invalid direction code " + code);
+			}
+			x += DX[code];
+			y += DY[code];
+			if (x < 0 || x >= width || y < 0 || y >= height) {
+				throw new IllegalArgumentException("The seam leaves the overlap at (" + y + ", " + x + ").");
+			}
+			seam.add(new Position(y, x));
+		}
+		if (y != height - 1 || x != width - 1) {
+			throw new IllegalArgumentException("The seam does not end in the lower right corner.");
+		}
+		return seam;
+	}
+
+	/**
+	 * The key of a seam: the dimensions of the overlap and a 128 bit hash of its costs and seam mode.
+	 */
+	public static final class Key
+	{
+		private final long hash1;
+		private final long hash2;
+		private final int width;
+		private final int height;
+
+		private Key(long hash1, long hash2, int width, int height) {
+			this.hash1 = hash1;
+			this.hash2 = hash2;
+			this.width = width;
+			this.height = height;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return hash1 == key.hash1 && hash2 == key.hash2 && width == key.width && height == key.height;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) hash1;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%016x%016x-%dx%d", hash1, hash2, width, height);
+		}
+	}
+}
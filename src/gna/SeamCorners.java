@@ -0,0 +1,18 @@
+package gna;
+
+/**
+ * The corners of the overlap a seam connects. Image 1 always lies left of the seam and image 2 right of it.
+ */
+public enum SeamCorners
+{
+	/**
+	 * From the upper left to the lower right corner.
+	 */
+	TOP_LEFT_TO_BOTTOM_RIGHT,
+
+	/**
+	 * From the lower left to the upper right corner, for an overlap in the lower right corner of image 1.
+	 * The seam is calculated on the vertically mirrored overlap, which is read through mirrored views.
+	 */
+	BOTTOM_LEFT_TO_TOP_RIGHT
+}
@@ -0,0 +1,217 @@
+package gna;
+
+import java.util.BitSet;
+
+/**
+ * The pixels a seam search may visit: in every row a span of columns, optionally with holes. The pixels of the
+ * corridor are numbered row by row, so a search of the corridor only needs storage for the pixels of the corridor.
+ * Pixel (y, x) of the corridor has index getOffset(y) + x - getFirst(y).
+ *
+ * A corridor is made either around the diagonal from the upper left to the lower right corner, with a band width,
+ * or from a mask of allowed pixels.
+ */
+public class SeamCorridor
+{
+	/**
+	 * Variable storing the height of the images.
+	 */
+	private final int height;
+
+	/**
+	 * Variable storing the width of the images.
+	 */
+	private final int width;
+
+	/**
+	 * Variables storing the first and last column of the span of every row. A row without pixels has
+	 * first column 0 and last column -1.
+	 */
+	private final int[] first;
+	private final int[] last;
+
+	/**
+	 * Variable storing the index of the first pixel of every row, and the number of pixels at index height.
+	 */
+	private final int[] offset;
+
+	/**
+	 * Variable storing which pixels of the spans are allowed, by index, or null when all of them are.
+	 */
+	private final BitSet allowed;
+
+	/**
+	 * Creates a corridor of the given spans.
+	 */
+	private SeamCorridor(int height, int width, int[] first, int[] last, BitSet allowed) {
+		this.height = height;
+		this.width = width;
+		this.first = first;
+		this.last = last;
+		this.offset = new int[height + 1];
+		for (int y = 0; y < height; y++) {
+			long next = (long) offset[y] + last[y] - first[y] + 1;
+			if (next > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("The corridor has too many pixels.");
+			}
+			offset[y + 1] = (int) next;
+		}
+		this.allowed = allowed;
+	}
+
+	/**
+	 * Returns the corridor of the pixels within the given distance of the diagonal from the upper left to the lower
+	 * right corner. In every row the corridor covers the columns the diagonal crosses in that row, extended by the
+	 * band width on both sides, so consecutive rows always touch and the corridor contains a seam.
+	 * @param height    The height of the images.
+	 * @param width     The width of the images.
+	 * @param bandWidth The number of columns on each side of the diagonal.
+	 * @return The corridor.
+	 * @throws IllegalArgumentException when a dimension is not positive or the band width is negative
+	 *                                  | height <= 0 || width <= 0 || bandWidth < 0
+	 */
+	public static SeamCorridor diagonal(int height, int width, int bandWidth) {
+		if (height <= 0 || width <= 0 || bandWidth < 0) {
+			throw new IllegalArgumentException("The dimensions must be positive and the band width cannot be negative.");
+		}
+		int[] first = new int[height];
+		int[] last = new int[height];
+		for (int y = 0; y < height; y++) {
+			//the diagonal crosses row y between these columns
+			long left = (long) y * (width - 1) / height;
+			long right = ((long) (y + 1) * (width - 1) + height - 1) / height;
+			first[y] = (int) Math.max(0, left - bandWidth);
+			last[y] = (int) Math.min(width - 1, right + bandWidth);
+		}
+		first[0] = 0;
+		last[height - 1] = width - 1;
+		return new SeamCorridor(height, width, first, last, null);
+	}
+
+	/**
+	 * Returns the corridor of the allowed pixels. The corridor stores the span from the first to the last
+	 * allowed pixel of every row.
+	 * @param allowed The allowed pixels, indexed as allowed[y][x].
+	 * @return The corridor.
+	 * @throws IllegalArgumentException when the mask is empty or not rectangular
+	 *                                  | allowed.length == 0 || allowed[0].length == 0 || allowed[y].length != allowed[0].length
+	 */
+	public static SeamCorridor of(boolean[][] allowed) {
+		if (allowed.length == 0 || allowed[0].length == 0) {
+			throw new IllegalArgumentException("The mask of allowed pixels cannot be empty.");
+		}
+		int height = allowed.length;
+		int width = allowed[0].length;
+		int[] first = new int[height];
+		int[] last = new int[height];
+		for (int y = 0; y < height; y++) {
+			if (allowed[y].length != width) {
+				throw new IllegalArgumentException("The mask of allowed pixels must be rectangular.");
+			}
+			first[y] = 0;
+			last[y] = -1;
+			for (int x = 0; x < width; x++) {
+				if (allowed[y][x]) {
+					if (last[y] == -1) {
+						first[y] = x;
+					}
+					last[y] = x;
+				}
+			}
+		}
+		BitSet bits = new BitSet();
+		int index = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = first[y]; x <= last[y]; x++) {
+				if (allowed[y][x]) {
+					bits.set(index);
+				}
+				index++;
+			}
+		}
+		return new SeamCorridor(height, width, first, last, bits.cardinality() == index ? null : bits);
+	}
+
+	/**
+	 * Returns the height of the images.
+	 * @return The height of the images.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the width of the images.
+	 * @return The width of the images.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the first column of the span of the given row.
+	 * @param y The row.
+	 * @return The first column.
+	 */
+	public int getFirst(int y) {
+		return first[y];
+	}
+
+	/**
+	 * Returns the last column of the span of the given row, or -1 when the row has no pixels.
+	 * @param y The row.
+	 * @return The last column.
+	 */
+	public int getLast(int y) {
+		return last[y];
+	}
+
+	/**
+	 * Returns the index of the first pixel of the given row.
+	 * @param y The row, or the height for the number of pixels.
+	 * @return The index of the first pixel of the row.
+	 */
+	public int getOffset(int y) {
+		return offset[y];
+	}
+
+	/**
+	 * Returns the number of pixels of the spans, the size of the storage of a search.
+	 * @return The number of pixels.
+	 */
+	public int size() {
+		return offset[height];
+	}
+
+	/**
+	 * Returns the index of pixel (y, x), or -1 when it lies outside the corridor.
+	 * @param y The y-coordinate.
+	 * @param x The x-coordinate.
+	 * @return The index of the pixel, or -1.
+	 */
+	public int indexOf(int y, int x) {
+		if (y < 0 || y >= height || x < first[y] || x > last[y]) {
+			return -1;
+		}
+		int index = offset[y] + x - first[y];
+		return allowed == null || allowed.get(index) ? index : -1;
+	}
+
+	/**
+	 * Returns the row of the pixel with the given index.
+	 * @param index The index of a pixel of the corridor.
+	 * @return The row of the pixel.
+	 */
+	public int rowOf(int index) {
+		int low = 0;
+		int high = height - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (offset[middle] <= index) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,41 @@
+package gna;
+
+/**
+ * The algorithms the Stitcher can use to calculate the seam. All modes except PYRAMID return a seam of minimal cost.
+ */
+public enum SeamMode
+{
+	/**
+	 * Dijkstra's algorithm with an indexed binary heap.
+	 */
+	DIJKSTRA,
+
+	/**
+	 * Dial's algorithm: Dijkstra with a monotone bucket queue on the integer pixel costs,
+	 * without the logarithmic heap operations. When the largest cost needs more buckets than a queue may have,
+	 * see BucketQueue.supports, the seam is searched with the heap of DIJKSTRA.
+	 */
+	DIAL,
+
+	/**
+	 * A* search: Dijkstra ordered on the distance plus an admissible lower bound of the remaining cost,
+	 * which settles fewer vertices.
+	 */
+	ASTAR,
+
+	/**
+	 * Bidirectional Dijkstra: a search from both corners that stops when the searches meet in the middle.
+	 */
+	BIDIRECTIONAL,
+
+	/**
+	 * Delta-stepping: the vertices of a bucket of distances are relaxed in parallel on all cores.
+	 */
+	PARALLEL,
+
+	/**
+	 * Coarse-to-fine search on halved images, refined in a band around the coarse seam. This is the only
+	 * mode that does not always return a seam of minimal cost, see PyramidSeamSolver.
+	 */
+	PYRAMID
+}
@@ -0,0 +1,340 @@
+package gna;
+
+import java.util.Arrays;
+import java.util.List;
+
+import libpract.*;
+
+/**
+ * Keeps the shortest path tree of a seam search, so the seam can be repaired after the costs of a small region
+ * change instead of being searched again.
+ *
+ * Unlike the Stitcher, which stops as soon as the lower right corner is settled, this class calculates the distances
+ * of all vertices, so the tree stays consistent after every repair. A repair first removes the subtrees below the
+ * pixels whose cost increased, then lowers the pixels whose cost decreased, and finally runs Dijkstra's algorithm from
+ * those vertices only. Afterwards every distance equals the distance a full search with the new costs calculates, so
+ * the seam has the same cost as the seam of a full search. When several seams have that cost, another one can be returned.
+ */
+public class SeamRepairer
+{
+	/**
+	 * The x-offsets of the eight neighbors of a vertex.
+	 */
+	private static final int[] NEIGHBOR_DX = {-1, 1, 0, 0, -1, -1, 1, 1};
+
+	/**
+	 * The y-offsets of the eight neighbors of a vertex, matching NEIGHBOR_DX.
+	 */
+	private static final int[] NEIGHBOR_DY = {0, 0, -1, 1, -1, 1, -1, 1};
+
+	/**
+	 * Variable storing the width of the images.
+	 */
+	private final int width;
+
+	/**
+	 * Variable storing the height of the images.
+	 */
+	private final int height;
+
+	/**
+	 * Variable storing the current costs of the pixels, a copy of the costs of the cost map.
+	 */
+	private final int[] costs;
+
+	/**
+	 * Variable storing the distances of all vertices from the upper left corner.
+	 */
+	private final long[] distTo;
+
+	/**
+	 * Variable storing the previous vertex of every vertex in the shortest path tree, -1 for the upper left corner.
+	 */
+	private final int[] previousVertex;
+
+	/**
+	 * Variable storing the queue of the repairs, it is empty between repairs.
+	 */
+	private final IndexMinPQ queue;
+
+	/**
+	 * Variable storing the vertices of the removed subtrees, and the number of them.
+	 */
+	private int[] removed = new int[64];
+	private int removedCount;
+
+	/**
+	 * Variable storing the number of vertices settled by the last search or repair.
+	 */
+	private int settledVertices;
+
+	/**
+	 * Calculates the shortest path tree of the given cost map.
+	 * @param costMap The costs of the pixels.
+	 */
+	public SeamRepairer(CostMap costMap) {
+		this.width = costMap.getWidth();
+		this.height = costMap.getHeight();
+		this.costs = Arrays.copyOf(costMap.getCosts(), height * width);
+		this.distTo = new long[height * width];
+		this.previousVertex = new int[height * width];
+		this.queue = new IndexMinPQ(height * width);
+		this.solve(costMap.getMaxCost());
+	}
+
+	/**
+	 * Returns the seam, from the upper left to the lower right corner.
+	 * @return The sequence of positions on the seam.
+	 */
+	public List<Position> getSeam() {
+		int length = 1;
+		for (int v = height * width - 1; previousVertex[v] != -1; v = previousVertex[v]) {
+			length++;
+		}
+		Position[] seam = new Position[length];
+		int v = height * width - 1;
+		for (int i = length - 1; i >= 0; i--) {
+			seam[i] = new Position(v / width, v % width);
+			v = previousVertex[v];
+		}
+		return Arrays.asList(seam);
+	}
+
+	/**
+	 * Returns the cost of the seam, the upper left corner is not counted.
+	 * @return The cost of the seam.
+	 */
+	public long getCost() {
+		return distTo[height * width - 1];
+	}
+
+	/**
+	 * Returns the distances of all vertices, the distance of (y, x) is stored at index y * width + x.
+	 * @return The distances.
+	 */
+	public long[] getDistTo() {
+		return distTo;
+	}
+
+	/**
+	 * Returns the number of vertices settled by the last search or repair.
+	 * @return The number of settled vertices.
+	 */
+	public int getSettledVertices() {
+		return settledVertices;
+	}
+
+	/**
+	 * Repairs the seam after the costs inside the given rectangle changed. The costs outside the rectangle
+	 * must be the costs of the previous search or repair.
+	 * @param costMap The new costs of the pixels.
+	 * @param y       The first row of the rectangle.
+	 * @param x       The first column of the rectangle.
+	 * @param rows    The number of rows of the rectangle.
+	 * @param columns The number of columns of the rectangle.
+	 * @return The repaired seam.
+	 * @throws IllegalArgumentException when the dimensions of the cost map differ from the original cost map
+	 *                                  | costMap.getWidth() != width || costMap.getHeight() != height
+	 */
+	public List<Position> repair(CostMap costMap, int y, int x, int rows, int columns) {
+		if (costMap.getWidth() != width || costMap.getHeight() != height) {
+			throw new IllegalArgumentException("The cost map has other dimensions.");
+		}
+		int first = Math.max(0, y);
+		this.repair(costMap.getCosts(), first * width, first, Math.min(height, y + rows), Math.max(0, x),
+				Math.min(width, x + columns));
+		return this.getSeam();
+	}
+
+	/**
+	 * Repairs the seam after the pixels inside the given rectangle of one of the images changed. The costs of
+	 * the rows that can depend on those pixels are calculated again, which covers cost functions that look at
+	 * the pixel itself, its right neighbor and the row below, like CostFunction.SQUARED_DISTANCE and GRADIENT.
+	 * @param image1       The values of image 1.
+	 * @param image2       The values of image 2.
+	 * @param costFunction The cost function of the original cost map.
+	 * @param y            The first row of the changed pixels.
+	 * @param x            The first column of the changed pixels.
+	 * @param rows         The number of rows of the changed pixels.
+	 * @param columns      The number of columns of the changed pixels.
+	 * @return The repaired seam.
+	 */
+	public List<Position> repair(int[][] image1, int[][] image2, CostFunction costFunction, int y, int x, int rows, int columns) {
+		//a pixel can change the cost of the pixel above it and the pixel left of it
+		int first = Math.max(0, y - 1);
+		int last = Math.min(height, y + rows);
+		int[] newCosts = new int[(last - first) * width];
+		for (int row = first; row < last; row++) {
+			costFunction.computeRow(image1, image2, row, newCosts, (row - first) * width);
+		}
+		this.repair(newCosts, 0, first, last, Math.max(0, x - 1), Math.min(width, x + columns));
+		return this.getSeam();
+	}
+
+	/**
+	 * Calculates the full shortest path tree with Dial's algorithm, or with a heap when the bucket queue does not
+	 * support the maximal cost.
+	 */
+	private void solve(int maxCost) {
+		Arrays.fill(distTo, Long.MAX_VALUE);
+		Arrays.fill(previousVertex, -1);
+		distTo[0] = 0;
+		boolean buckets = BucketQueue.supports(height * width, maxCost);
+		BucketQueue bucketQueue = buckets ? new BucketQueue(height * width, maxCost) : null;
+		IndexMinPQ positionPQ = buckets ? null : new IndexMinPQ(height * width);
+		int current = 0;
+		int settled = 1;
+		while (true) {
+			int y = current / width;
+			int x = current - y * width;
+			for (int k = 0; k < NEIGHBOR_DX.length; k++) {
+				int ny = y + NEIGHBOR_DY[k];
+				int nx = x + NEIGHBOR_DX[k];
+				if (ny < 0 || ny >= height || nx < 0 || nx >= width) {
+					continue;
+				}
+				int neighbor = ny * width + nx;
+				long calcDistance = distTo[current] + costs[neighbor];
+				if (calcDistance < distTo[neighbor]) {
+					distTo[neighbor] = calcDistance;
+					previousVertex[neighbor] = current;
+					if (buckets) {
+						bucketQueue.insertOrDecrease(neighbor, calcDistance);
+					} else {
+						positionPQ.insertOrDecrease(neighbor, calcDistance);
+					}
+				}
+			}
+			if (buckets ? bucketQueue.isEmpty() : positionPQ.isEmpty()) {
+				break;
+			}
+			current = buckets ? bucketQueue.delMin() : positionPQ.delMin();
+			settled++;
+		}
+		settledVertices = settled;
+	}
+
+	/**
+	 * Repairs the tree for the new costs of the rows first up to last and the columns left up to right.
+	 * The new cost of pixel (y, x) is newCosts[offset + (y - first) * width + x].
+	 */
+	private void repair(int[] newCosts, int offset, int first, int last, int left, int right) {
+		//the subtrees below pixels that became more expensive lose their distances
+		removedCount = 0;
+		for (int y = first; y < last; y++) {
+			for (int x = left; x < right; x++) {
+				int v = y * width + x;
+				if (v != 0 && newCosts[offset + (y - first) * width + x] > costs[v] && distTo[v] != Long.MAX_VALUE) {
+					this.removeSubtree(v);
+				}
+			}
+		}
+		for (int y = first; y < last; y++) {
+			for (int x = left; x < right; x++) {
+				costs[y * width + x] = newCosts[offset + (y - first) * width + x];
+			}
+		}
+
+		//removed vertices get the best distance through a vertex that kept its distance,
+		//vertices that became cheaper get a lower distance
+		for (int i = 0; i < removedCount; i++) {
+			this.lower(removed[i]);
+		}
+		for (int y = first; y < last; y++) {
+			for (int x = left; x < right; x++) {
+				int v = y * width + x;
+				if (v != 0 && distTo[v] != Long.MAX_VALUE) {
+					this.lower(v);
+				}
+			}
+		}
+
+		int settled = 0;
+		while (!queue.isEmpty()) {
+			int current = queue.delMin();
+			settled++;
+			int y = current / width;
+			int x = current - y * width;
+			for (int k = 0; k < NEIGHBOR_DX.length; k++) {
+				int ny = y + NEIGHBOR_DY[k];
+				int nx = x + NEIGHBOR_DX[k];
+				if (ny < 0 || ny >= height || nx < 0 || nx >= width) {
+					continue;
+				}
+				int neighbor = ny * width + nx;
+				long calcDistance = distTo[current] + costs[neighbor];
+				if (calcDistance < distTo[neighbor]) {
+					distTo[neighbor] = calcDistance;
+					previousVertex[neighbor] = current;
+					queue.insertOrDecrease(neighbor, calcDistance);
+				}
+			}
+		}
+		settledVertices = settled;
+	}
+
+	/**
+	 * Removes the distances of v and of all vertices below it in the tree.
+	 */
+	private void removeSubtree(int root) {
+		int start = removedCount;
+		this.addRemoved(root);
+		distTo[root] = Long.MAX_VALUE;
+		for (int i = start; i < removedCount; i++) {
+			int v = removed[i];
+			int y = v / width;
+			int x = v - y * width;
+			for (int k = 0; k < NEIGHBOR_DX.length; k++) {
+				int ny = y + NEIGHBOR_DY[k];
+				int nx = x + NEIGHBOR_DX[k];
+				if (ny < 0 || ny >= height || nx < 0 || nx >= width) {
+					continue;
+				}
+				int child = ny * width + nx;
+				if (previousVertex[child] == v && distTo[child] != Long.MAX_VALUE) {
+					distTo[child] = Long.MAX_VALUE;
+					this.addRemoved(child);
+				}
+			}
+		}
+		//the previous vertices are cleared afterwards, the children were found through them
+		for (int i = start; i < removedCount; i++) {
+			previousVertex[removed[i]] = -1;
+		}
+	}
+
+	/**
+	 * Adds v to the removed vertices.
+	 */
+	private void addRemoved(int v) {
+		if (removedCount == removed.length) {
+			removed = Arrays.copyOf(removed, 2 * removed.length);
+		}
+		removed[removedCount++] = v;
+	}
+
+	/**
+	 * Lowers the distance of v to the best distance through one of its neighbors, and queues v when it was lowered.
+	 */
+	private void lower(int v) {
+		int y = v / width;
+		int x = v - y * width;
+		for (int k = 0; k < NEIGHBOR_DX.length; k++) {
+			int ny = y + NEIGHBOR_DY[k];
+			int nx = x + NEIGHBOR_DX[k];
+			if (ny < 0 || ny >= height || nx < 0 || nx >= width) {
+				continue;
+			}
+			int neighbor = ny * width + nx;
+			if (distTo[neighbor] == Long.MAX_VALUE) {
+				continue;
+			}
+			long calcDistance = distTo[neighbor] + costs[v];
+			if (calcDistance < distTo[v]) {
+				distTo[v] = calcDistance;
+				previousVertex[v] = neighbor;
+				queue.insertOrDecrease(v, calcDistance);
+			}
+		}
+	}
+}
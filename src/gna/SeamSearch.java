@@ -0,0 +1,269 @@
+package gna;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import libpract.*;
+
+/**
+ * The state of one seam search. Stitcher creates a search for every call, so the search state is never shared
+ * between calls or threads. During the search the distances and previous vertices are buffers of a SeamWorkspace;
+ * they are released when the search is finished, because the workspace is reused by the next search.
+ * Afterwards the search only holds its result.
+ */
+public class SeamSearch
+{
+	/**
+	 * Variable storing the costs of the pixels, or null when only the costs of a corridor were calculated.
+	 */
+	private final CostMap costMap;
+
+	/**
+	 * Variable storing the height of the images.
+	 */
+	private final int height;
+
+	/**
+	 * Variable storing the width of the images.
+	 */
+	private final int width;
+
+	/**
+	 * Variable storing the buffers of the search, or null when the search is finished.
+	 */
+	private SeamWorkspace workspace;
+
+	/**
+	 * Variable storing the distances of the vertices, or null when the search is finished.
+	 * The distance of vertex y * width + x is stored at that index.
+	 */
+	private long[] distTo;
+
+	/**
+	 * Variable storing the previous vertex of every vertex on its shortest path, or -1 when there is none,
+	 * or null when the search is finished.
+	 */
+	private int[] previousVertex;
+
+	/**
+	 * Variable storing the number of vertices of the search, the buffers of the workspace may be longer.
+	 */
+	private int vertices;
+
+	/**
+	 * Variable storing the seam, or null when there is none.
+	 */
+	private List<Position> seam;
+
+	/**
+	 * Variable storing the cost of the seam, the upper left corner is not counted.
+	 */
+	private long cost = -1;
+
+	/**
+	 * Variable storing the number of vertices that were settled by the search, including the start vertex.
+	 */
+	private int settledVertices;
+
+	/**
+	 * Variables storing the number of insertions into the queue, the number of decreased keys and the largest
+	 * size of the queue, or -1 when the solver does not count them.
+	 */
+	private long pushes = -1;
+	private long decreasedKeys = -1;
+	private int peakQueueSize = -1;
+
+	/**
+	 * Variable storing the estimated number of bytes of the buffers the workspace allocated for the search.
+	 */
+	private long bufferBytes;
+
+	/**
+	 * Creates the state of a search of the given cost map.
+	 * @param costMap The costs of the pixels.
+	 */
+	SeamSearch(CostMap costMap) {
+		this.costMap = costMap;
+		this.height = costMap.getHeight();
+		this.width = costMap.getWidth();
+	}
+
+	/**
+	 * Creates the state of a search in a corridor of images of the given size, whose costs are only calculated for
+	 * the corridor and are not stored in a cost map.
+	 * @param height The height of the images.
+	 * @param width  The width of the images.
+	 */
+	SeamSearch(int height, int width) {
+		this.costMap = null;
+		this.height = height;
+		this.width = width;
+	}
+
+	/**
+	 * Takes the buffers of the search for the given number of vertices from the given workspace and initialises
+	 * them for a search starting in the given source: all vertices except the source are at an infinite distance.
+	 * The source is -1 when no vertex can be reached, then every vertex is at an infinite distance.
+	 */
+	void start(SeamWorkspace workspace, int vertices, int source) {
+		this.workspace = workspace;
+		this.bufferBytes = -workspace.getAllocatedBytes();
+		this.vertices = vertices;
+		this.distTo = workspace.distTo(vertices);
+		this.previousVertex = workspace.previousVertex(vertices);
+		Arrays.fill(distTo, 0, vertices, Long.MAX_VALUE);
+		Arrays.fill(previousVertex, 0, vertices, -1);
+		if (source != -1) {
+			distTo[source] = 0;
+		}
+	}
+
+	/**
+	 * Stores the result of the search and releases the buffers.
+	 */
+	void finish(List<Position> seam, long cost, int settledVertices) {
+		this.seam = seam;
+		this.cost = cost;
+		this.settledVertices = settledVertices;
+		if (workspace != null) {
+			this.bufferBytes += workspace.getAllocatedBytes();
+		}
+		this.workspace = null;
+		this.distTo = null;
+		this.previousVertex = null;
+	}
+
+	/**
+	 * Mirrors the seam vertically, for a search of mirrored views: position (y, x) becomes (height - 1 - y, x).
+	 */
+	void mirror() {
+		if (seam == null) {
+			return;
+		}
+		int height = this.getHeight();
+		List<Position> mirrored = new ArrayList<>(seam.size());
+		for (Position position : seam) {
+			mirrored.add(new Position(height - 1 - position.getY(), position.getX()));
+		}
+		this.seam = mirrored;
+	}
+
+	/**
+	 * Returns the costs of the pixels, for the solvers. When the costs were calculated by the Stitcher they are
+	 * stored in its workspace, which is given back to the pool when the search is finished.
+	 * @return The cost map of the search, or null when only the costs of a corridor were calculated.
+	 */
+	CostMap getCostMap() {
+		return costMap;
+	}
+
+	/**
+	 * Returns the width of the images.
+	 * @return The width of the images.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height of the images.
+	 * @return The height of the images.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns whether the search found a seam. Only a search in a corridor can find none.
+	 * @return True when there is a seam; otherwise false.
+	 */
+	public boolean hasSeam() {
+		return seam != null;
+	}
+
+	/**
+	 * Returns the seam, from the upper left to the lower right corner.
+	 * @return The sequence of positions on the seam, or an empty list when there is none.
+	 */
+	public List<Position> getSeam() {
+		return seam != null ? seam : Collections.emptyList();
+	}
+
+	/**
+	 * Returns the cost of the seam, the upper left corner is not counted.
+	 * @return The cost of the seam, or -1 when there is no seam or the search is not finished.
+	 */
+	public long getCost() {
+		return cost;
+	}
+
+	/**
+	 * Returns the number of vertices that were settled by the search, including the start vertex.
+	 * A seam that was found in a seam cache settles no vertices.
+	 * @return The number of settled vertices.
+	 */
+	public int getSettledVertices() {
+		return settledVertices;
+	}
+
+	/**
+	 * Returns the number of vertices that were inserted into the queue.
+	 * @return The number of insertions, or -1 when the solver does not count them.
+	 */
+	public long getPushes() {
+		return pushes;
+	}
+
+	/**
+	 * Returns the number of keys that were decreased on the queue.
+	 * @return The number of decreased keys, or -1 when the solver does not count them.
+	 */
+	public long getDecreasedKeys() {
+		return decreasedKeys;
+	}
+
+	/**
+	 * Returns the largest number of vertices that were on the queue, the sum of the peaks of both queues
+	 * for a bidirectional search.
+	 * @return The peak size of the queue, or -1 when the solver does not count it.
+	 */
+	public int getPeakQueueSize() {
+		return peakQueueSize;
+	}
+
+	/**
+	 * Returns the estimated number of bytes of the buffers the workspace allocated for the search, 0 when
+	 * all buffers were reused.
+	 * @return The allocated bytes of the buffers.
+	 */
+	public long getBufferBytes() {
+		return bufferBytes;
+	}
+
+	/**
+	 * Adds the counters of a queue of the search.
+	 */
+	void count(long pushes, long decreasedKeys, int peakQueueSize) {
+		this.pushes = Math.max(0, this.pushes) + pushes;
+		this.decreasedKeys = Math.max(0, this.decreasedKeys) + decreasedKeys;
+		this.peakQueueSize = Math.max(0, this.peakQueueSize) + peakQueueSize;
+	}
+
+	SeamWorkspace getWorkspace() {
+		return workspace;
+	}
+
+	int getVertices() {
+		return vertices;
+	}
+
+	long[] getDistTo() {
+		return distTo;
+	}
+
+	int[] getPreviousVertex() {
+		return previousVertex;
+	}
+}
@@ -0,0 +1,221 @@
+package gna;
+
+import java.util.Arrays;
+
+/**
+ * The buffers of a seam search, kept between searches so stitching many images of the same size allocates nothing
+ * after the first search. A Stitcher keeps a pool of workspaces, a workspace can also be given to Stitcher.search.
+ *
+ * Every buffer only grows: it is handed out with at least the requested number of elements, so a smaller search
+ * after a larger one reuses the buffers of the larger one. The searches and CostMap only use the first
+ * height * width elements. Every buffer is reset before it is handed out.
+ *
+ * A workspace is not thread-safe: it must only be used by one search at a time.
+ */
+public class SeamWorkspace
+{
+	/**
+	 * Variable storing the distances from the source of the search.
+	 */
+	private long[] distTo = new long[0];
+
+	/**
+	 * Variable storing the predecessor of every vertex on its shortest path from the source.
+	 */
+	private int[] previousVertex = new int[0];
+
+	/**
+	 * Variable storing the costs of the pixels.
+	 */
+	private int[] costs = new int[0];
+
+	/**
+	 * Variable storing the distances to the target, for the backward half of a bidirectional search.
+	 */
+	private long[] distFrom = new long[0];
+
+	/**
+	 * Variable storing the successor of every vertex on its shortest path to the target.
+	 */
+	private int[] nextVertex = new int[0];
+
+	/**
+	 * Variable storing the priority queue of the forward search.
+	 */
+	private IndexMinPQ queue = new IndexMinPQ(0);
+
+	/**
+	 * Variable storing the priority queue of the backward search.
+	 */
+	private IndexMinPQ backwardQueue = new IndexMinPQ(0);
+
+	/**
+	 * Variable storing the bucket queue of SeamMode.DIAL.
+	 */
+	private BucketQueue bucketQueue = new BucketQueue(0, 0);
+
+	/**
+	 * Variable storing the number of buffers that were allocated.
+	 */
+	private int allocations = 0;
+
+	/**
+	 * Variable storing the estimated number of bytes of the buffers that were allocated.
+	 */
+	private long allocatedBytes = 0;
+
+	/**
+	 * Creates an empty workspace, the buffers are allocated by the first search.
+	 */
+	public SeamWorkspace() {
+	}
+
+	/**
+	 * Creates a workspace for images of the given size.
+	 * @param height  The height of the images.
+	 * @param width   The width of the images.
+	 * @param maxCost The largest cost of a pixel, for the bucket queue of SeamMode.DIAL.
+	 * @throws IllegalArgumentException when a dimension or the maximal cost is negative, or a bucket queue for the
+	 *                                  images does not support the maximal cost
+	 *                                  | height < 0 || width < 0 || maxCost < 0
+	 *                                  | || !BucketQueue.supports(height * width, maxCost)
+	 */
+	public SeamWorkspace(int height, int width, int maxCost) {
+		if (height < 0 || width < 0 || maxCost < 0) {
+			throw new IllegalArgumentException("The dimensions and the maximal cost cannot be negative.");
+		}
+		int n = height * width;
+		this.distTo = new long[n];
+		this.previousVertex = new int[n];
+		this.costs = new int[n];
+		this.queue = new IndexMinPQ(n);
+		this.bucketQueue = new BucketQueue(n, maxCost);
+	}
+
+	/**
+	 * Returns the number of buffers that were allocated after the workspace was created.
+	 * @return The number of allocations.
+	 */
+	public int getAllocations() {
+		return allocations;
+	}
+
+	/**
+	 * Returns the estimated number of bytes of the buffers that were allocated after the workspace was created.
+	 * @return The allocated bytes.
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * Returns the estimated number of bytes of the buffers the workspace holds.
+	 * @return The retained bytes.
+	 */
+	public long getRetainedBytes() {
+		return 8L * distTo.length + 4L * previousVertex.length + 4L * costs.length + 8L * distFrom.length
+				+ 4L * nextVertex.length + 16L * queue.getCapacity() + 16L * backwardQueue.getCapacity()
+				+ 16L * bucketQueue.getCapacity() + 4L * bucketQueue.getMaxCost();
+	}
+
+	/**
+	 * Counts an allocated buffer of the given number of bytes.
+	 */
+	private void allocated(long bytes) {
+		allocations++;
+		allocatedBytes += bytes;
+	}
+
+	/**
+	 * Returns at least n distances, the contents are reset by the search.
+	 */
+	long[] distTo(int n) {
+		if (distTo.length < n) {
+			distTo = new long[n];
+			this.allocated(8L * n);
+		}
+		return distTo;
+	}
+
+	/**
+	 * Returns at least n previous vertices, the contents are reset by the search.
+	 */
+	int[] previousVertex(int n) {
+		if (previousVertex.length < n) {
+			previousVertex = new int[n];
+			this.allocated(4L * n);
+		}
+		return previousVertex;
+	}
+
+	/**
+	 * Returns at least n costs, the first n are overwritten by CostMap.of.
+	 */
+	int[] costs(int n) {
+		if (costs.length < n) {
+			costs = new int[n];
+			this.allocated(4L * n);
+		}
+		return costs;
+	}
+
+	/**
+	 * Returns at least n distances of the backward search, the first n set to Long.MAX_VALUE.
+	 */
+	long[] distFrom(int n) {
+		if (distFrom.length < n) {
+			distFrom = new long[n];
+			this.allocated(8L * n);
+		}
+		Arrays.fill(distFrom, 0, n, Long.MAX_VALUE);
+		return distFrom;
+	}
+
+	/**
+	 * Returns at least n next vertices of the backward search, the first n set to -1.
+	 */
+	int[] nextVertex(int n) {
+		if (nextVertex.length < n) {
+			nextVertex = new int[n];
+			this.allocated(4L * n);
+		}
+		Arrays.fill(nextVertex, 0, n, -1);
+		return nextVertex;
+	}
+
+	/**
+	 * Returns an empty queue for at least n vertices.
+	 */
+	IndexMinPQ queue(int n) {
+		if (queue.getCapacity() < n) {
+			queue = new IndexMinPQ(n);
+			this.allocated(16L * n);
+		}
+		queue.clear();
+		return queue;
+	}
+
+	/**
+	 * Returns an empty queue for the backward search, for at least n vertices.
+	 */
+	IndexMinPQ backwardQueue(int n) {
+		if (backwardQueue.getCapacity() < n) {
+			backwardQueue = new IndexMinPQ(n);
+			this.allocated(16L * n);
+		}
+		backwardQueue.clear();
+		return backwardQueue;
+	}
+
+	/**
+	 * Returns an empty bucket queue for at least n vertices and costs up to at least maxCost.
+	 */
+	BucketQueue bucketQueue(int n, int maxCost) {
+		if (bucketQueue.getCapacity() < n || bucketQueue.getMaxCost() < maxCost) {
+			bucketQueue = new BucketQueue(Math.max(n, bucketQueue.getCapacity()), Math.max(maxCost, bucketQueue.getMaxCost()));
+			this.allocated(16L * bucketQueue.getCapacity() + 4L * bucketQueue.getMaxCost());
+		}
+		bucketQueue.clear();
+		return bucketQueue;
+	}
+}
@@ -0,0 +1,39 @@
+package gna;
+
+/**
+ * Receives the measurements of a Stitcher and of ImageCompositor. A Stitcher without a listener measures nothing:
+ * it only checks once per call whether there is a listener, so instrumentation costs nothing when it is disabled.
+ *
+ * The phases are named after the steps of the stitching pipeline:
+ *
+ *   read, overlap, cost, seam, fill, mask, convert, composite, write, and stream for the
+ *   streaming compositor as a whole
+ *
+ * A listener can be called by several threads at the same time, when a Stitcher is shared.
+ */
+public interface StitchListener
+{
+	/**
+	 * Called when a phase is finished.
+	 * @param phase          The name of the phase.
+	 * @param nanos          The wall time of the phase, in nanoseconds.
+	 * @param allocatedBytes The number of bytes the thread allocated during the phase, or -1 when the
+	 *                       virtual machine does not measure it.
+	 */
+	default void phaseFinished(String phase, long nanos, long allocatedBytes) {
+	}
+
+	/**
+	 * Called when a seam search is finished, after its phase.
+	 * @param search The finished search.
+	 */
+	default void searchFinished(SeamSearch search) {
+	}
+
+	/**
+	 * Called when a flood fill is finished, after its phase.
+	 * @param pixels The number of pixels that were filled.
+	 */
+	default void fillFinished(long pixels) {
+	}
+}
@@ -0,0 +1,213 @@
+package gna;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * A listener that adds up the measurements of one or more stitchers: the number of calls, the total and largest
+ * wall time and the allocated bytes of every phase, and the counters of the seam searches and flood fills.
+ * The metrics can be written as JSON or registered as an MBean.
+ *
+ * All methods are synchronized, so one registry can be shared by the stitchers of several threads.
+ */
+public class StitchMetrics implements StitchListener, StitchMetricsMBean
+{
+	/**
+	 * The bean that measures the allocated bytes of a thread, or null when the virtual machine has none.
+	 */
+	private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+	/**
+	 * Variable storing for every phase the number of calls, the total time, the largest time and the
+	 * allocated bytes, in the order in which the phases were first seen.
+	 */
+	private final Map<String, long[]> phases = new LinkedHashMap<>();
+
+	/**
+	 * Variables storing the totals of the searches.
+	 */
+	private long searches;
+	private long settledVertices;
+	private long pushes;
+	private long decreasedKeys;
+	private int peakQueueSize;
+	private long bufferBytes;
+
+	/**
+	 * Variable storing the number of filled pixels.
+	 */
+	private long filledPixels;
+
+	/**
+	 * Returns the number of bytes the current thread allocated since it started, or -1 when that is not measured.
+	 * @return The allocated bytes of the current thread.
+	 */
+	public static long allocatedBytes() {
+		return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : -1;
+	}
+
+	/**
+	 * Returns the bean that measures allocations, or null when it is not available.
+	 */
+	private static com.sun.management.ThreadMXBean threadBean() {
+		try {
+			java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (bean instanceof com.sun.management.ThreadMXBean
+					&& ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+				((com.sun.management.ThreadMXBean) bean).setThreadAllocatedMemoryEnabled(true);
+				return (com.sun.management.ThreadMXBean) bean;
+			}
+		} catch (LinkageError | UnsupportedOperationException e) {
+			//the virtual machine does not measure allocations
+		}
+		return null;
+	}
+
+	@Override
+	public synchronized void phaseFinished(String phase, long nanos, long allocatedBytes) {
+		long[] values = phases.computeIfAbsent(phase, name -> new long[4]);
+		values[0]++;
+		values[1] += nanos;
+		values[2] = Math.max(values[2], nanos);
+		values[3] += Math.max(0, allocatedBytes);
+	}
+
+	@Override
+	public synchronized void searchFinished(SeamSearch search) {
+		searches++;
+		settledVertices += search.getSettledVertices();
+		pushes += Math.max(0, search.getPushes());
+		decreasedKeys += Math.max(0, search.getDecreasedKeys());
+		peakQueueSize = Math.max(peakQueueSize, search.getPeakQueueSize());
+		bufferBytes += search.getBufferBytes();
+	}
+
+	@Override
+	public synchronized void fillFinished(long pixels) {
+		filledPixels += pixels;
+	}
+
+	/**
+	 * Returns the number of calls of the given phase.
+	 * @param phase The name of the phase.
+	 * @return The number of calls.
+	 */
+	public synchronized long getCalls(String phase) {
+		long[] values = phases.get(phase);
+		return values != null ? values[0] : 0;
+	}
+
+	/**
+	 * Returns the total wall time of the given phase.
+	 * @param phase The name of the phase.
+	 * @return The total time, in nanoseconds.
+	 */
+	public synchronized long getNanos(String phase) {
+		long[] values = phases.get(phase);
+		return values != null ? values[1] : 0;
+	}
+
+	@Override
+	public synchronized long getSearches() {
+		return searches;
+	}
+
+	@Override
+	public synchronized long getSettledVertices() {
+		return settledVertices;
+	}
+
+	@Override
+	public synchronized long getPushes() {
+		return pushes;
+	}
+
+	@Override
+	public synchronized long getDecreasedKeys() {
+		return decreasedKeys;
+	}
+
+	@Override
+	public synchronized int getPeakQueueSize() {
+		return peakQueueSize;
+	}
+
+	@Override
+	public synchronized long getFilledPixels() {
+		return filledPixels;
+	}
+
+	@Override
+	public synchronized long getBufferBytes() {
+		return bufferBytes;
+	}
+
+	@Override
+	public synchronized void reset() {
+		phases.clear();
+		searches = 0;
+		settledVertices = 0;
+		pushes = 0;
+		decreasedKeys = 0;
+		peakQueueSize = 0;
+		bufferBytes = 0;
+		filledPixels = 0;
+	}
+
+	@Override
+	public synchronized String getJson() {
+		StringBuilder json = new StringBuilder("{\n  \"phases\": {");
+		String separator = "\n";
+		for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+			long[] values = phase.getValue();
+			json.append(separator).append(String.format(Locale.ROOT,
+					"    \"%s\": {\"calls\": %d, \"totalMs\": %.3f, \"maxMs\": %.3f, \"allocatedBytes\": %d}",
+					phase.getKey(), values[0], values[1] / 1e6, values[2] / 1e6, values[3]));
+			separator = ",\n";
+		}
+		json.append(phases.isEmpty() ? "},\n" : "\n  },\n");
+		json.append("  \"searches\": ").append(searches).append(",\n");
+		json.append("  \"settledVertices\": ").append(settledVertices).append(",\n");
+		json.append("  \"pushes\": ").append(pushes).append(",\n");
+		json.append("  \"decreasedKeys\": ").append(decreasedKeys).append(",\n");
+		json.append("  \"peakQueueSize\": ").append(peakQueueSize).append(",\n");
+		json.append("  \"bufferBytes\": ").append(bufferBytes).append(",\n");
+		json.append("  \"filledPixels\": ").append(filledPixels).append("\n}\n");
+		return json.toString();
+	}
+
+	/**
+	 * Writes the metrics as JSON to the given file.
+	 * @param path The path of the file.
+	 * @throws IOException when the file cannot be written
+	 */
+	public void writeJson(String path) throws IOException {
+		try (Writer writer = new FileWriter(path)) {
+			writer.write(this.getJson());
+		}
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server, as gna:type=StitchMetrics,name=<name>.
+	 * @param name The name of the metrics.
+	 * @return The name of the MBean.
+	 * @throws IllegalStateException when the MBean cannot be registered, for example because the name is in use
+	 */
+	public ObjectName register(String name) {
+		try {
+			ObjectName objectName = new ObjectName("gna:type=StitchMetrics,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			return objectName;
+		} catch (JMException e) {
+			throw new IllegalStateException("Unable to register the metrics " + name, e);
+		}
+	}
+}
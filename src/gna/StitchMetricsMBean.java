@@ -0,0 +1,32 @@
+package gna;
+
+/**
+ * The management interface of StitchMetrics, so the metrics can be read with JMX, for example with jconsole.
+ */
+public interface StitchMetricsMBean
+{
+	long getSearches();
+
+	long getSettledVertices();
+
+	long getPushes();
+
+	long getDecreasedKeys();
+
+	int getPeakQueueSize();
+
+	long getFilledPixels();
+
+	long getBufferBytes();
+
+	/**
+	 * Returns all metrics, including the times of the phases, as JSON.
+	 * @return The metrics as JSON.
+	 */
+	String getJson();
+
+	/**
+	 * Sets all metrics back to zero.
+	 */
+	void reset();
+}
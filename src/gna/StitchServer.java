@@ -0,0 +1,644 @@
+package gna;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Composes pairs of images as a long-running service on a local HTTP endpoint, so a stitch does not pay for the
+ * startup and warm-up of a virtual machine. All requests share one Stitcher, whose code is compiled and whose
+ * workspaces are allocated by the first requests. The server only listens on the loopback address.
+ *
+ *   POST /stitch?offsetx=X&offsety=Y&image1=PATH&image2=PATH[&output=PATH]
+ *   POST /stitch?offsetx=X&offsety=Y[&output=PATH]   with both images in the body
+ *   GET  /status
+ *
+ * Without image paths the body holds both images, each as a 4-byte big-endian length followed by the bytes of
+ * an image file ImageIO can read. The result is returned as a PNG image, or written to the output file, in which
+ * case the reply is a JSON object with its dimensions. /status returns the counters of the server as JSON.
+ *
+ * Paths are only accepted when the server has a root directory: they are resolved against the root, and a path
+ * that leaves the root, also through a symbolic link, is refused. Requests with an Origin header come from a
+ * web page and are refused with 403 Forbidden, so a page cannot use the server of the machine it runs on.
+ *
+ * Every request is handled on a virtual thread when the virtual machine has them, on a thread of a cached pool
+ * otherwise. At most maxInFlight requests are composed at the same time; a request that does not get a slot
+ * within the wait time is refused with 503 Service Unavailable and a Retry-After header. A body larger than
+ * getMaxBodyBytes and an image with more than getMaxPixels pixels, the result included, are refused with
+ * 413 Payload Too Large before they are read, so the memory of the requests in flight stays bounded.
+ * Invalid requests get 400 Bad Request, failures of the server itself, like an output file that cannot be
+ * written, 500 Internal Server Error.
+ */
+public class StitchServer
+{
+	/**
+	 * Variable storing the HTTP server.
+	 */
+	private final HttpServer server;
+
+	/**
+	 * Variable storing the executor that handles the requests.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Variable storing the slots of the requests that are composed at the same time.
+	 */
+	private final Semaphore slots;
+
+	/**
+	 * Variable storing the maximal number of requests that are composed at the same time.
+	 */
+	private final int maxInFlight;
+
+	/**
+	 * Variable storing how long a request waits for a slot, in milliseconds.
+	 */
+	private final long waitMillis;
+
+	/**
+	 * The default largest body of a request, in bytes.
+	 */
+	public static final long DEFAULT_MAX_BODY_BYTES = 64L << 20;
+
+	/**
+	 * The default largest number of pixels of an image of a request.
+	 */
+	public static final long DEFAULT_MAX_PIXELS = 16L << 20;
+
+	/**
+	 * Variable storing the directory the paths of the requests are resolved against, or null when paths are refused.
+	 */
+	private final Path root;
+
+	/**
+	 * Variable storing the largest body of a request, in bytes.
+	 */
+	private volatile long maxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+
+	/**
+	 * Variable storing the largest number of pixels of an image of a request.
+	 */
+	private volatile long maxPixels = DEFAULT_MAX_PIXELS;
+
+	/**
+	 * Variable storing the stitcher of all requests.
+	 */
+	private final Stitcher stitcher = new Stitcher();
+
+	/**
+	 * Variables storing the number of composed, refused and failed requests.
+	 */
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * Creates a server that only accepts images in the body, see StitchServer(int, int, long, Path).
+	 */
+	public StitchServer(int port, int maxInFlight, long waitMillis) throws IOException {
+		this(port, maxInFlight, waitMillis, null);
+	}
+
+	/**
+	 * Creates a server on the given port of the loopback address, the server does not run until start is called.
+	 * @param port        The port, or 0 for a free port.
+	 * @param maxInFlight The maximal number of requests that are composed at the same time.
+	 * @param waitMillis  How long a request waits for a slot before it is refused, in milliseconds.
+	 * @param root        The directory the paths of the requests are resolved against, or null to refuse paths.
+	 * @throws IOException when the port cannot be bound or the root does not exist
+	 * @throws IllegalArgumentException when the port is invalid, maxInFlight is not positive or waitMillis is negative
+	 *                                  | port < 0 || port > 65535 || maxInFlight <= 0 || waitMillis < 0
+	 */
+	public StitchServer(int port, int maxInFlight, long waitMillis, Path root) throws IOException {
+		if (port < 0 || port > 65535 || maxInFlight <= 0 || waitMillis < 0) {
+			throw new IllegalArgumentException("The port must be valid, maxInFlight positive and waitMillis not negative.");
+		}
+		this.root = root != null ? root.toRealPath() : null;
+		this.maxInFlight = maxInFlight;
+		this.waitMillis = waitMillis;
+		this.slots = new Semaphore(maxInFlight, true);
+		this.executor = newRequestExecutor();
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.setExecutor(executor);
+		server.createContext("/stitch", this::handleStitch);
+		server.createContext("/status", this::handleStatus);
+	}
+
+	/**
+	 * Returns an executor that starts a virtual thread per request, or a cached pool of platform threads when
+	 * the virtual machine has no virtual threads. The method is looked up at run time, so the server also
+	 * compiles and runs on versions before Java 21.
+	 */
+	static ExecutorService newRequestExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (ReflectiveOperationException | UnsupportedOperationException e) {
+			//the number of requests in flight is bounded by the slots, not by the threads
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/**
+	 * Starts the server.
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops the server, the requests that are being handled get at most the given time to finish.
+	 * @param delaySeconds The time the requests get to finish, in seconds.
+	 */
+	public void stop(int delaySeconds) {
+		server.stop(delaySeconds);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Returns the port the server listens on.
+	 * @return The port.
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Returns the stitcher of all requests, for example to set its seam mode or listener.
+	 * @return The stitcher.
+	 */
+	public Stitcher getStitcher() {
+		return stitcher;
+	}
+
+	/**
+	 * Returns the directory the paths of the requests are resolved against.
+	 * @return The root, or null when paths are refused.
+	 */
+	public Path getRoot() {
+		return root;
+	}
+
+	/**
+	 * Returns the largest body of a request.
+	 * @return The largest body, in bytes.
+	 */
+	public long getMaxBodyBytes() {
+		return maxBodyBytes;
+	}
+
+	/**
+	 * Sets the largest body of a request, a larger body is refused with 413.
+	 * @param maxBodyBytes The largest body, in bytes.
+	 * @throws IllegalArgumentException when the limit is not positive
+	 *                                  | maxBodyBytes <= 0
+	 * @post The maxBodyBytes is set to the given parameter
+	 *       | new.getMaxBodyBytes() == maxBodyBytes
+	 */
+	public void setMaxBodyBytes(long maxBodyBytes) {
+		if (maxBodyBytes <= 0) {
+			throw new IllegalArgumentException("The largest body must be positive.");
+		}
+		this.maxBodyBytes = maxBodyBytes;
+	}
+
+	/**
+	 * Returns the largest number of pixels of an image of a request.
+	 * @return The largest number of pixels.
+	 */
+	public long getMaxPixels() {
+		return maxPixels;
+	}
+
+	/**
+	 * Sets the largest number of pixels of an image of a request, the inputs and the result. A request with a larger
+	 * image is refused with 413.
+	 * @param maxPixels The largest number of pixels.
+	 * @throws IllegalArgumentException when the limit is not positive
+	 *                                  | maxPixels <= 0
+	 * @post The maxPixels is set to the given parameter
+	 *       | new.getMaxPixels() == maxPixels
+	 */
+	public void setMaxPixels(long maxPixels) {
+		if (maxPixels <= 0) {
+			throw new IllegalArgumentException("The largest number of pixels must be positive.");
+		}
+		this.maxPixels = maxPixels;
+	}
+
+	/**
+	 * Returns the number of requests that are composed now.
+	 * @return The number of requests in flight.
+	 */
+	public int getInFlight() {
+		return maxInFlight - slots.availablePermits();
+	}
+
+	/**
+	 * Returns the number of requests that were composed.
+	 * @return The number of completed requests.
+	 */
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	/**
+	 * Returns the number of requests that were refused because all slots were taken.
+	 * @return The number of rejected requests.
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * Returns the number of requests that were invalid or could not be composed.
+	 * @return The number of failed requests.
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * Composes the images of a stitch request, after taking a slot. The slot is taken before the body is read,
+	 * so the bodies of refused requests are never buffered, and it is released before the reply is sent.
+	 */
+	private void handleStitch(HttpExchange exchange) throws IOException {
+		try {
+			if (!exchange.getRequestMethod().equals("POST")) {
+				this.reply(exchange, new Reply(405, "Use POST."));
+				return;
+			}
+			if (exchange.getRequestHeaders().containsKey("Origin")) {
+				this.reply(exchange, new Reply(403, "Requests from web pages are not accepted."));
+				return;
+			}
+			boolean acquired;
+			try {
+				acquired = slots.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if (!acquired) {
+				rejected.incrementAndGet();
+				exchange.getResponseHeaders().set("Retry-After", "1");
+				this.reply(exchange, new Reply(503, "Too many requests in flight."));
+				return;
+			}
+			Reply reply;
+			try {
+				reply = this.stitch(exchange);
+				completed.incrementAndGet();
+			} catch (TooLargeException e) {
+				failed.incrementAndGet();
+				reply = new Reply(413, message(e));
+			} catch (IllegalArgumentException e) {
+				failed.incrementAndGet();
+				reply = new Reply(400, message(e));
+			} catch (IOException e) {
+				failed.incrementAndGet();
+				reply = new Reply(500, message(e));
+			} finally {
+				slots.release();
+			}
+			this.reply(exchange, reply);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Returns the message of the exception, or its type when it has none.
+	 */
+	private static String message(Exception e) {
+		return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+	}
+
+	/**
+	 * Composes the images of the request and returns the reply with the result.
+	 * @throws TooLargeException when the body or an image exceeds a limit
+	 * @throws IllegalArgumentException when a parameter is missing or invalid, an input cannot be read, the body
+	 *                                  is malformed, or the images do not overlap
+	 * @throws IOException when the output cannot be written
+	 */
+	private Reply stitch(HttpExchange exchange) throws IOException {
+		Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+		int offsetx = parseInt(query, "offsetx");
+		int offsety = parseInt(query, "offsety");
+		Path output = query.containsKey("output") ? this.resolve(query.get("output"), true) : null;
+		PixelSource image1 = null;
+		PixelSource image2 = null;
+		try {
+			if (query.containsKey("image1") || query.containsKey("image2")) {
+				if (!query.containsKey("image1") || !query.containsKey("image2")) {
+					throw new IllegalArgumentException("Both image1 and image2 are needed.");
+				}
+				image1 = this.open(query.get("image1"));
+				image2 = this.open(query.get("image2"));
+			} else {
+				String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+				if (contentLength != null && parseLong(contentLength) > this.getMaxBodyBytes()) {
+					throw new TooLargeException("The body is larger than " + this.getMaxBodyBytes() + " bytes.");
+				}
+				DataInputStream body = new DataInputStream(exchange.getRequestBody());
+				long[] remaining = {this.getMaxBodyBytes()};
+				image1 = PixelSource.of(this.readImage(body, remaining));
+				image2 = PixelSource.of(this.readImage(body, remaining));
+			}
+			int width = StreamingCompositor.getResultWidth(image1.getWidth(), image2.getWidth(), offsetx);
+			int height = StreamingCompositor.getResultHeight(image1.getHeight(), image2.getHeight(), offsety);
+			this.checkPixels(width, height);
+			StreamingCompositor compositor = new StreamingCompositor(StreamingCompositor.DEFAULT_BAND_HEIGHT, stitcher);
+			if (output != null) {
+				try (PixelSink sink = PixelSink.create(output.toString(), width, height)) {
+					compositor.composite(image1, image2, offsetx, offsety, sink);
+				}
+				return new Reply(200, "application/json", String.format("{\"width\": %d, \"height\": %d}%n",
+						width, height).getBytes(StandardCharsets.UTF_8));
+			}
+			//the PNG is buffered, so a failure can still be reported with an error status
+			ByteArrayOutputStream png = new ByteArrayOutputStream();
+			try (PngWriter sink = new PngWriter(png, width, height)) {
+				compositor.composite(image1, image2, offsetx, offsety, sink);
+			}
+			return new Reply(200, "image/png", png.toByteArray());
+		} finally {
+			if (image1 != null) {
+				image1.close();
+			}
+			if (image2 != null) {
+				image2.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns the given path of a request resolved against the root, the real path of an input and the path in the
+	 * real parent directory of an output.
+	 * @throws IllegalArgumentException when the server has no root, the path leaves the root, or the file or the
+	 *                                  directory of the output does not exist
+	 */
+	private Path resolve(String path, boolean output) {
+		if (root == null) {
+			throw new IllegalArgumentException("This server does not accept paths, send the images in the body.");
+		}
+		try {
+			Path resolved = root.resolve(path).normalize();
+			if (resolved.startsWith(root)) {
+				if (!output) {
+					resolved = resolved.toRealPath();
+				} else if (resolved.getParent() != null && resolved.getFileName() != null) {
+					resolved = resolved.getParent().toRealPath().resolve(resolved.getFileName());
+					if (Files.isSymbolicLink(resolved) || Files.isDirectory(resolved)) {
+						throw new IllegalArgumentException("The output " + path + " is not a regular file.");
+					}
+				}
+				//a symbolic link may point out of the root
+				if (resolved.startsWith(root) && !resolved.equals(root)) {
+					return resolved;
+				}
+			}
+		} catch (InvalidPathException | IOException e) {
+			throw new IllegalArgumentException("The path " + path + " does not exist.");
+		}
+		throw new IllegalArgumentException("The path " + path + " is outside the root of the server.");
+	}
+
+	/**
+	 * Opens the given input path of a request and checks its number of pixels.
+	 * @throws IllegalArgumentException when the path is refused or the image cannot be read
+	 * @throws TooLargeException when the image has too many pixels
+	 */
+	private PixelSource open(String path) {
+		PixelSource source;
+		try {
+			source = PixelSource.open(this.resolve(path, false).toString());
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Unable to read " + path + ": " + message(e));
+		}
+		try {
+			this.checkPixels(source.getWidth(), source.getHeight());
+			return source;
+		} catch (RuntimeException e) {
+			try {
+				source.close();
+			} catch (IOException closeFailure) {
+				e.addSuppressed(closeFailure);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Checks the number of pixels of an image against the limit.
+	 * @throws TooLargeException when the image has more than getMaxPixels pixels
+	 */
+	private void checkPixels(int width, int height) {
+		if ((long) width * height > this.getMaxPixels()) {
+			throw new TooLargeException("An image of " + width + "x" + height + " has more than " + this.getMaxPixels()
+					+ " pixels.");
+		}
+	}
+
+	/**
+	 * Reads one image of the body: a 4-byte big-endian length and the bytes of an image file. The dimensions
+	 * are checked after the header of the image is read, before its pixels are decoded.
+	 * @param body      The body of the request.
+	 * @param remaining The number of bytes the body may still hold, decreased by the bytes of the image.
+	 * @throws IllegalArgumentException when the body is malformed or holds no image ImageIO can read
+	 * @throws TooLargeException when the image does not fit in the remaining bytes or has too many pixels
+	 * @throws IOException when the body cannot be read
+	 */
+	private int[][] readImage(DataInputStream body, long[] remaining) throws IOException {
+		byte[] bytes;
+		try {
+			int length = body.readInt();
+			if (length <= 0) {
+				throw new IllegalArgumentException("Invalid image length " + length + ".");
+			}
+			remaining[0] -= 4L + length;
+			if (remaining[0] < 0) {
+				throw new TooLargeException("The body is larger than " + this.getMaxBodyBytes() + " bytes.");
+			}
+			bytes = new byte[length];
+			body.readFully(bytes);
+		} catch (EOFException e) {
+			throw new IllegalArgumentException("The body ends before both images are read.");
+		}
+		try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes))) {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+			if (!readers.hasNext()) {
+				throw new IllegalArgumentException("Unsupported image format.");
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(stream);
+				this.checkPixels(reader.getWidth(0), reader.getHeight(0));
+				BufferedImage image = reader.read(0);
+				int[][] pixels = new int[image.getHeight()][image.getWidth()];
+				for (int y = 0; y < pixels.length; y++) {
+					image.getRGB(0, y, pixels[y].length, 1, pixels[y], 0, pixels[y].length);
+				}
+				return pixels;
+			} catch (IOException e) {
+				//the bytes are in memory, so a failure to read them is a malformed image
+				throw new IllegalArgumentException("Unable to decode an image: " + message(e));
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Sends the counters of the server as JSON.
+	 */
+	private void handleStatus(HttpExchange exchange) throws IOException {
+		try {
+			String json = String.format("{\"inFlight\": %d, \"maxInFlight\": %d, \"completed\": %d, \"rejected\": %d, "
+					+ "\"failed\": %d}%n", this.getInFlight(), maxInFlight, this.getCompleted(), this.getRejected(),
+					this.getFailed());
+			this.reply(exchange, new Reply(200, "application/json", json.getBytes(StandardCharsets.UTF_8)));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Sends the given reply.
+	 */
+	private void reply(HttpExchange exchange, Reply reply) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", reply.contentType);
+		exchange.sendResponseHeaders(reply.status, reply.body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(reply.body);
+		}
+	}
+
+	/**
+	 * Returns the parameters of the query string.
+	 */
+	private static Map<String, String> parseQuery(String query) {
+		Map<String, String> parameters = new HashMap<>();
+		if (query == null) {
+			return parameters;
+		}
+		for (String parameter : query.split("&")) {
+			int equals = parameter.indexOf('=');
+			if (equals > 0) {
+				parameters.put(URLDecoder.decode(parameter.substring(0, equals), StandardCharsets.UTF_8),
+						URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+			}
+		}
+		return parameters;
+	}
+
+	/**
+	 * Returns the value of a header as a long.
+	 * @throws IllegalArgumentException when the value is not an integer
+	 */
+	private static long parseLong(String value) {
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid Content-Length " + value + ".");
+		}
+	}
+
+	/**
+	 * Returns the integer parameter with the given name.
+	 * @throws IllegalArgumentException when the parameter is missing or not an integer
+	 */
+	private static int parseInt(Map<String, String> query, String name) {
+		String value = query.get(name);
+		if (value == null) {
+			throw new IllegalArgumentException("The parameter " + name + " is missing.");
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("The parameter " + name + " must be an integer.");
+		}
+	}
+
+	/**
+	 * Runs the server until the virtual machine is stopped. An optional args[0] sets the port, 8080 by default,
+	 * args[1] the maximal number of requests in flight, twice the number of cores by default, and args[2] how
+	 * long a request waits for a slot in milliseconds, 1000 by default. An optional args[3] is the root directory
+	 * of the paths of the requests; without it only images in the body are accepted.
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		int maxInFlight = args.length > 1 ? Integer.parseInt(args[1]) : 2 * Runtime.getRuntime().availableProcessors();
+		long waitMillis = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+		Path root = args.length > 3 && !args[3].isEmpty() ? Paths.get(args[3]) : null;
+		StitchServer server = new StitchServer(port, maxInFlight, waitMillis, root);
+		server.start();
+		System.out.printf("StitchServer listening on http://%s:%d/stitch, %d requests in flight, %s%n",
+				InetAddress.getLoopbackAddress().getHostAddress(), server.getPort(), maxInFlight,
+				root != null ? "paths in " + server.getRoot() : "images in the body only");
+	}
+
+	/**
+	 * A reply to a request.
+	 */
+	private static class Reply
+	{
+		private final int status;
+		private final String contentType;
+		private final byte[] body;
+
+		private Reply(int status, String contentType, byte[] body) {
+			this.status = status;
+			this.contentType = contentType;
+			this.body = body;
+		}
+
+		/**
+		 * Creates a plain text reply with the given message.
+		 */
+		private Reply(int status, String message) {
+			this(status, "text/plain", (message + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Thrown when the body or an image of a request exceeds a limit of the server.
+	 */
+	private static class TooLargeException extends IllegalArgumentException
+	{
+		private static final long serialVersionUID = 1L;
+
+		private TooLargeException(String message) {
+			super(message);
+		}
+	}
+}
@@ -1,42 +1,95 @@
 package gna;
 
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.PriorityQueue;
-import java.util.Stack;
+import java.util.concurrent.ConcurrentLinkedDeque;
 
 import libpract.*;
 
 /**
  * Implement the methods stitch, seam and floodfill.
+ *
+ * A Stitcher only stores its configuration: the state of every search lives in a SeamSearch that belongs to that
+ * call. One Stitcher can therefore be shared by any number of threads, platform or virtual, once it is configured.
+ * The buffers of the searches come from a pool of workspaces: a call takes an idle workspace, or creates one when
+ * all of them are in use, and gives it back when it is finished. The pool keeps at most getMaxPooledWorkspaces
+ * idle workspaces, and a workspace that holds more than getMaxPooledWorkspaceBytes is dropped instead of kept, so
+ * the pool never retains more than getMaxPooledBytes.
  */
 public class Stitcher
 {
 	/**
-	 * Variable storing the positions used by Dijkstra to find the shortest path.
+	 * The x-offsets of the eight neighbors of a vertex, the first four are the basic neighbors.
 	 */
-	private PriorityQueue<Position> positionPQ;
+	private static final int[] NEIGHBOR_DX = {-1, 1, 0, 0, -1, -1, 1, 1};
 	
 	/**
-	 * Variable storing the width of the image.
+	 * The y-offsets of the eight neighbors of a vertex, matching NEIGHBOR_DX.
 	 */
-	private int width;
+	private static final int[] NEIGHBOR_DY = {0, 0, -1, 1, -1, 1, -1, 1};
 	
 	/**
-	 * Variable storing the height of the image.
+	 * Variable storing the algorithm used to calculate the seam.
 	 */
-	private int height;
+	private volatile SeamMode seamMode;
 	
 	/**
-	 * Variable storing the currently shortest distances to the vertices (used by Dijkstra).
+	 * Variable storing the function that calculates the cost of the pixels.
 	 */
-	private double[][] distTo;
+	private volatile CostFunction costFunction = CostFunction.SQUARED_DISTANCE;
 	
 	/**
-	 * Variable storing the 2D array of positions. For every already calculated vertex there is a previous vertex to reach the one on the position. 
+	 * Variable storing the algorithm used to fill the mask.
 	 */
-	private Position[][] previousVertex;
+	private volatile FillMode fillMode = FillMode.SCANLINE;
+	
+	/**
+	 * Variable storing the cache of seams, or null when seams are not cached.
+	 */
+	private volatile SeamCache seamCache;
+	
+	/**
+	 * Variable storing the listener that receives the measurements, or null when nothing is measured.
+	 */
+	private volatile StitchListener listener;
+	
+	/**
+	 * Variable storing the number of columns on each side of the diagonal the seam may visit, or -1 for all pixels.
+	 */
+	private volatile int bandWidth = -1;
+	
+	/**
+	 * Variable storing the workspaces that are not used by a search, the most recently used first.
+	 */
+	private final ConcurrentLinkedDeque<SeamWorkspace> workspaces = new ConcurrentLinkedDeque<>();
+	
+	/**
+	 * Variable storing the largest number of idle workspaces the pool keeps.
+	 */
+	private volatile int maxPooledWorkspaces = Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * Variable storing the largest number of bytes an idle workspace of the pool may hold.
+	 */
+	private volatile long maxPooledWorkspaceBytes = 64L << 20;
+	
+	/**
+	 * Creates a Stitcher that calculates seams with Dijkstra's algorithm.
+	 */
+	public Stitcher() {
+		this(SeamMode.DIJKSTRA);
+	}
+	
+	/**
+	 * Creates a Stitcher that calculates seams with the given algorithm.
+	 * @param seamMode The algorithm used to calculate the seam.
+	 * @throws IllegalArgumentException when the seamMode equals null
+	 *                                  | seamMode == null
+	 */
+	public Stitcher(SeamMode seamMode) {
+		this.setSeamMode(seamMode);
+	}
 	
 	/**
 	 * Return the sequence of positions on the seam. The first position in the
@@ -45,7 +98,7 @@ public class Stitcher
 	 * Positions that are diagonally adjacent are considered adjacent.
 	 * 
 	 * image1 and image2 are both non-null and have equal dimensions.
-	 *
+	 * 
 	 * Remark: Here we use the default computer graphics coordinate system,
 	 *   illustrated in the following image:
 	 * 
@@ -64,114 +117,788 @@ public class Stitcher
 	 *   convention also means that, when an automated test mentioned that it used the array
 	 *   {{A,B},{C,D}} as a test image, this corresponds to the image layout as shown in
 	 *   the illustration above.
-	 *      
+	 * 
 	 */
 	public List<Position> seam(int[][] image1, int[][] image2) {
-		this.setHeight(image1.length);
-		this.setWidth(image1[0].length);
+		return this.search(image1, image2).getSeam();
+	}
+	
+	/**
+	 * Return the sequence of positions on the seam with the smallest total cost in the given cost map.
+	 * See seam(int[][], int[][]) for the properties of the seam.
+	 * @param costMap The costs of the pixels.
+	 * @return The sequence of positions on the seam.
+	 */
+	public List<Position> seam(CostMap costMap) {
+		return this.search(costMap).getSeam();
+	}
+	
+	/**
+	 * Searches the seam of both images, see seam(int[][], int[][]).
+	 * @param image1 The values of image 1.
+	 * @param image2 The values of image 2, with the same dimensions as image1.
+	 * @return The finished search, with the seam, its cost and the number of settled vertices.
+	 */
+	public SeamSearch search(int[][] image1, int[][] image2) {
+		SeamWorkspace workspace = this.takeWorkspace();
+		try {
+			int bandWidth = this.getBandWidth();
+			if (bandWidth >= 0) {
+				return this.searchBand(ImageView.of(image1), ImageView.of(image2), bandWidth, workspace);
+			}
+			StitchListener listener = this.getListener();
+			if (listener == null) {
+				return this.search(this.getCostMap(image1, image2, workspace), workspace);
+			}
+			long start = System.nanoTime();
+			long allocated = StitchMetrics.allocatedBytes();
+			CostMap costMap = this.getCostMap(image1, image2, workspace);
+			listener.phaseFinished("cost", System.nanoTime() - start, StitchMetrics.allocatedBytes() - allocated);
+			return this.search(costMap, workspace);
+		} finally {
+			this.returnWorkspace(workspace);
+		}
+	}
+	
+	/**
+	 * Searches the seam between the given corners of two views. The pixels are read through the views, so
+	 * the overlap of two images is stitched without copying it. For BOTTOM_LEFT_TO_TOP_RIGHT the seam is
+	 * calculated on the mirrored views and the positions of the seam are mirrored back: the seam runs from the
+	 * lower left to the upper right corner of the views.
+	 * @param image1  The view of image 1.
+	 * @param image2  The view of image 2, with the same dimensions as image1.
+	 * @param corners The corners the seam connects.
+	 * @return The finished search, with the seam, its cost and the number of settled vertices.
+	 * @throws IllegalArgumentException when the corners equal null
+	 *                                  | corners == null
+	 */
+	public SeamSearch search(ImageView image1, ImageView image2, SeamCorners corners) {
+		SeamSearch search = this.searchViews(image1, image2, corners);
+		if (corners == SeamCorners.BOTTOM_LEFT_TO_TOP_RIGHT) {
+			search.mirror();
+		}
+		return search;
+	}
+	
+	/**
+	 * Searches the seam from the upper left to the lower right corner of the views, mirrored when the seam
+	 * connects the lower left and the upper right corner. The seam of the search is not mirrored back.
+	 */
+	private SeamSearch searchViews(ImageView image1, ImageView image2, SeamCorners corners) {
+		if (corners == null) {
+			throw new IllegalArgumentException("The corners cannot be null.");
+		}
+		if (corners == SeamCorners.BOTTOM_LEFT_TO_TOP_RIGHT) {
+			image1 = image1.mirrored();
+			image2 = image2.mirrored();
+		}
+		SeamWorkspace workspace = this.takeWorkspace();
+		try {
+			int bandWidth = this.getBandWidth();
+			if (bandWidth >= 0) {
+				return this.searchBand(image1, image2, bandWidth, workspace);
+			}
+			StitchListener listener = this.getListener();
+			if (listener == null) {
+				return this.search(this.getCostMap(image1, image2, workspace), workspace);
+			}
+			long start = System.nanoTime();
+			long allocated = StitchMetrics.allocatedBytes();
+			CostMap costMap = this.getCostMap(image1, image2, workspace);
+			listener.phaseFinished("cost", System.nanoTime() - start, StitchMetrics.allocatedBytes() - allocated);
+			return this.search(costMap, workspace);
+		} finally {
+			this.returnWorkspace(workspace);
+		}
+	}
+	
+	/**
+	 * Searches the seam of both views in the diagonal corridor of the given band width. Only the costs of the
+	 * pixels of the corridor are calculated, into a buffer with one element per pixel of the corridor, so the
+	 * time and the memory of the search scale with the corridor instead of the overlap.
+	 */
+	private SeamSearch searchBand(ImageView image1, ImageView image2, int bandWidth, SeamWorkspace workspace) {
+		StitchListener listener = this.getListener();
+		long start = listener != null ? System.nanoTime() : 0;
+		long allocated = listener != null ? StitchMetrics.allocatedBytes() : 0;
+		int height = image1.getHeight();
+		int width = image1.getWidth();
+		SeamCorridor corridor = SeamCorridor.diagonal(height, width, bandWidth);
+		CostFunction costFunction = this.getCostFunction();
+		int[] costs = workspace.costs(corridor.size());
+		for (int y = 0; y < height; y++) {
+			costFunction.computeSpan(image1, image2, y, corridor.getFirst(y), corridor.getLast(y), costs,
+					corridor.getOffset(y));
+		}
+		int maxCost = 0;
+		for (int i = 0; i < corridor.size(); i++) {
+			if (costs[i] < 0) {
+				throw new IllegalArgumentException("The cost of a pixel cannot be negative.");
+			}
+			maxCost = Math.max(maxCost, costs[i]);
+		}
+		if (listener != null) {
+			listener.phaseFinished("cost", System.nanoTime() - start, StitchMetrics.allocatedBytes() - allocated);
+			start = System.nanoTime();
+			allocated = StitchMetrics.allocatedBytes();
+		}
+		SeamSearch search = new SeamSearch(height, width);
+		this.searchCorridor(search, corridor, costs, true, maxCost, this.getSeamMode(), workspace);
+		if (listener != null) {
+			listener.phaseFinished("seam", System.nanoTime() - start, StitchMetrics.allocatedBytes() - allocated);
+			listener.searchFinished(search);
+		}
+		return search;
+	}
+	
+	/**
+	 * Searches the seam with the smallest total cost in the given cost map, with a workspace of the pool.
+	 * @param costMap The costs of the pixels.
+	 * @return The finished search, with the seam, its cost and the number of settled vertices.
+	 */
+	public SeamSearch search(CostMap costMap) {
+		SeamWorkspace workspace = this.takeWorkspace();
+		try {
+			return this.search(costMap, workspace);
+		} finally {
+			this.returnWorkspace(workspace);
+		}
+	}
+	
+	/**
+	 * Searches the seam with the smallest total cost in the given cost map, with the buffers of the given workspace.
+	 * When the seam is found in the seam cache no search is performed.
+	 * @param costMap   The costs of the pixels.
+	 * @param workspace The buffers of the search, it must not be used by another search at the same time.
+	 * @return The finished search, with the seam, its cost and the number of settled vertices.
+	 */
+	public SeamSearch search(CostMap costMap, SeamWorkspace workspace) {
+		return this.search(costMap, null, workspace);
+	}
+	
+	/**
+	 * Searches the seam with the smallest total cost that only visits the pixels of the given corridor.
+	 * The storage of the search has one element per pixel of the corridor, pixels outside it are never visited.
+	 * The seam cache is not used. When the corridor does not contain a seam, the search has no seam: hasSeam()
+	 * returns false and getSeam() an empty list.
+	 * @param costMap  The costs of the pixels.
+	 * @param corridor The pixels the seam may visit, with the dimensions of the cost map.
+	 * @return The finished search.
+	 * @throws IllegalArgumentException when the dimensions of the corridor differ from the cost map
+	 *                                  | corridor.getHeight() != costMap.getHeight() || corridor.getWidth() != costMap.getWidth()
+	 */
+	public SeamSearch search(CostMap costMap, SeamCorridor corridor) {
+		if (corridor.getHeight() != costMap.getHeight() || corridor.getWidth() != costMap.getWidth()) {
+			throw new IllegalArgumentException("The corridor has other dimensions than the cost map.");
+		}
+		SeamWorkspace workspace = this.takeWorkspace();
+		try {
+			return this.search(costMap, corridor, workspace);
+		} finally {
+			this.returnWorkspace(workspace);
+		}
+	}
+	
+	/**
+	 * Searches the seam in the given corridor, or with the band width of the Stitcher when it is null,
+	 * and reports the search to the listener.
+	 */
+	private SeamSearch search(CostMap costMap, SeamCorridor corridor, SeamWorkspace workspace) {
+		StitchListener listener = this.getListener();
+		if (listener == null) {
+			return this.performSearch(costMap, corridor, workspace);
+		}
+		long start = System.nanoTime();
+		long allocated = StitchMetrics.allocatedBytes();
+		SeamSearch search = this.performSearch(costMap, corridor, workspace);
+		listener.phaseFinished("seam", System.nanoTime() - start, StitchMetrics.allocatedBytes() - allocated);
+		listener.searchFinished(search);
+		return search;
+	}
+	
+	/**
+	 * Searches the seam, see search(CostMap, SeamWorkspace) and search(CostMap, SeamCorridor).
+	 */
+	private SeamSearch performSearch(CostMap costMap, SeamCorridor corridor, SeamWorkspace workspace) {
+		//read the configuration once, another thread may change it during the search
+		SeamMode seamMode = this.getSeamMode();
+		SeamCache seamCache = this.getSeamCache();
+		int bandWidth = this.getBandWidth();
+		SeamSearch search = new SeamSearch(costMap);
+		if (corridor == null && bandWidth >= 0) {
+			corridor = SeamCorridor.diagonal(costMap.getHeight(), costMap.getWidth(), bandWidth);
+		}
+		if (corridor != null) {
+			this.searchCorridor(search, corridor, costMap.getCosts(), false, costMap.getMaxCost(), seamMode, workspace);
+			return search;
+		}
 		
-		this.setPositionPQ(new PriorityQueue<Position>(this.getPositionComparator()));
-		this.setDistTo(new double[this.getHeight()][this.getWidth()]);
-		this.setPreviousVertex(new Position[this.getHeight()][this.getWidth()]);
+		SeamCache.Key key = null;
+		if (seamCache != null) {
+			key = SeamCache.key(costMap, seamMode);
+			List<Position> cached = seamCache.get(key);
+			if (cached != null) {
+				long cost = 0;
+				for (Position position : cached.subList(1, cached.size())) {
+					cost += costMap.getCost(position.getY(), position.getX());
+				}
+				search.finish(cached, cost, 0);
+				return search;
+			}
+		}
 		
-		this.performDijkstra(image1, image2);
+		search.start(workspace, costMap.getHeight() * costMap.getWidth(), 0);
+		int settled;
+		switch (seamMode) {
+		case DIAL:
+			//a cost too large for the buckets is searched with the heap, which finds a seam of the same cost
+			settled = BucketQueue.supports(costMap.getHeight() * costMap.getWidth(), costMap.getMaxCost())
+					? this.performDial(search) : this.performDijkstra(search);
+			break;
+		case ASTAR:
+			settled = this.performAStar(search);
+			break;
+		case PARALLEL:
+			DeltaSteppingSolver solver = new DeltaSteppingSolver(costMap);
+			solver.solve(search.getDistTo(), search.getPreviousVertex());
+			settled = solver.getSettledVertices();
+			break;
+		case PYRAMID:
+			PyramidSeamSolver pyramid = new PyramidSeamSolver(costMap);
+			pyramid.solve(search.getDistTo(), search.getPreviousVertex());
+			settled = pyramid.getSettledVertices();
+			break;
+		case BIDIRECTIONAL:
+			settled = this.performBidirectionalDijkstra(search);
+			break;
+		default:
+			settled = this.performDijkstra(search);
+		}
 		
-		return this.getShortestPathSolution();
+		List<Position> seam = this.getShortestPathSolution(search);
+		search.finish(seam, search.getDistTo()[search.getVertices() - 1], settled);
+		if (key != null && seam != null) {
+			seamCache.put(key, seam);
+		}
+		return search;
 	}
 	
 	/**
 	 * Performs the Dijkstra algorithm to calculate the shortest path from the upper left corner to the bottom right corner.
-	 * @param image1 The values of image 1.
-	 * @param image2 The values of image 2.
+	 * No objects are allocated during the search: vertices are indices in the flat arrays.
+	 * @param search The state of the search.
+	 * @return The number of settled vertices.
 	 */
-	private void performDijkstra(int[][] image1, int[][] image2) {
-		// all nodes except the start node are initialised to zero.
-		for (int h = 0; h < this.getHeight(); h++) {
-			for (int w = 0; w < this.getWidth(); w++) {
-				this.setDistoValue(h, w, Double.POSITIVE_INFINITY);
+	private int performDijkstra(SeamSearch search) {
+		int[] costs = search.getCostMap().getCosts();
+		int width = search.getWidth();
+		int height = search.getHeight();
+		long[] distTo = search.getDistTo();
+		int[] previousVertex = search.getPreviousVertex();
+		IndexMinPQ positionPQ = search.getWorkspace().queue(height * width);
+		
+		//Dijkstra calculation and stops when the shortest path to the destination is reached
+		int target = height * width - 1;
+		int current = 0;
+		int settled = 1;
+		while (current != target) {
+			int y = current / width;
+			int x = current - y * width;
+			for (int k = 0; k < NEIGHBOR_DX.length; k++) {
+				int ny = y + NEIGHBOR_DY[k];
+				int nx = x + NEIGHBOR_DX[k];
+				if (ny < 0 || ny >= height || nx < 0 || nx >= width) {
+					continue;
+				}
+				int neighbor = ny * width + nx;
+				long calcDistance = distTo[current] + costs[neighbor];
+				if (calcDistance < distTo[neighbor]) {
+					distTo[neighbor] = calcDistance;
+					previousVertex[neighbor] = current;
+					//decrease-key when the neighbor is already queued, instead of a linear remove
+					positionPQ.insertOrDecrease(neighbor, calcDistance);
+				}
 			}
+			current = positionPQ.delMin();
+			settled++;
 		}
-		this.setDistoValue(0, 0, 0);
-
-		//Dijkstra calculation and stops when the shortest path to the destination is reached
-		Position currentPosition = new Position(0, 0);
-		this.getPositionPQ().add(currentPosition);
-		while (!currentPosition.equals(this.getTargetPosition())) {
-			for (Position neighbor : this.getPossibleNeighbors(currentPosition)) {
-				double calcDistance = this.getDistTo()[currentPosition.getY()][currentPosition.getX()]
-						+ ImageCompositor.pixelSqDistance(image1[neighbor.getY()][neighbor.getX()],
-								image2[neighbor.getY()][neighbor.getX()]);
-				if (calcDistance < this.getDistTo()[neighbor.getY()][neighbor.getX()]) {
-					this.setDistoValue(neighbor.getY(), neighbor.getX(), calcDistance);
-					this.setPreviousVertexValue(neighbor.getY(), neighbor.getX(), currentPosition);
-					if (this.getPositionPQ().contains(neighbor)) {
-						this.getPositionPQ().remove(neighbor);
+		search.count(positionPQ.getInsertions(), positionPQ.getDecreasedKeys(), positionPQ.getPeakSize());
+		return settled;
+	}
+	
+	/**
+	 * Performs Dial's algorithm to calculate the shortest path from the upper left corner to the bottom right corner.
+	 * This is Dijkstra's algorithm where the heap is replaced by a monotone bucket queue. Because all pixel costs
+	 * are integers between 0 and the largest cost of the map, the result has exactly the same cost.
+	 * @param search The state of the search.
+	 * @return The number of settled vertices.
+	 */
+	private int performDial(SeamSearch search) {
+		int[] costs = search.getCostMap().getCosts();
+		int width = search.getWidth();
+		int height = search.getHeight();
+		long[] distTo = search.getDistTo();
+		int[] previousVertex = search.getPreviousVertex();
+		BucketQueue bucketQueue = search.getWorkspace().bucketQueue(height * width, search.getCostMap().getMaxCost());
+		
+		int target = height * width - 1;
+		int current = 0;
+		int settled = 1;
+		while (current != target) {
+			int y = current / width;
+			int x = current - y * width;
+			for (int k = 0; k < NEIGHBOR_DX.length; k++) {
+				int ny = y + NEIGHBOR_DY[k];
+				int nx = x + NEIGHBOR_DX[k];
+				if (ny < 0 || ny >= height || nx < 0 || nx >= width) {
+					continue;
+				}
+				int neighbor = ny * width + nx;
+				long calcDistance = distTo[current] + costs[neighbor];
+				if (calcDistance < distTo[neighbor]) {
+					distTo[neighbor] = calcDistance;
+					previousVertex[neighbor] = current;
+					bucketQueue.insertOrDecrease(neighbor, calcDistance);
+				}
+			}
+			current = bucketQueue.delMin();
+			settled++;
+		}
+		search.count(bucketQueue.getInsertions(), bucketQueue.getDecreasedKeys(), bucketQueue.getPeakSize());
+		return settled;
+	}
+	
+	/**
+	 * Performs the A* algorithm to calculate the shortest path from the upper left corner to the bottom right corner.
+	 * The queue is ordered on distTo plus a lower bound of the remaining cost to the target, so vertices that lead
+	 * away from the target are settled later (or not at all).
+	 * 
+	 * Every path from (y, x) to the target visits at least one pixel in every row below y and at least one pixel
+	 * in every column right of x. The lower bound is therefore the largest of the sum of the cheapest pixel of every
+	 * row below y and the sum of the cheapest pixel of every column right of x. This bound is consistent, so the
+	 * seam is optimal, and it is never worse than the Chebyshev distance times the cheapest pixel in the image.
+	 * @param search The state of the search.
+	 * @return The number of settled vertices.
+	 */
+	private int performAStar(SeamSearch search) {
+		int[] costs = search.getCostMap().getCosts();
+		int width = search.getWidth();
+		int height = search.getHeight();
+		long[] distTo = search.getDistTo();
+		int[] previousVertex = search.getPreviousVertex();
+		IndexMinPQ positionPQ = search.getWorkspace().queue(height * width);
+		
+		//rowBound[y] is the sum of the cheapest pixels of the rows y .. height-1, colBound likewise for columns.
+		long[] rowBound = new long[height + 1];
+		long[] colBound = new long[width + 1];
+		int[] colMin = new int[width];
+		Arrays.fill(colMin, Integer.MAX_VALUE);
+		for (int y = height - 1; y >= 0; y--) {
+			int rowMin = Integer.MAX_VALUE;
+			for (int x = 0; x < width; x++) {
+				int cost = costs[y * width + x];
+				rowMin = Math.min(rowMin, cost);
+				colMin[x] = Math.min(colMin[x], cost);
+			}
+			rowBound[y] = rowBound[y + 1] + rowMin;
+		}
+		for (int x = width - 1; x >= 0; x--) {
+			colBound[x] = colBound[x + 1] + colMin[x];
+		}
+		
+		int target = height * width - 1;
+		int current = 0;
+		int settled = 1;
+		while (current != target) {
+			int y = current / width;
+			int x = current - y * width;
+			for (int k = 0; k < NEIGHBOR_DX.length; k++) {
+				int ny = y + NEIGHBOR_DY[k];
+				int nx = x + NEIGHBOR_DX[k];
+				if (ny < 0 || ny >= height || nx < 0 || nx >= width) {
+					continue;
+				}
+				int neighbor = ny * width + nx;
+				long calcDistance = distTo[current] + costs[neighbor];
+				if (calcDistance < distTo[neighbor]) {
+					distTo[neighbor] = calcDistance;
+					previousVertex[neighbor] = current;
+					positionPQ.insertOrDecrease(neighbor, calcDistance + Math.max(rowBound[ny + 1], colBound[nx + 1]));
+				}
+			}
+			current = positionPQ.delMin();
+			settled++;
+		}
+		search.count(positionPQ.getInsertions(), positionPQ.getDecreasedKeys(), positionPQ.getPeakSize());
+		return settled;
+	}
+	
+	/**
+	 * Performs Dijkstra's algorithm from both corners at the same time, until the two searches meet in the middle.
+	 * The forward search uses distTo, previousVertex and the queue of the workspace. The backward search calculates
+	 * for every vertex the cost of the path from that vertex to the target, where the cost of a pixel is paid when it
+	 * is entered. The search stops as soon as the two smallest keys together are not smaller than the cheapest path
+	 * found so far, afterwards the path of the backward search is copied into previousVertex.
+	 * @param search The state of the search.
+	 * @return The number of settled vertices.
+	 */
+	private int performBidirectionalDijkstra(SeamSearch search) {
+		int[] costs = search.getCostMap().getCosts();
+		int width = search.getWidth();
+		int height = search.getHeight();
+		long[] distTo = search.getDistTo();
+		int[] previousVertex = search.getPreviousVertex();
+		SeamWorkspace workspace = search.getWorkspace();
+		IndexMinPQ positionPQ = workspace.queue(height * width);
+		
+		int target = height * width - 1;
+		long[] distFrom = workspace.distFrom(height * width);
+		int[] nextVertex = workspace.nextVertex(height * width);
+		IndexMinPQ backwardPQ = workspace.backwardQueue(height * width);
+		distFrom[target] = 0;
+		positionPQ.insert(0, 0);
+		backwardPQ.insert(target, 0);
+		
+		//best is the cost of the cheapest path found so far, through the vertex meeting
+		long best = target == 0 ? 0 : Long.MAX_VALUE;
+		int meeting = 0;
+		int settled = 0;
+		while (!positionPQ.isEmpty() && !backwardPQ.isEmpty() && positionPQ.minKey() + backwardPQ.minKey() < best) {
+			boolean forward = positionPQ.size() <= backwardPQ.size();
+			int current = forward ? positionPQ.delMin() : backwardPQ.delMin();
+			settled++;
+			int y = current / width;
+			int x = current - y * width;
+			//backwards, the cost of the current pixel is paid when moving to a neighbor
+			int currentCost = costs[current];
+			for (int k = 0; k < NEIGHBOR_DX.length; k++) {
+				int ny = y + NEIGHBOR_DY[k];
+				int nx = x + NEIGHBOR_DX[k];
+				if (ny < 0 || ny >= height || nx < 0 || nx >= width) {
+					continue;
+				}
+				int neighbor = ny * width + nx;
+				if (forward) {
+					long calcDistance = distTo[current] + costs[neighbor];
+					if (calcDistance < distTo[neighbor]) {
+						distTo[neighbor] = calcDistance;
+						previousVertex[neighbor] = current;
+						positionPQ.insertOrDecrease(neighbor, calcDistance);
+						if (distFrom[neighbor] != Long.MAX_VALUE && calcDistance + distFrom[neighbor] < best) {
+							best = calcDistance + distFrom[neighbor];
+							meeting = neighbor;
+						}
+					}
+				} else {
+					long calcDistance = distFrom[current] + currentCost;
+					if (calcDistance < distFrom[neighbor]) {
+						distFrom[neighbor] = calcDistance;
+						nextVertex[neighbor] = current;
+						backwardPQ.insertOrDecrease(neighbor, calcDistance);
+						if (distTo[neighbor] != Long.MAX_VALUE && calcDistance + distTo[neighbor] < best) {
+							best = calcDistance + distTo[neighbor];
+							meeting = neighbor;
+						}
 					}
-					this.getPositionPQ().add(neighbor);
 				}
 			}
-			currentPosition = this.getPositionPQ().poll();
 		}
+		
+		//continue the path of the forward search with the path of the backward search
+		for (int v = meeting; v != target; v = nextVertex[v]) {
+			previousVertex[nextVertex[v]] = v;
+		}
+		distTo[target] = best;
+		search.count(positionPQ.getInsertions(), positionPQ.getDecreasedKeys(), positionPQ.getPeakSize());
+		search.count(backwardPQ.getInsertions(), backwardPQ.getDecreasedKeys(), backwardPQ.getPeakSize());
+		return settled;
 	}
 	
 	/**
-	 * Calculates the shortest path out of the previousVertex 2D array.
-	 * @return The shortest path from top left to bottom right.
+	 * Searches the seam in the corridor and finishes the search, without a seam when the corridor does not
+	 * connect both corners. The costs are indexed like the vertices of the corridor, or like the pixels of the
+	 * images when indexed is false.
 	 */
-	private List<Position> getShortestPathSolution(){
-		if(!hasPathTo(this.getTargetPosition())) return null;
-		//calculate shortest path starting from the target
-		Stack<Position> reversePath = new Stack<Position>();
-		Position current = this.getTargetPosition();
-		reversePath.add(current);
-		while(this.getPreviousVertex()[current.getY()][current.getX()] != null) {
-			current = this.getPreviousVertex()[current.getY()][current.getX()];
-			reversePath.add(current);
+	private void searchCorridor(SeamSearch search, SeamCorridor corridor, int[] costs, boolean indexed, int maxCost,
+			SeamMode seamMode, SeamWorkspace workspace) {
+		search.start(workspace, corridor.size(), corridor.indexOf(0, 0));
+		boolean buckets = seamMode == SeamMode.DIAL && BucketQueue.supports(corridor.size(), maxCost);
+		int settled = this.performCorridorSearch(search, corridor, costs, indexed, maxCost, buckets);
+		int target = corridor.indexOf(search.getHeight() - 1, search.getWidth() - 1);
+		if (target == -1 || search.getDistTo()[target] == Long.MAX_VALUE) {
+			search.finish(null, -1, settled);
+		} else {
+			search.finish(this.getCorridorPath(search, corridor, target), search.getDistTo()[target], settled);
 		}
-		//reverse the list again
-		List<Position> shortestPath = new ArrayList<>();
-		while(!reversePath.isEmpty()) {
-			shortestPath.add(reversePath.pop());
+	}
+	
+	/**
+	 * Performs Dijkstra's algorithm on the pixels of the corridor, from the upper left to the lower right corner.
+	 * The vertices are the indices of the pixels in the corridor, so the distances, the previous vertices and the
+	 * queue have one element per pixel of the corridor. The search stops when the queue runs empty before the
+	 * target is reached, when the corridor does not connect both corners.
+	 * @param search   The state of the search, started for the pixels of the corridor in its upper left corner.
+	 * @param corridor The pixels the seam may visit.
+	 * @param costs    The costs of the pixels.
+	 * @param indexed  True when the cost of a pixel is stored at its index in the corridor, false when it is
+	 *                 stored at y * width + x.
+	 * @param maxCost  The largest cost of a pixel of the corridor.
+	 * @param buckets  True to use a bucket queue, as Dial's algorithm does, instead of a heap.
+	 * @return The number of settled vertices.
+	 */
+	private int performCorridorSearch(SeamSearch search, SeamCorridor corridor, int[] costs, boolean indexed,
+			int maxCost, boolean buckets) {
+		int width = search.getWidth();
+		int height = search.getHeight();
+		long[] distTo = search.getDistTo();
+		int[] previousVertex = search.getPreviousVertex();
+		int vertices = corridor.size();
+		int source = corridor.indexOf(0, 0);
+		int target = corridor.indexOf(height - 1, width - 1);
+		if (source == -1 || target == -1) {
+			return 0;
 		}
-		return shortestPath;	
+		IndexMinPQ positionPQ = buckets ? null : search.getWorkspace().queue(vertices);
+		BucketQueue bucketQueue = buckets ? search.getWorkspace().bucketQueue(vertices, maxCost) : null;
+		
+		int current = source;
+		int settled = 1;
+		while (current != target) {
+			int y = corridor.rowOf(current);
+			int x = corridor.getFirst(y) + current - corridor.getOffset(y);
+			for (int k = 0; k < NEIGHBOR_DX.length; k++) {
+				int ny = y + NEIGHBOR_DY[k];
+				int nx = x + NEIGHBOR_DX[k];
+				if (nx < 0 || nx >= width) {
+					continue;
+				}
+				int neighbor = corridor.indexOf(ny, nx);
+				if (neighbor == -1) {
+					continue;
+				}
+				long calcDistance = distTo[current] + costs[indexed ? neighbor : ny * width + nx];
+				if (calcDistance < distTo[neighbor]) {
+					distTo[neighbor] = calcDistance;
+					previousVertex[neighbor] = current;
+					if (buckets) {
+						bucketQueue.insertOrDecrease(neighbor, calcDistance);
+					} else {
+						positionPQ.insertOrDecrease(neighbor, calcDistance);
+					}
+				}
+			}
+			if (buckets ? bucketQueue.isEmpty() : positionPQ.isEmpty()) {
+				break;
+			}
+			current = buckets ? bucketQueue.delMin() : positionPQ.delMin();
+			settled++;
+		}
+		if (buckets) {
+			search.count(bucketQueue.getInsertions(), bucketQueue.getDecreasedKeys(), bucketQueue.getPeakSize());
+		} else {
+			search.count(positionPQ.getInsertions(), positionPQ.getDecreasedKeys(), positionPQ.getPeakSize());
+		}
+		return settled;
+	}
+	
+	/**
+	 * Returns the path to the target of a corridor search, from the upper left corner.
+	 */
+	private List<Position> getCorridorPath(SeamSearch search, SeamCorridor corridor, int target) {
+		int[] previousVertex = search.getPreviousVertex();
+		int length = 1;
+		for (int v = target; previousVertex[v] != -1; v = previousVertex[v]) {
+			length++;
+		}
+		Position[] path = new Position[length];
+		int v = target;
+		for (int i = length - 1; i >= 0; i--) {
+			int y = corridor.rowOf(v);
+			path[i] = new Position(y, corridor.getFirst(y) + v - corridor.getOffset(y));
+			v = previousVertex[v];
+		}
+		return new ArrayList<>(Arrays.asList(path));
+	}
+	
+	/**
+	 * Calculates the shortest path out of the previousVertex array of the search. This is the only place where
+	 * Position objects are created.
+	 * @param search The state of the search.
+	 * @return The shortest path from top left to bottom right, or null when there is none.
+	 */
+	private List<Position> getShortestPathSolution(SeamSearch search){
+		int width = search.getWidth();
+		int[] previousVertex = search.getPreviousVertex();
+		int target = search.getVertices() - 1;
+		if(search.getDistTo()[target] == Long.MAX_VALUE) return null;
+		//count the vertices on the path, so the list can be filled from the back
+		int length = 1;
+		for (int v = target; previousVertex[v] != -1; v = previousVertex[v]) {
+			length++;
+		}
+		Position[] shortestPath = new Position[length];
+		int v = target;
+		for (int i = length - 1; i >= 0; i--) {
+			shortestPath[i] = new Position(v / width, v % width);
+			v = previousVertex[v];
+		}
+		return new ArrayList<>(Arrays.asList(shortestPath));
+	}
+	
+	/**
+	 * Returns an idle workspace of the pool, or a new one when all of them are in use.
+	 */
+	private SeamWorkspace takeWorkspace() {
+		SeamWorkspace workspace = workspaces.pollFirst();
+		return workspace != null ? workspace : new SeamWorkspace();
+	}
+	
+	/**
+	 * Gives the workspace back to the pool, or drops it when the pool is full or the workspace holds too many bytes.
+	 * The size of the deque is counted, which is cheap because the pool is small.
+	 */
+	private void returnWorkspace(SeamWorkspace workspace) {
+		if (workspace.getRetainedBytes() <= this.getMaxPooledWorkspaceBytes()
+				&& workspaces.size() < this.getMaxPooledWorkspaces()) {
+			workspaces.offerFirst(workspace);
+		}
+	}
+	
+	/**
+	 * Returns the cost map of both images, its costs are stored in the given workspace.
+	 */
+	private CostMap getCostMap(int[][] image1, int[][] image2, SeamWorkspace workspace) {
+		int[] costs = workspace.costs(image1.length * image1[0].length);
+		return CostMap.of(image1, image2, this.getCostFunction(), costs);
+	}
+	
+	/**
+	 * Returns the cost map of both views, its costs are stored in the given workspace.
+	 */
+	private CostMap getCostMap(ImageView image1, ImageView image2, SeamWorkspace workspace) {
+		int[] costs = workspace.costs(image1.getHeight() * image1.getWidth());
+		return CostMap.of(image1, image2, this.getCostFunction(), costs);
 	}
 
+
 	/**
 	 * Apply the floodfill algorithm described in the assignment to mask. You can assume the mask
 	 * contains a seam from the upper left corner to the bottom right corner. The seam is represented
 	 * using Stitch.SEAM and all other positions contain the default value Stitch.EMPTY. So your
 	 * algorithm must replace all Stitch.EMPTY values with either Stitch.IMAGE1 or Stitch.IMAGE2.
-	 *
+	 * 
 	 * Positions left to the seam should contain Stitch.IMAGE1, and those right to the seam
 	 * should contain Stitch.IMAGE2. You can run `ant test` for a basic (but not complete) test
 	 * to check whether your implementation does this properly.
 	 */
 	public void floodfill(Stitch[][] mask) {
+		PackedMask packed = PackedMask.of(mask);
+		this.floodfill(packed);
+		packed.copyTo(mask);
+	}
+	
+	/**
+	 * Apply the floodfill algorithm to the packed mask, see floodfill(Stitch[][]).
+	 * @param mask The packed mask with a given seam.
+	 */
+	public void floodfill(PackedMask mask) {
+		StitchListener listener = this.getListener();
+		if (listener == null) {
+			this.performFloodfill(mask);
+			return;
+		}
+		long empty = countEmpty(mask);
+		long start = System.nanoTime();
+		long allocated = StitchMetrics.allocatedBytes();
+		this.performFloodfill(mask);
+		listener.phaseFinished("fill", System.nanoTime() - start, StitchMetrics.allocatedBytes() - allocated);
+		listener.fillFinished(empty - countEmpty(mask));
+	}
+	
+	/**
+	 * Returns the number of EMPTY pixels of the mask.
+	 */
+	private static long countEmpty(PackedMask mask) {
+		long empty = 0;
+		for (byte code : mask.getCodes()) {
+			if (code == PackedMask.EMPTY) {
+				empty++;
+			}
+		}
+		return empty;
+	}
+	
+	/**
+	 * Fills the mask with the fill mode of the Stitcher, see floodfill(PackedMask).
+	 */
+	private void performFloodfill(PackedMask mask) {
+		if (this.getFillMode() == FillMode.PARALLEL) {
+			new ParallelMaskLabeler().label(mask);
+			return;
+		}
 		//start by filling Image1, the bottom left corner is the starting position.
 		//if this one is not colored, the others aren't either.
-		this.floodFill(mask, mask.length-1, 0, Stitch.IMAGE1);
+		this.floodFill(mask, mask.getHeight()-1, 0, PackedMask.IMAGE1);
 		//start by filling Image2, the top right corner is the starting position.
 		//if this one is not colored, the others aren't either.
-		this.floodFill(mask, 0, mask[0].length-1, Stitch.IMAGE2);
+		this.floodFill(mask, 0, mask.getWidth()-1, PackedMask.IMAGE2);
 	}
 
 	/**
 	 * Fills the mask with the given type on the given coordinates. It does not cross the seam.
+	 * This is a scanline fill: every popped span (y, xStart, xEnd) is scanned for EMPTY pixels, each run
+	 * of EMPTY pixels is extended as far as possible to the left and right and filled in one go, and the
+	 * same columns of the rows above and below are pushed as new spans. Only the spans are stored, in a
+	 * primitive stack of ints, instead of one Position per pixel.
 	 * @param mask The mask with a given seam.
 	 * @param y    The starting y-position.
 	 * @param x    The starting x-position.
-	 * @param type The Stich type to which it will be set.
-	 */
-	private void floodFill(Stitch[][] mask, int y, int x, Stitch type) {
-		//use of stack because we need to go depth first
-		Stack<Position> nextColoring = new Stack<>();
-		nextColoring.add(new Position(y, x));
-		while(!nextColoring.isEmpty()) {
-			Position currentPosition = nextColoring.pop();
-			Stitch currentStitch = mask[currentPosition.getY()][currentPosition.getX()];
-			if(currentStitch == Stitch.EMPTY) {
-				mask[currentPosition.getY()][currentPosition.getX()] = type;
-				nextColoring.addAll(this.getBasicNeighbors(currentPosition,mask[0].length,mask.length));
+	 * @param type The code of the Stich type to which it will be set.
+	 */
+	private void floodFill(PackedMask mask, int y, int x, byte type) {
+		int height = mask.getHeight();
+		int width = mask.getWidth();
+		byte[] codes = mask.getCodes();
+		//use of stack because we need to go depth first, every span takes three ints
+		int[] spans = new int[3 * 64];
+		int size = 0;
+		spans[size++] = y;
+		spans[size++] = x;
+		spans[size++] = x;
+		while (size > 0) {
+			int xEnd = spans[--size];
+			int xStart = spans[--size];
+			int row = spans[--size];
+			int line = row * width;
+			int column = xStart;
+			while (column <= xEnd) {
+				if (codes[line + column] != PackedMask.EMPTY) {
+					column++;
+					continue;
+				}
+				int left = column;
+				while (left > 0 && codes[line + left - 1] == PackedMask.EMPTY) {
+					left--;
+				}
+				int right = column;
+				while (right + 1 < width && codes[line + right + 1] == PackedMask.EMPTY) {
+					right++;
+				}
+				Arrays.fill(codes, line + left, line + right + 1, type);
+				if (size + 6 > spans.length) {
+					spans = Arrays.copyOf(spans, 2 * spans.length);
+				}
+				if (row > 0) {
+					spans[size++] = row - 1;
+					spans[size++] = left;
+					spans[size++] = right;
+				}
+				if (row + 1 < height) {
+					spans[size++] = row + 1;
+					spans[size++] = left;
+					spans[size++] = right;
+				}
+				column = right + 2;
 			}
 		}
 	}
@@ -191,267 +918,371 @@ public class Stitcher
 	 * image1 and image2 are both non-null and have equal dimensions.
 	 */
 	public Stitch[][] stitch(int[][] image1, int[][] image2) {
-		Stitch[][] mask = new Stitch[image1.length][image1[0].length];
-		for (int i = 0; i < mask.length; i++) {
-			for (int j = 0; j < mask[0].length; j++) {
-				mask[i][j] = Stitch.EMPTY;
-			}
+		PackedMask mask = this.stitchPacked(image1, image2);
+		StitchListener listener = this.getListener();
+		if (listener == null) {
+			return mask.toArray();
+		}
+		long start = System.nanoTime();
+		long allocated = StitchMetrics.allocatedBytes();
+		Stitch[][] result = mask.toArray();
+		listener.phaseFinished("convert", System.nanoTime() - start, StitchMetrics.allocatedBytes() - allocated);
+		return result;
+	}
+	
+	/**
+	 * Return the mask to stitch two images together as a packed mask, with one byte per pixel.
+	 * See stitch(int[][], int[][]) for the values in the mask.
+	 * @param image1 The values of image 1.
+	 * @param image2 The values of image 2, with the same dimensions as image1.
+	 * @return The packed mask.
+	 */
+	public PackedMask stitchPacked(int[][] image1, int[][] image2) {
+		return this.getMask(this.seam(image1, image2), image1.length, image1[0].length, false);
+	}
+	
+	/**
+	 * Return the packed mask to stitch two images together with the given cost map.
+	 * See stitch(int[][], int[][]) for the values in the mask.
+	 * @param costMap The costs of the pixels.
+	 * @return The packed mask.
+	 */
+	public PackedMask stitchPacked(CostMap costMap) {
+		return this.getMask(this.seam(costMap), costMap.getHeight(), costMap.getWidth(), false);
+	}
+	
+	/**
+	 * Return the packed mask to stitch two views together with a seam between the given corners.
+	 * The pixels are read through the views and the mask is not flipped afterwards: for BOTTOM_LEFT_TO_TOP_RIGHT
+	 * the rows of the mask are written in mirrored order. See stitch(int[][], int[][]) for the values in the mask.
+	 * @param image1  The view of image 1.
+	 * @param image2  The view of image 2, with the same dimensions as image1.
+	 * @param corners The corners the seam connects.
+	 * @return The packed mask, with the dimensions of the views.
+	 * @throws IllegalArgumentException when the corners equal null
+	 *                                  | corners == null
+	 */
+	public PackedMask stitchPacked(ImageView image1, ImageView image2, SeamCorners corners) {
+		List<Position> seam = this.searchViews(image1, image2, corners).getSeam();
+		return this.getMask(seam, image1.getHeight(), image1.getWidth(), corners == SeamCorners.BOTTOM_LEFT_TO_TOP_RIGHT);
+	}
+	
+	/**
+	 * Return the packed mask of a seam between the given corners with the given cost map. For
+	 * BOTTOM_LEFT_TO_TOP_RIGHT the cost map is mirrored, as CostMap.of computes it for mirrored views: its first
+	 * row holds the costs of the bottom row of the overlap. The mask is not mirrored.
+	 * @param costMap The costs of the pixels.
+	 * @param corners The corners the seam connects.
+	 * @return The packed mask.
+	 * @throws IllegalArgumentException when the corners equal null
+	 *                                  | corners == null
+	 */
+	public PackedMask stitchPacked(CostMap costMap, SeamCorners corners) {
+		if (corners == null) {
+			throw new IllegalArgumentException("The corners cannot be null.");
 		}
-		for (Position position : this.seam(image1, image2)) {
-			mask[position.getY()][position.getX()] = Stitch.SEAM;
+		return this.getMask(this.seam(costMap), costMap.getHeight(), costMap.getWidth(),
+				corners == SeamCorners.BOTTOM_LEFT_TO_TOP_RIGHT);
+	}
+	
+	/**
+	 * Returns the filled mask of the given seam.
+	 * @param seam     The seam, from the upper left to the lower right corner.
+	 * @param height   The height of the mask.
+	 * @param width    The width of the mask.
+	 * @param mirrored Whether the seam was calculated on the mirrored overlap, row y of the mask is then
+	 *                 written to row height - 1 - y.
+	 * @return The packed mask.
+	 */
+	private PackedMask getMask(List<Position> seam, int height, int width, boolean mirrored) {
+		StitchListener listener = this.getListener();
+		if (listener == null) {
+			return this.createMask(seam, height, width, mirrored);
 		}
-		this.floodfill(mask);		
+		long start = System.nanoTime();
+		long allocated = StitchMetrics.allocatedBytes();
+		PackedMask mask = this.createMask(seam, height, width, mirrored);
+		listener.phaseFinished("mask", System.nanoTime() - start, StitchMetrics.allocatedBytes() - allocated);
 		return mask;
 	}
-
+	
 	/**
-	 * Sets the priorityQue of positions.
-	 * @param positionPQ The position to which it will be set.
-	 * @throws IllegalArgumentException when the positionPQ parameter equals null
-	 *                                  | positionPQ == null
-	 * @post The positionPQ is set to the given parameter
-	 *       | new.getPositionPQ() == positionPQ
+	 * Returns the filled mask of the given seam, see getMask. The flood fill needs the seam from the upper
+	 * left to the lower right corner, so only the mask of a seam that is not monotone is flipped afterwards.
 	 */
-	private void setPositionPQ(PriorityQueue<Position> positionPQ) {
-		if(positionPQ == null) {
-			throw new IllegalArgumentException("The positionPQ cannot be null.");
+	private PackedMask createMask(List<Position> seam, int height, int width, boolean mirrored) {
+		PackedMask mask = this.getMonotoneSeamMask(seam, height, width, mirrored);
+		if (mask != null) {
+			return mask;
 		}
-		this.positionPQ = positionPQ;
+		mask = new PackedMask(height, width);
+		for (Position position : seam) {
+			mask.getCodes()[position.getY() * mask.getWidth() + position.getX()] = PackedMask.SEAM;
+		}
+		this.floodfill(mask);		
+		if (mirrored) {
+			mask.flipVertical();
+		}
+		return mask;
 	}
 	
 	/**
-	 * Returns the priorityQueue of positions.
-	 * @return The priorityyQueue of positions.
+	 * Returns the mask of a seam that never goes up and visits one contiguous span of pixels per row,
+	 * without a flood fill, or null when the seam is not of that form.
+	 * 
+	 * For such a seam the free pixels of row y are the pixels left of its span and the pixels right of it.
+	 * Consecutive rows are adjacent through their spans, so a left part never touches a right part of the
+	 * next row, and the left parts of consecutive rows touch exactly when both are non-empty. The flood fill
+	 * from the lower left corner therefore fills the left parts of the rows from the bottom up until the first
+	 * row where the seam starts in column 0, and the fill from the upper right corner fills the right parts
+	 * from the top down until the first row where the seam reaches the last column. The other free pixels stay
+	 * EMPTY, as they would with the flood fill.
+	 * @param seam     The seam, from the upper left to the lower right corner.
+	 * @param height   The height of the mask.
+	 * @param width    The width of the mask.
+	 * @param mirrored Whether row y of the mask is written to row height - 1 - y.
+	 * @return The filled mask, or null when the seam is not monotone.
 	 */
-	public PriorityQueue<Position> getPositionPQ() {
-		return positionPQ;
+	private PackedMask getMonotoneSeamMask(List<Position> seam, int height, int width, boolean mirrored) {
+		if (seam == null || seam.size() < height) {
+			return null;
+		}
+		//first[y] and last[y] are the first and last column of the seam in row y
+		int[] first = new int[height];
+		int[] last = new int[height];
+		int previousY = -1;
+		int previousX = 0;
+		int direction = 0;
+		for (Position position : seam) {
+			int y = position.getY();
+			int x = position.getX();
+			if (y == previousY) {
+				//within a row the seam must keep moving in the same direction
+				int step = x - previousX;
+				if ((step != 1 && step != -1) || step == -direction) {
+					return null;
+				}
+				direction = step;
+				first[y] = Math.min(first[y], x);
+				last[y] = Math.max(last[y], x);
+			} else {
+				if (y != previousY + 1 || (previousY >= 0 && Math.abs(x - previousX) > 1) || (previousY == -1 && x != 0)) {
+					return null;
+				}
+				direction = 0;
+				first[y] = x;
+				last[y] = x;
+			}
+			previousY = y;
+			previousX = x;
+		}
+		if (previousY != height - 1 || previousX != width - 1) {
+			return null;
+		}
+		
+		int image1Top = height;
+		while (image1Top > 0 && first[image1Top - 1] > 0) {
+			image1Top--;
+		}
+		int image2Bottom = -1;
+		while (image2Bottom + 1 < height && last[image2Bottom + 1] < width - 1) {
+			image2Bottom++;
+		}
+		PackedMask mask = new PackedMask(height, width);
+		byte[] codes = mask.getCodes();
+		for (int y = 0; y < height; y++) {
+			int row = (mirrored ? height - 1 - y : y) * width;
+			Arrays.fill(codes, row, row + first[y], y >= image1Top ? PackedMask.IMAGE1 : PackedMask.EMPTY);
+			Arrays.fill(codes, row + first[y], row + last[y] + 1, PackedMask.SEAM);
+			Arrays.fill(codes, row + last[y] + 1, row + width, y <= image2Bottom ? PackedMask.IMAGE2 : PackedMask.EMPTY);
+		}
+		return mask;
 	}
 
 	/**
-	 * Returns the width of the image (2D array).
-	 * @return The width of the image (2D array).
+	 * Returns the algorithm used to calculate the seam.
+	 * @return The algorithm used to calculate the seam.
 	 */
-	public int getWidth() {
-		return width;
+	public SeamMode getSeamMode() {
+		return seamMode;
 	}
 
 	/**
-	 * Sets the width of the image.
-	 * @param width The width of the image.
-	 * @throws IllegalArgumentException when the width equals a negative value
-	 *                                 | width < 0
-	 * @post the width equals the given parameter.
-	 *      | new.getWidth() == width
+	 * Sets the algorithm used to calculate the seam.
+	 * @param seamMode The algorithm used to calculate the seam.
+	 * @throws IllegalArgumentException when the seamMode equals null
+	 *                                  | seamMode == null
+	 * @post The seamMode is set to the given parameter
+	 *       | new.getSeamMode() == seamMode
 	 */
-	private void setWidth(int width) {
-		if(width < 0) {
-			throw new IllegalArgumentException("Width of an image cannot be negative.");
+	public void setSeamMode(SeamMode seamMode) {
+		if(seamMode == null) {
+			throw new IllegalArgumentException("The seamMode cannot be null.");
 		}
-		this.width = width;
+		this.seamMode = seamMode;
 	}
 
 	/**
-	 * Returns the height of the image (2D array).
-	 * @return The height of the image (2D array).
+	 * Returns the function that calculates the cost of the pixels.
+	 * @return The function that calculates the cost of the pixels.
 	 */
-	public int getHeight() {
-		return height;
+	public CostFunction getCostFunction() {
+		return costFunction;
 	}
 
 	/**
-	 * Sets the height of the image.
-	 * @param height The height of the image.
-	 * @throws IllegalArgumentException when the height equals a negative value
-	 *                                 | width < 0
-	 * @post the height equals the given parameter.
-	 *      | new.getHeight() == height
+	 * Sets the function that calculates the cost of the pixels.
+	 * @param costFunction The function that calculates the cost of the pixels.
+	 * @throws IllegalArgumentException when the costFunction equals null
+	 *                                  | costFunction == null
+	 * @post The costFunction is set to the given parameter
+	 *       | new.getCostFunction() == costFunction
 	 */
-	private void setHeight(int height) {
-		if(height < 0) {
-			throw new IllegalArgumentException("The height of an image cannot be negative.");
+	public void setCostFunction(CostFunction costFunction) {
+		if(costFunction == null) {
+			throw new IllegalArgumentException("The costFunction cannot be null.");
 		}
-		this.height = height;
+		this.costFunction = costFunction;
 	}
 
 	/**
-	 * Returns the Distance to (a certain vertex on the location) 2D matrix.
-	 * @return the Distance to (a certain vertex on the location) 2D matrix.
+	 * Returns the cache of seams.
+	 * @return The cache of seams, or null when seams are not cached.
 	 */
-	public double[][] getDistTo() {
-		return distTo;
+	public SeamCache getSeamCache() {
+		return seamCache;
 	}
 
 	/**
-	 * Sets the distanceTo array.
-	 * @param distTo the 2D array of double to which the array will be set.
-	 * @throws IllegalArgumentException when the distTo equals null
-	 *                                  |distTo == null
-	 * @post the distTo array equals the given parameter
-	 *       | new.getDistTo() == distTo
+	 * Sets the cache of seams, a cache can be shared by several stitchers.
+	 * @param seamCache The cache of seams, or null to not cache seams.
+	 * @post The seamCache is set to the given parameter
+	 *       | new.getSeamCache() == seamCache
 	 */
-	private void setDistTo(double[][] distTo) {
-		if(distTo == null) {
-			throw new IllegalArgumentException("Disto cannot be set to null.");
-		}
-		this.distTo = distTo;
+	public void setSeamCache(SeamCache seamCache) {
+		this.seamCache = seamCache;
 	}
 
 	/**
-	 * Returns the previous vertex 2D array of positions.
-	 * @return the previous vertex 2D array of positions.
+	 * Returns the number of columns on each side of the diagonal the seam may visit.
+	 * @return The band width, or -1 when the seam may visit every pixel.
 	 */
-	public Position[][] getPreviousVertex() {
-		return previousVertex;
+	public int getBandWidth() {
+		return bandWidth;
 	}
 
 	/**
-	 * Sets the previousVertex 2D array.
-	 * @param previousVertex The previousVertex to which it will be set.
-	 * @throws IllegalArgumentException when the previousVertex equals null
-	 *                                  | previousVertex == null
-	 * @post The previousVertex variable is set to the given parameter.
-	 *       | new.getPreviousVertex() == previousVertex
+	 * Sets the number of columns on each side of the diagonal from the upper left to the lower right corner
+	 * the seam may visit, see SeamCorridor.diagonal. Inside the band DIAL uses a bucket queue and the other
+	 * seam modes Dijkstra's algorithm, the seam cache is not used. When the seam is searched in images or views,
+	 * only the costs of the pixels in the band are calculated; a given cost map is searched in the band.
+	 * @param bandWidth The band width, or -1 to let the seam visit every pixel.
+	 * @throws IllegalArgumentException when the band width is smaller than -1
+	 *                                  | bandWidth < -1
+	 * @post The bandWidth is set to the given parameter
+	 *       | new.getBandWidth() == bandWidth
 	 */
-	private void setPreviousVertex(Position[][] previousVertex) {
-		if(previousVertex == null) {
-			throw new IllegalArgumentException("EdgeTo cannot be set to null.");
+	public void setBandWidth(int bandWidth) {
+		if(bandWidth < -1) {
+			throw new IllegalArgumentException("The band width cannot be smaller than -1.");
 		}
-		this.previousVertex = previousVertex;
+		this.bandWidth = bandWidth;
 	}
-	
+
 	/**
-	 * Sets the distance to value of 1 particular element in the 2D array.
-	 * @param y The y-coordinate.
-	 * @param x The x-coordinate.
-	 * @param value The value to which it will be set.
-	 * @throws IllegalArgumentException when at least one of the coordinates is negative.
-	 *                                  | x <0 || y <0
-	 * @post The distance is set to the given value.
-	 *       | new.getDistance()[y][x] == value
+	 * Returns the largest number of idle workspaces the pool keeps.
+	 * @return The largest number of pooled workspaces.
 	 */
-	private void setDistoValue(int y, int x, double value) {
-		if(x <0 || y <0) {
-			throw new IllegalArgumentException("The positions of disto array cannot be null.");
-		}
-		distTo[y][x] = value;
+	public int getMaxPooledWorkspaces() {
+		return maxPooledWorkspaces;
 	}
-	
+
 	/**
-	 * Sets the previousVertexValue to the given value.
-	 * @param y The y-coordinate.
-	 * @param x The x-coordinate.
-	 * @param previousPosition The value to of the previous position to which it will be set.
-	 * @throws IllegalArgumentException when at least one of the coordinates is below zero or the previousPosition equals null.
-	 *                                  | (x <0) || (y<0) || (previousPosition== null)
-	 * @post The previousPosition is set on the given coordinates.
-	 *        | new.getPreviousVertex()[y][x] == previousPosition
+	 * Sets the largest number of idle workspaces the pool keeps. Workspaces that are given back to a full pool are
+	 * dropped, so the pool shrinks to the new limit as its workspaces are used.
+	 * @param maxPooledWorkspaces The largest number of pooled workspaces.
+	 * @throws IllegalArgumentException when the number is negative
+	 *                                  | maxPooledWorkspaces < 0
+	 * @post The maxPooledWorkspaces is set to the given parameter
+	 *       | new.getMaxPooledWorkspaces() == maxPooledWorkspaces
 	 */
-	private void setPreviousVertexValue(int y, int x, Position previousPosition) {
-		if((x <0) || (y<0) || (previousPosition== null)) {
-			throw new IllegalArgumentException("Cannot set the previousVertex value because it cannot be null and cannot be outside the grid.");
+	public void setMaxPooledWorkspaces(int maxPooledWorkspaces) {
+		if(maxPooledWorkspaces < 0) {
+			throw new IllegalArgumentException("The number of pooled workspaces cannot be negative.");
 		}
-		previousVertex[y][x] = previousPosition;
+		this.maxPooledWorkspaces = maxPooledWorkspaces;
 	}
-		
+
 	/**
-	 * Returns the targetPosition. The targetPosition is the final position of the Dijkstra algorithm.
-	 * @return The targetPosition (used for Dijkstra's algorithm).
+	 * Returns the largest number of bytes an idle workspace of the pool may hold, see SeamWorkspace.getRetainedBytes.
+	 * @return The largest number of bytes of a pooled workspace.
 	 */
-	private Position getTargetPosition() {
-		return new Position(this.getHeight()-1, this.getWidth()-1);
+	public long getMaxPooledWorkspaceBytes() {
+		return maxPooledWorkspaceBytes;
 	}
-	
+
 	/**
-	 * returns whether or not there exists a path to the vertex on the given position. 
-	 * @param p The position the vertex is located.
-	 * @return True when there exists a path to the vertex; otherwise false.
+	 * Sets the largest number of bytes an idle workspace of the pool may hold. A workspace that holds more bytes
+	 * when its search is finished is dropped instead of kept.
+	 * @param maxPooledWorkspaceBytes The largest number of bytes of a pooled workspace.
+	 * @throws IllegalArgumentException when the number of bytes is negative
+	 *                                  | maxPooledWorkspaceBytes < 0
+	 * @post The maxPooledWorkspaceBytes is set to the given parameter
+	 *       | new.getMaxPooledWorkspaceBytes() == maxPooledWorkspaceBytes
 	 */
-	private boolean hasPathTo(Position p) {
-		if(p == null) {
-			throw new IllegalArgumentException("Path cannot be null to determine if a path exists.");
+	public void setMaxPooledWorkspaceBytes(long maxPooledWorkspaceBytes) {
+		if(maxPooledWorkspaceBytes < 0) {
+			throw new IllegalArgumentException("The number of bytes of a pooled workspace cannot be negative.");
 		}
-		return this.getDistTo()[p.getY()][p.getX()] < Double.POSITIVE_INFINITY;
+		this.maxPooledWorkspaceBytes = maxPooledWorkspaceBytes;
 	}
-	
+
 	/**
-	 * Returns all the possible neighbors of a vertex. (Used in Dijkstra's algorithm).
-	 * @param p The position of which the neighbors should be calculated.
-	 * @return a List of neighbors of the given position. A neighbor itself is also a position.
+	 * Returns the largest number of bytes the idle workspaces of the pool hold together.
+	 * @return The largest number of bytes of the pool.
 	 */
-	public List<Position> getPossibleNeighbors(Position p){
-		List<Position> neighbors = new ArrayList<>();
-		neighbors.addAll(this.getBasicNeighbors(p,this.getWidth(),this.getHeight()));
-		
-		//left + top
-		if( ( (p.getX()-1) >= 0 ) &&  ((p.getY()-1) >= 0 ) ) {
-			neighbors.add(new Position(p.getY()-1, p.getX()-1));
-		}
-		//left + bottom
-		if( ( (p.getX()-1) >= 0 ) && ((p.getY()+1) < this.getHeight()) ) {
-			neighbors.add(new Position(p.getY()+1, p.getX()-1));
-		}
-		//right + top
-		if( ((p.getX()+1) < this.getWidth()) && ((p.getY()-1) >= 0 )  ) {
-			neighbors.add(new Position(p.getY()-1, p.getX()+1));
-		}
-		//right + bottom
-		if( ((p.getX()+1) < this.getWidth())  && ((p.getY()+1) < this.getHeight())) {
-			neighbors.add(new Position(p.getY()+1, p.getX()+1));
-		}
-		return neighbors;
+	public long getMaxPooledBytes() {
+		return this.getMaxPooledWorkspaces() * this.getMaxPooledWorkspaceBytes();
 	}
-	
+
 	/**
-	 * Returns the basic neighbors of a position in a field with given width and height.
-	 * A basic neighbor is left, right, top, bottom
-	 * @param p The position of which the neighbors need to be calculated.
-	 * @param width The width of the field.
-	 * @param height The height of the field.
-	 * @return The list of neighbors of the given position.
+	 * Returns the listener that receives the measurements.
+	 * @return The listener, or null when nothing is measured.
 	 */
-	private List<Position> getBasicNeighbors(Position p, int width, int height) {
-		List<Position> neighbors = new ArrayList<>();
-		// left
-		if ((p.getX() - 1) >= 0) {
-			neighbors.add(new Position(p.getY(), p.getX() - 1));
-		}
-		// right
-		if ((p.getX() + 1) < width) {
-			neighbors.add(new Position(p.getY(), p.getX() + 1));
-		}
-		// top
-		if ((p.getY() - 1) >= 0) {
-			neighbors.add(new Position(p.getY() - 1, p.getX()));
-		}
-		// bottom
-		if ((p.getY() + 1) < height) {
-			neighbors.add(new Position(p.getY() + 1, p.getX()));
-		}
-		return neighbors;
+	public StitchListener getListener() {
+		return listener;
 	}
-	
+
 	/**
-	 * Returns the comparator used to compare Position objects.
-	 * @return The comparator used to compare Position objects.
+	 * Sets the listener that receives the measurements, for example a StitchMetrics.
+	 * @param listener The listener, or null to measure nothing.
+	 * @post The listener is set to the given parameter
+	 *       | new.getListener() == listener
 	 */
-	private Comparator<Position> getPositionComparator() {
-		return new Comparator<Position>() {
-			@Override
-			public int compare(Position position1, Position position2) {
-				if(position1 == null || position2 == null) {
-					return 0;
-				}
-				if(getDistTo()[position1.getY()][position1.getX()] < getDistTo()[position2.getY()][position2.getX()]) {
-					return -1;
-				} else if(getDistTo()[position1.getY()][position1.getX()] > getDistTo()[position2.getY()][position2.getX()]) {
-					return 1;
-				}else {
-					return 0;
-				}
-			}
-		};
+	public void setListener(StitchListener listener) {
+		this.listener = listener;
 	}
-		
-}
 
+	/**
+	 * Returns the algorithm used to fill the mask.
+	 * @return The algorithm used to fill the mask.
+	 */
+	public FillMode getFillMode() {
+		return fillMode;
+	}
 
+	/**
+	 * Sets the algorithm used to fill the mask.
+	 * @param fillMode The algorithm used to fill the mask.
+	 * @throws IllegalArgumentException when the fillMode equals null
+	 *                                  | fillMode == null
+	 * @post The fillMode is set to the given parameter
+	 *       | new.getFillMode() == fillMode
+	 */
+	public void setFillMode(FillMode fillMode) {
+		if(fillMode == null) {
+			throw new IllegalArgumentException("The fillMode cannot be null.");
+		}
+		this.fillMode = fillMode;
+	}
+}
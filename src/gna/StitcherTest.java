@@ -2,7 +2,10 @@ package gna;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
 
@@ -39,5 +42,1131 @@ public class StitcherTest {
 			}
 		}
 	}
+	
+	@Test
+	public void floodFillTestRandomMasks() {
+		Random random = new Random(5);
+		for (int i = 0; i < 200; i++) {
+			Stitch[][] input = randomMask(random, 1 + random.nextInt(30), 1 + random.nextInt(30));
+			Stitch[][] expectedOutput = referenceFloodfill(input);
+			new Stitcher().floodfill(input);
+			
+			for (int y = 0; y < expectedOutput.length; y++) {
+				assertArrayEquals(expectedOutput[y], input[y]);
+			}
+		}
+	}
+	
+	@Test
+	public void floodFillTestParallel() {
+		Random random = new Random(9);
+		Stitcher stitcher = new Stitcher();
+		stitcher.setFillMode(FillMode.PARALLEL);
+		for (int i = 0; i < 200; i++) {
+			Stitch[][] input = randomMask(random, 1 + random.nextInt(30), 1 + random.nextInt(30));
+			Stitch[][] expectedOutput = referenceFloodfill(input);
+			PackedMask packed = PackedMask.of(input);
+			new ParallelMaskLabeler(1 + random.nextInt(8), ForkJoinPool.commonPool()).label(packed);
+			packed.copyTo(input);
+			
+			for (int y = 0; y < expectedOutput.length; y++) {
+				assertArrayEquals(expectedOutput[y], input[y]);
+			}
+		}
+		Stitch[][] input = {{Stitch.SEAM,Stitch.EMPTY}, {Stitch.EMPTY, Stitch.SEAM}};
+		stitcher.floodfill(input);
+		assertArrayEquals(new Stitch[] {Stitch.SEAM,Stitch.IMAGE2}, input[0]);
+		assertArrayEquals(new Stitch[] {Stitch.IMAGE1,Stitch.SEAM}, input[1]);
+	}
+	
+	@Test
+	public void stitchTestMatchesFloodfill() {
+		Random random = new Random(13);
+		for (int i = 0; i < 50; i++) {
+			int[][] image1 = randomImage(random, 1 + random.nextInt(30), 1 + random.nextInt(30));
+			int[][] image2 = randomImage(random, image1.length, image1[0].length);
+			Stitcher stitcher = new Stitcher();
+			List<Position> seam = stitcher.seam(image1, image2);
+			Stitch[][] mask = new Stitch[image1.length][image1[0].length];
+			for (Stitch[] row : mask) {
+				java.util.Arrays.fill(row, Stitch.EMPTY);
+			}
+			for (Position p : seam) {
+				mask[p.getY()][p.getX()] = Stitch.SEAM;
+			}
+			Stitch[][] expectedOutput = referenceFloodfill(mask);
+			Stitch[][] output = stitcher.stitch(image1, image2);
+			
+			for (int y = 0; y < expectedOutput.length; y++) {
+				assertArrayEquals(expectedOutput[y], output[y]);
+			}
+		}
+	}
+	
+	@Test
+	public void packedMaskTestFlipVertical() {
+		Random random = new Random(11);
+		Stitch[][] mask = randomMask(random, 7, 5);
+		PackedMask packed = PackedMask.of(mask);
+		packed.flipVertical();
+		for (int y = 0; y < mask.length; y++) {
+			for (int x = 0; x < mask[0].length; x++) {
+				assertEquals(mask[mask.length - 1 - y][x], packed.get(y, x));
+			}
+		}
+	}
+	
+	@Test
+	public void stitchTestSeamCorners() {
+		Random random = new Random(47);
+		for (CostFunction costFunction : new CostFunction[] {CostFunction.SQUARED_DISTANCE, CostFunction.GRADIENT}) {
+			Stitcher stitcher = new Stitcher();
+			stitcher.setCostFunction(costFunction);
+			for (int i = 0; i < 20; i++) {
+				int[][] image1 = randomImage(random, 30, 30);
+				int[][] image2 = randomImage(random, 30, 30);
+				int height = 2 + random.nextInt(20);
+				int width = 2 + random.nextInt(20);
+				int y1 = random.nextInt(30 - height + 1);
+				int x1 = random.nextInt(30 - width + 1);
+				int y2 = random.nextInt(30 - height + 1);
+				ImageView view1 = new ImageView(image1, y1, x1, height, width);
+				ImageView view2 = new ImageView(image2, y2, 0, height, width);
+				
+				//the copied and flipped overlap, as ImageCompositor used to stitch it
+				int[][] copy1 = new int[height][];
+				int[][] copy2 = new int[height][];
+				for (int row = 0; row < height; row++) {
+					copy1[height - 1 - row] = Arrays.copyOfRange(image1[y1 + row], x1, x1 + width);
+					copy2[height - 1 - row] = Arrays.copyOfRange(image2[y2 + row], 0, width);
+				}
+				PackedMask expected = stitcher.stitchPacked(copy1, copy2);
+				expected.flipVertical();
+				assertArrayEquals(expected.getCodes(), stitcher.stitchPacked(view1, view2, SeamCorners.BOTTOM_LEFT_TO_TOP_RIGHT).getCodes());
+				
+				SeamSearch search = stitcher.search(view1, view2, SeamCorners.BOTTOM_LEFT_TO_TOP_RIGHT);
+				List<Position> seam = search.getSeam();
+				assertEquals(new Position(height - 1, 0), seam.get(0));
+				assertEquals(new Position(0, width - 1), seam.get(seam.size() - 1));
+				
+				//without mirroring the views stitch like the copied overlap
+				for (int row = 0; row < height; row++) {
+					copy1[row] = Arrays.copyOfRange(image1[y1 + row], x1, x1 + width);
+					copy2[row] = Arrays.copyOfRange(image2[y2 + row], 0, width);
+				}
+				assertArrayEquals(stitcher.stitchPacked(copy1, copy2).getCodes(),
+						stitcher.stitchPacked(view1, view2, SeamCorners.TOP_LEFT_TO_BOTTOM_RIGHT).getCodes());
+			}
+		}
+	}
+	
+	@Test
+	public void compositorTestStreaming() throws java.io.IOException {
+		Random random = new Random(17);
+		for (int i = 0; i < 40; i++) {
+			int[][] image1 = randomImage(random, 2 + random.nextInt(30), 2 + random.nextInt(30));
+			int[][] image2 = randomImage(random, 2 + random.nextInt(30), 2 + random.nextInt(30));
+			int offsetx = random.nextInt(image1[0].length);
+			int offsety = random.nextInt(image1.length + image2.length - 1) - image2.length + 1;
+			int[][] expected = ImageCompositor.composite(image1, image2, offsetx, offsety);
+			
+			int[][] output = new int[expected.length][];
+			int[] written = new int[1];
+			new StreamingCompositor(1 + random.nextInt(8), new Stitcher()).composite(PixelSource.of(image1),
+					PixelSource.of(image2), offsetx, offsety, (pixels, count) -> {
+				for (int r = 0; r < count; r++) {
+					output[written[0]++] = java.util.Arrays.copyOfRange(pixels, r * expected[0].length, (r + 1) * expected[0].length);
+				}
+			});
+			assertEquals(expected.length, written[0]);
+			for (int y = 0; y < expected.length; y++) {
+				assertArrayEquals(expected[y], output[y]);
+			}
+		}
+	}
+	
+	@Test
+	public void compositorTestRows() {
+		Random random = new Random(48);
+		for (int i = 0; i < 40; i++) {
+			int[][] image1 = randomImage(random, 2 + random.nextInt(30), 2 + random.nextInt(30));
+			int[][] image2 = randomImage(random, 2 + random.nextInt(30), 2 + random.nextInt(30));
+			int offsetx = random.nextInt(image1[0].length);
+			int offsety = random.nextInt(image1.length + image2.length - 1) - image2.length + 1;
+			int stitchHeight = Math.min(offsety + image2.length, image1.length) - Math.max(offsety, 0);
+			int stitchWidth = Math.min(offsetx + image2[0].length, image1[0].length) - offsetx;
+			PackedMask mask = new PackedMask(stitchHeight, stitchWidth);
+			for (int p = 0; p < stitchHeight * stitchWidth; p++) {
+				mask.getCodes()[p] = (byte) random.nextInt(4);
+			}
+			byte[] codes = mask.getCodes().clone();
+			
+			//image1, then image2, then the pixels of image1 in the overlap, pixel by pixel
+			int[][] expected = new int[Math.max(image1.length, image2.length + offsety) - Math.min(0, offsety)]
+					[Math.max(image1[0].length, image2[0].length + offsetx)];
+			for (int y = 0; y < image1.length; y++) {
+				for (int x = 0; x < image1[0].length; x++) {
+					expected[y - Math.min(0, offsety)][x] = image1[y][x];
+				}
+			}
+			for (int y = 0; y < image2.length; y++) {
+				for (int x = 0; x < image2[0].length; x++) {
+					expected[y + Math.max(0, offsety)][x + offsetx] = image2[y][x];
+				}
+			}
+			for (int y = 0; y < stitchHeight; y++) {
+				for (int x = 0; x < stitchWidth; x++) {
+					if (mask.get(y, x) == Stitch.IMAGE1) {
+						expected[Math.abs(offsety) + y][offsetx + x] = image1[Math.max(offsety, 0) + y][offsetx + x];
+					}
+				}
+			}
+			
+			int[][] result = new RowCompositor(1 + random.nextInt(8), ForkJoinPool.commonPool()).composite(image1, image2,
+					offsetx, offsety, mask);
+			assertEquals(expected.length, result.length);
+			for (int y = 0; y < expected.length; y++) {
+				assertArrayEquals(expected[y], result[y]);
+			}
+			assertArrayEquals(codes, mask.getCodes());
+		}
+	}
+	
+	@Test
+	public void pngTestRoundTrip() throws java.io.IOException {
+		Random random = new Random(19);
+		int[][] image = randomImage(random, 37, 23);
+		java.io.File file = java.io.File.createTempFile("stitch", ".png");
+		try {
+			try (PngWriter writer = new PngWriter(file.getPath(), 23, 37)) {
+				for (int[] row : image) {
+					writer.writeRows(row, 1);
+				}
+			}
+			try (PixelSource source = PixelSource.open(file.getPath())) {
+				assertTrue(source instanceof PngPixelSource);
+				int[] pixels = new int[23 * 5];
+				//read the bands out of order, to also read the file again from the start
+				for (int y : new int[] {30, 0, 11}) {
+					source.readRows(y, 5, pixels);
+					for (int r = 0; r < 5; r++) {
+						for (int x = 0; x < 23; x++) {
+							assertEquals(0xFF000000 | image[y + r][x], pixels[r * 23 + x]);
+						}
+					}
+				}
+			}
+			assertArrayEquals(image[4], maskAlpha(libpract.Util.readImage(file.getPath())[4]));
+			
+			//grayscale and 16 bit PNGs are read with the same conversion as Util.readImage
+			java.awt.image.ColorModel rgb16 = new java.awt.image.ComponentColorModel(
+					java.awt.color.ColorSpace.getInstance(java.awt.color.ColorSpace.CS_sRGB), false, false,
+					java.awt.Transparency.OPAQUE, java.awt.image.DataBuffer.TYPE_USHORT);
+			java.awt.image.BufferedImage[] converted = {
+					new java.awt.image.BufferedImage(23, 37, java.awt.image.BufferedImage.TYPE_BYTE_GRAY),
+					new java.awt.image.BufferedImage(rgb16, rgb16.createCompatibleWritableRaster(23, 37), false, null)};
+			for (java.awt.image.BufferedImage input : converted) {
+				java.awt.image.WritableRaster raster = input.getRaster();
+				int maxSample = (1 << raster.getSampleModel().getSampleSize(0)) - 1;
+				for (int y = 0; y < 37; y++) {
+					for (int x = 0; x < 23; x++) {
+						for (int band = 0; band < raster.getNumBands(); band++) {
+							raster.setSample(x, y, band, random.nextInt(maxSample + 1));
+						}
+					}
+				}
+				javax.imageio.ImageIO.write(input, "png", file);
+				int[][] expected = libpract.Util.readImage(file.getPath());
+				try (PixelSource source = PixelSource.open(file.getPath())) {
+					int[] pixels = new int[23 * 37];
+					source.readRows(0, 37, pixels);
+					for (int y = 0; y < 37; y++) {
+						for (int x = 0; x < 23; x++) {
+							assertEquals(expected[y][x], pixels[y * 23 + x]);
+						}
+					}
+				}
+			}
+		} finally {
+			file.delete();
+		}
+	}
+	
+	@Test
+	public void rawImageTestMappedCompositing() throws java.io.IOException {
+		Random random = new Random(37);
+		int[][] image1 = randomImage(random, 41, 33);
+		int[][] image2 = randomImage(random, 29, 38);
+		java.io.File png = java.io.File.createTempFile("stitch", ".png");
+		java.io.File raw1 = java.io.File.createTempFile("stitch", RawImage.EXTENSION);
+		java.io.File raw2 = java.io.File.createTempFile("stitch", RawImage.EXTENSION);
+		java.io.File output = java.io.File.createTempFile("stitch", RawImage.EXTENSION);
+		try {
+			try (PixelSink sink = PixelSink.create(png.getPath(), 33, 41)) {
+				for (int[] row : image1) {
+					sink.writeRows(row, 1);
+				}
+			}
+			RawImage.convert(png.getPath(), raw1.getPath());
+			try (PixelSink sink = PixelSink.create(raw2.getPath(), 38, 29)) {
+				for (int[] row : image2) {
+					sink.writeRows(row, 1);
+				}
+			}
+			try (RawImage raw = RawImage.open(raw1.getPath())) {
+				assertEquals(0xFF000000 | image1[40][32], raw.getPixel(40, 32));
+			}
+			assertNull(RawImage.open(png.getPath()));
+			
+			int[][] expected = ImageCompositor.composite(image1, image2, 9, 6);
+			try (PixelSource source1 = PixelSource.open(raw1.getPath());
+					PixelSource source2 = PixelSource.open(raw2.getPath());
+					PixelSink sink = PixelSink.create(output.getPath(), expected[0].length, expected.length)) {
+				new StreamingCompositor(7, new Stitcher()).composite(source1, source2, 9, 6, sink);
+			}
+			try (RawImage result = RawImage.open(output.getPath())) {
+				int[][] pixels = result.toArray();
+				for (int y = 0; y < expected.length; y++) {
+					assertArrayEquals(expected[y], maskAlpha(pixels[y]));
+				}
+			}
+			
+			//the overlap is costed and the result composed from the mappings, also when the overlap is mirrored
+			try (RawImage mapped1 = RawImage.open(raw1.getPath()); RawImage mapped2 = RawImage.open(raw2.getPath())) {
+				for (CostFunction costFunction : new CostFunction[] {CostFunction.SQUARED_DISTANCE, CostFunction.GRADIENT}) {
+					Stitcher stitcher = new Stitcher();
+					stitcher.setCostFunction(costFunction);
+					for (int[] offset : new int[][] {{9, 6}, {10, 20}, {5, -10}}) {
+						int[][] arrays = ImageCompositor.composite(image1, image2, offset[0], offset[1], stitcher);
+						int[][] mapped = ImageCompositor.composite(mapped1, mapped2, offset[0], offset[1], stitcher);
+						for (int y = 0; y < arrays.length; y++) {
+							assertArrayEquals(maskAlpha(arrays[y]), maskAlpha(mapped[y]));
+						}
+					}
+				}
+			}
+		} finally {
+			png.delete();
+			raw1.delete();
+			raw2.delete();
+			output.delete();
+		}
+	}
+	
+	@Test
+	public void batchTestManifest() throws java.io.IOException {
+		Random random = new Random(23);
+		java.nio.file.Path directory = java.nio.file.Files.createTempDirectory("batch");
+		try {
+			int[][][] images = new int[3][][];
+			for (int i = 0; i < images.length; i++) {
+				images[i] = randomImage(random, 20 + i, 30 - i);
+				try (PngWriter writer = new PngWriter(directory.resolve(i + ".png").toString(), 30 - i, 20 + i)) {
+					for (int[] row : images[i]) {
+						writer.writeRows(row, 1);
+					}
+				}
+			}
+			java.nio.file.Files.write(directory.resolve("jobs.txt"), java.util.Arrays.asList(
+					"# image1 image2 offsetx offsety output", "0.png 1.png 5 3 a.png", "", "1.png 2.png 10 -4 b.png",
+					"0.png missing.png 0 0 c.png"));
+			List<BatchCompositor.Result> results = new BatchCompositor(2, 1 << 20)
+					.run(BatchCompositor.readManifest(directory.resolve("jobs.txt").toString()));
+			
+			assertEquals(3, results.size());
+			assertFalse(results.get(2).isSuccessful());
+			int[][] expected = ImageCompositor.composite(images[1], images[2], 10, -4);
+			int[][] output = libpract.Util.readImage(directory.resolve("b.png").toString());
+			assertTrue(results.get(1).isSuccessful());
+			assertEquals(expected.length * expected[0].length, results.get(1).getPixels());
+			for (int y = 0; y < expected.length; y++) {
+				assertArrayEquals(expected[y], maskAlpha(output[y]));
+			}
+		} finally {
+			for (java.io.File file : directory.toFile().listFiles()) {
+				file.delete();
+			}
+			directory.toFile().delete();
+		}
+	}
+	
+	@Test
+	public void panoramaTestTwoFrames() {
+		Random random = new Random(29);
+		for (int i = 0; i < 30; i++) {
+			int[][] image1 = randomImage(random, 2 + random.nextInt(25), 2 + random.nextInt(25));
+			int[][] image2 = randomImage(random, 2 + random.nextInt(25), 2 + random.nextInt(25));
+			int offsetx = random.nextInt(image1[0].length);
+			int offsety = random.nextInt(image1.length + image2.length - 1) - image2.length + 1;
+			PanoramaBuilder.ImageSink sink = new PanoramaBuilder.ImageSink();
+			PanoramaBuilder builder = new PanoramaBuilder(sink);
+			builder.addFrame(image1, 0, 0);
+			builder.addFrame(image2, offsetx, offsety);
+			builder.finish();
+			
+			int[][] expected = ImageCompositor.composite(image1, image2, offsetx, offsety);
+			int[][] output = sink.getImage();
+			assertEquals(expected.length, output.length);
+			for (int y = 0; y < expected.length; y++) {
+				assertArrayEquals(expected[y], output[y]);
+			}
+		}
+	}
+	
+	@Test
+	public void panoramaTestManyFrames() {
+		Random random = new Random(31);
+		int[][][] frames = new int[40][][];
+		int[][] offsets = new int[frames.length][2];
+		for (int i = 0; i < frames.length; i++) {
+			frames[i] = randomImage(random, 20 + random.nextInt(5), 20 + random.nextInt(5));
+			offsets[i][0] = 12 + random.nextInt(8);
+			offsets[i][1] = random.nextInt(7) - 3;
+		}
+		PanoramaBuilder.ImageSink sink = new PanoramaBuilder.ImageSink();
+		PanoramaBuilder builder = new PanoramaBuilder(ForkJoinPool.commonPool(), Stitcher::new, 2, sink);
+		int maxWindow = 0;
+		for (int i = 0; i < frames.length; i++) {
+			builder.addFrame(frames[i], offsets[i][0], offsets[i][1]);
+			maxWindow = Math.max(maxWindow, builder.getWindowSize());
+		}
+		builder.finish();
+		assertTrue(maxWindow <= 4);
+		
+		//the same panorama, composed pair by pair on full images in the coordinates of the first frame
+		int[][] output = sink.getImage();
+		int x = 0;
+		int y = 0;
+		int top = 0;
+		for (int i = 1; i < frames.length; i++) {
+			y += offsets[i][1];
+			top = Math.min(top, y);
+		}
+		y = -top;
+		for (int i = 1; i < frames.length; i++) {
+			int[][] previous = frames[i - 1];
+			int[][] pair = ImageCompositor.composite(previous, frames[i], offsets[i][0], offsets[i][1]);
+			//only the overlap is compared, the rest of the frames is copied unchanged
+			int pairTop = Math.max(0, -offsets[i][1]);
+			for (int r = Math.max(0, offsets[i][1]); r < Math.min(previous.length, offsets[i][1] + frames[i].length); r++) {
+				for (int c = offsets[i][0]; c < Math.min(previous[0].length, offsets[i][0] + frames[i][0].length); c++) {
+					assertEquals(pair[pairTop + r][c], output[y + r][x + c]);
+				}
+			}
+			x += offsets[i][0];
+			y += offsets[i][1];
+		}
+	}
+	
+	@Test
+	public void seamCacheTest() throws java.io.IOException {
+		Random random = new Random(41);
+		java.nio.file.Path directory = java.nio.file.Files.createTempDirectory("seams");
+		try {
+			SeamCache cache = new SeamCache(1 << 20, directory.toFile());
+			Stitcher stitcher = new Stitcher();
+			stitcher.setSeamCache(cache);
+			int[][] image1 = randomImage(random, 30, 40);
+			int[][] image2 = randomImage(random, 30, 40);
+			List<Position> seam = stitcher.seam(image1, image2);
+			assertEquals(1, cache.getMisses());
+			SeamSearch search = stitcher.search(image1, image2);
+			assertEquals(seam, search.getSeam());
+			assertEquals(1, cache.getHits());
+			assertEquals(0, search.getSettledVertices());
+			assertEquals(seamCost(image1, image2, seam), search.getCost());
+			
+			//another cost function gives another key
+			stitcher.setCostFunction(CostFunction.GRADIENT);
+			stitcher.seam(image1, image2);
+			assertEquals(2, cache.getMisses());
+			
+			//the seams on disk survive a cache that is cleared
+			cache.clear();
+			stitcher.setCostFunction(CostFunction.SQUARED_DISTANCE);
+			assertEquals(seam, stitcher.seam(image1, image2));
+			assertEquals(1, cache.getDiskHits());
+			
+			//a truncated seam on disk does not end in the lower right corner, so it is a miss
+			for (java.io.File file : directory.toFile().listFiles()) {
+				byte[] codes = java.nio.file.Files.readAllBytes(file.toPath());
+				java.nio.file.Files.write(file.toPath(), java.util.Arrays.copyOf(codes, codes.length / 2));
+			}
+			cache.clear();
+			long misses = cache.getMisses();
+			assertEquals(seam, stitcher.seam(image1, image2));
+			assertEquals(1, cache.getDiskHits());
+			assertEquals(misses + 1, cache.getMisses());
+			
+			//a small budget keeps only the most recent seams in memory
+			SeamCache small = new SeamCache(300);
+			stitcher.setSeamCache(small);
+			for (int i = 0; i < 5; i++) {
+				stitcher.seam(randomImage(random, 20, 20), randomImage(random, 20, 20));
+			}
+			assertTrue(small.getSize() <= 300);
+			assertTrue(small.getEntries() >= 1);
+		} finally {
+			for (java.io.File file : directory.toFile().listFiles()) {
+				file.delete();
+			}
+			directory.toFile().delete();
+		}
+	}
+	
+	@Test
+	public void seamRepairTestMatchesFullSearch() {
+		Random random = new Random(43);
+		for (int i = 0; i < 10; i++) {
+			int[][] image1 = randomImage(random, 10 + random.nextInt(30), 10 + random.nextInt(30));
+			int[][] image2 = randomImage(random, image1.length, image1[0].length);
+			CostFunction costFunction = i % 2 == 0 ? CostFunction.SQUARED_DISTANCE : CostFunction.GRADIENT;
+			SeamRepairer repairer = new SeamRepairer(CostMap.of(image1, image2, costFunction));
+			for (int edit = 0; edit < 10; edit++) {
+				int y = random.nextInt(image1.length);
+				int x = random.nextInt(image1[0].length);
+				int rows = 1 + random.nextInt(6);
+				int columns = 1 + random.nextInt(6);
+				int[][] edited = edit % 2 == 0 ? image1 : image2;
+				for (int r = y; r < Math.min(y + rows, edited.length); r++) {
+					for (int c = x; c < Math.min(x + columns, edited[0].length); c++) {
+						edited[r][c] = random.nextInt(4) * 0x405060;
+					}
+				}
+				List<Position> seam = repairer.repair(image1, image2, costFunction, y, x, rows, columns);
+				
+				CostMap costMap = CostMap.of(image1, image2, costFunction);
+				assertArrayEquals(new SeamRepairer(costMap).getDistTo(), repairer.getDistTo());
+				Stitcher stitcher = new Stitcher();
+				stitcher.setCostFunction(costFunction);
+				assertEquals(seamCost(costMap, stitcher.seam(image1, image2)), repairer.getCost());
+				assertEquals(repairer.getCost(), seamCost(costMap, seam));
+			}
+		}
+	}
+	
+	@Test
+	public void workspaceTestReuse() {
+		Random random = new Random(44);
+		for (SeamMode seamMode : new SeamMode[] {SeamMode.DIJKSTRA, SeamMode.DIAL, SeamMode.ASTAR, SeamMode.BIDIRECTIONAL}) {
+			Stitcher stitcher = new Stitcher(seamMode);
+			SeamWorkspace workspace = new SeamWorkspace();
+			int allocations = -1;
+			for (int i = 0; i < 10; i++) {
+				int[][] image1 = randomImage(random, 20, 30);
+				int[][] image2 = randomImage(random, 20, 30);
+				SeamSearch search = stitcher.search(CostMap.of(image1, image2), workspace);
+				assertEquals(referenceCost(image1, image2), search.getCost());
+				assertEquals(search.getCost(), seamCost(image1, image2, search.getSeam()));
+				assertArrayEquals(new Stitcher(seamMode).stitchPacked(image1, image2).getCodes(), stitcher.stitchPacked(image1, image2).getCodes());
+				if (i == 0) {
+					allocations = workspace.getAllocations();
+				}
+			}
+			//images of the same size do not allocate new buffers
+			assertEquals(allocations, workspace.getAllocations());
+
+			//a smaller image reuses the queues
+			stitcher.search(CostMap.of(randomImage(random, 10, 10), randomImage(random, 10, 10)), workspace);
+			assertTrue(workspace.getAllocations() <= allocations + 2);
+		}
+	}
+
+	@Test
+	public void seamTestCorridor() {
+		Random random = new Random(46);
+		for (SeamMode seamMode : new SeamMode[] {SeamMode.DIJKSTRA, SeamMode.DIAL}) {
+			for (int i = 0; i < 10; i++) {
+				int[][] image1 = randomImage(random, 25, 40);
+				int[][] image2 = randomImage(random, 25, 40);
+				CostMap costMap = CostMap.of(image1, image2);
+				Stitcher stitcher = new Stitcher(seamMode);
+				
+				//a band as wide as the image is the full search
+				SeamSearch search = stitcher.search(costMap, SeamCorridor.diagonal(25, 40, 40));
+				assertTrue(search.hasSeam());
+				assertEquals(referenceCost(image1, image2), search.getCost());
+				
+				//a narrow band uses less storage and its seam stays inside the band
+				SeamCorridor corridor = SeamCorridor.diagonal(25, 40, 2);
+				assertTrue(corridor.size() < 25 * 40);
+				stitcher.setBandWidth(2);
+				search = stitcher.search(costMap);
+				assertTrue(search.getCost() >= referenceCost(image1, image2));
+				assertEquals(search.getCost(), seamCost(image1, image2, search.getSeam()));
+				for (Position position : search.getSeam()) {
+					assertTrue(corridor.indexOf(position.getY(), position.getX()) != -1);
+				}
+				
+				//searching the images only costs the band, and finds the seam of the band of the full cost map
+				for (CostFunction costFunction : new CostFunction[] {CostFunction.SQUARED_DISTANCE, CostFunction.GRADIENT}) {
+					stitcher.setCostFunction(costFunction);
+					SeamSearch band = stitcher.search(image1, image2);
+					SeamSearch full = stitcher.search(CostMap.of(image1, image2, costFunction), corridor);
+					assertEquals(full.getCost(), band.getCost());
+					assertEquals(full.getSeam(), band.getSeam());
+					assertTrue(band.getSettledVertices() <= corridor.size());
+					SeamSearch mirrored = stitcher.search(ImageView.of(image1), ImageView.of(image2),
+							SeamCorners.BOTTOM_LEFT_TO_TOP_RIGHT);
+					SeamSearch mirroredFull = stitcher.search(CostMap.of(ImageView.of(image1).mirrored(),
+							ImageView.of(image2).mirrored(), costFunction, new int[25 * 40]), corridor);
+					assertEquals(mirroredFull.getCost(), mirrored.getCost());
+				}
+			}
+		}
+		
+		//a corridor with holes finds the seam the full search finds when the holes cost more than any seam
+		for (int i = 0; i < 10; i++) {
+			int[] costs = new int[20 * 30];
+			boolean[][] holes = new boolean[20][30];
+			for (int y = 0; y < 20; y++) {
+				for (int x = 0; x < 30; x++) {
+					holes[y][x] = random.nextInt(4) == 0 && (y + x) % 7 != 0;
+					costs[y * 30 + x] = holes[y][x] ? 100 * 20 * 30 : random.nextInt(100);
+				}
+			}
+			holes[0][0] = false;
+			holes[19][29] = false;
+			costs[0] = 0;
+			costs[20 * 30 - 1] = 0;
+			boolean[][] allowed = new boolean[20][30];
+			for (int y = 0; y < 20; y++) {
+				for (int x = 0; x < 30; x++) {
+					allowed[y][x] = !holes[y][x];
+				}
+			}
+			CostMap costMap = new CostMap(20, 30, costs);
+			SeamSearch full = new Stitcher().search(costMap);
+			for (SeamMode seamMode : new SeamMode[] {SeamMode.DIJKSTRA, SeamMode.DIAL}) {
+				SeamSearch search = new Stitcher(seamMode).search(costMap, SeamCorridor.of(allowed));
+				if (full.getCost() < 100 * 20 * 30) {
+					assertEquals(full.getCost(), search.getCost());
+					assertEquals(search.getCost(), seamCost(costMap, search.getSeam()));
+				} else {
+					assertFalse(search.hasSeam());
+				}
+			}
+		}
+		
+		//a corridor without the upper left corner has no seam
+		boolean[][] cornerless = new boolean[10][10];
+		for (boolean[] row : cornerless) {
+			java.util.Arrays.fill(row, true);
+		}
+		cornerless[0][0] = false;
+		assertFalse(new Stitcher().search(CostMap.of(randomImage(random, 10, 10), randomImage(random, 10, 10)),
+				SeamCorridor.of(cornerless)).hasSeam());
+		
+		//a wall of forbidden pixels leaves no seam
+		boolean[][] allowed = new boolean[10][10];
+		for (int y = 0; y < 10; y++) {
+			for (int x = 0; x < 10; x++) {
+				allowed[y][x] = x != 5;
+			}
+		}
+		SeamSearch search = new Stitcher().search(CostMap.of(randomImage(random, 10, 10), randomImage(random, 10, 10)), SeamCorridor.of(allowed));
+		assertFalse(search.hasSeam());
+		assertTrue(search.getSeam().isEmpty());
+		assertEquals(-1, search.getCost());
+	}
+
+	@Test
+	public void stitcherTestSharedBetweenThreads() throws Exception {
+		Random random = new Random(45);
+		int[][][] images = new int[40][][];
+		for (int i = 0; i < images.length; i++) {
+			images[i] = randomImage(random, 10 + random.nextInt(30), 10 + random.nextInt(30));
+		}
+		Stitcher stitcher = new Stitcher(SeamMode.DIAL);
+		java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(8);
+		try {
+			List<java.util.concurrent.Future<Long>> costs = new java.util.ArrayList<>();
+			for (int round = 0; round < 5; round++) {
+				for (int i = 0; i < images.length; i += 2) {
+					int[][] image1 = images[i];
+					int[][] image2 = randomImage(new Random(i), image1.length, image1[0].length);
+					costs.add(pool.submit(() -> {
+						PackedMask mask = stitcher.stitchPacked(image1, image2);
+						SeamSearch search = stitcher.search(image1, image2);
+						assertEquals(image1.length, mask.getHeight());
+						return search.getCost();
+					}));
+				}
+			}
+			for (int i = 0; i < costs.size(); i++) {
+				int[][] image1 = images[i % (images.length / 2) * 2];
+				int[][] image2 = randomImage(new Random(i % (images.length / 2) * 2), image1.length, image1[0].length);
+				assertEquals(referenceCost(image1, image2), (long) costs.get(i).get());
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void serverTestLocalhost() throws Exception {
+		Random random = new Random(49);
+		StitchServer server = new StitchServer(0, 1, 0);
+		server.start();
+		try {
+			String base = "http://127.0.0.1:" + server.getPort();
+			for (int i = 0; i < 3; i++) {
+				int[][] image1 = randomImage(random, 20 + random.nextInt(20), 20 + random.nextInt(20));
+				int[][] image2 = randomImage(random, 20 + random.nextInt(20), 20 + random.nextInt(20));
+				int offsetx = random.nextInt(image1[0].length);
+				int offsety = random.nextInt(image1.length + image2.length - 1) - image2.length + 1;
+				java.io.ByteArrayOutputStream body = new java.io.ByteArrayOutputStream();
+				java.io.DataOutputStream out = new java.io.DataOutputStream(body);
+				for (int[][] image : new int[][][] {image1, image2}) {
+					java.awt.image.BufferedImage buffered = new java.awt.image.BufferedImage(image[0].length, image.length,
+							java.awt.image.BufferedImage.TYPE_INT_RGB);
+					for (int y = 0; y < image.length; y++) {
+						buffered.setRGB(0, y, image[0].length, 1, image[y], 0, image[0].length);
+					}
+					java.io.ByteArrayOutputStream png = new java.io.ByteArrayOutputStream();
+					javax.imageio.ImageIO.write(buffered, "png", png);
+					out.writeInt(png.size());
+					png.writeTo(out);
+				}
+				java.net.HttpURLConnection connection = (java.net.HttpURLConnection) new java.net.URL(base
+						+ "/stitch?offsetx=" + offsetx + "&offsety=" + offsety).openConnection();
+				connection.setRequestMethod("POST");
+				connection.setDoOutput(true);
+				connection.getOutputStream().write(body.toByteArray());
+				assertEquals(200, connection.getResponseCode());
+				java.awt.image.BufferedImage result = javax.imageio.ImageIO.read(connection.getInputStream());
+				int[][] expected = ImageCompositor.composite(image1, image2, offsetx, offsety);
+				assertEquals(expected.length, result.getHeight());
+				for (int y = 0; y < expected.length; y++) {
+					for (int x = 0; x < expected[0].length; x++) {
+						assertEquals(expected[y][x] & 0xFFFFFF, result.getRGB(x, y) & 0xFFFFFF);
+					}
+				}
+			}
+			
+			//a request without offsets is invalid
+			java.net.HttpURLConnection invalid = (java.net.HttpURLConnection) new java.net.URL(base + "/stitch").openConnection();
+			invalid.setRequestMethod("POST");
+			assertEquals(400, invalid.getResponseCode());
+			
+			//a body that ends early is invalid, and the reply says why
+			java.net.HttpURLConnection truncated = (java.net.HttpURLConnection) new java.net.URL(base
+					+ "/stitch?offsetx=0&offsety=0").openConnection();
+			truncated.setRequestMethod("POST");
+			truncated.setDoOutput(true);
+			truncated.getOutputStream().write(new byte[] {0, 0});
+			assertEquals(400, truncated.getResponseCode());
+			String message = new String(truncated.getErrorStream().readAllBytes(), "UTF-8");
+			assertTrue(message, message.contains("ends"));
+			
+			//paths are refused without a root
+			java.net.HttpURLConnection paths = (java.net.HttpURLConnection) new java.net.URL(base
+					+ "/stitch?offsetx=0&offsety=0&image1=a.png&image2=b.png").openConnection();
+			paths.setRequestMethod("POST");
+			assertEquals(400, paths.getResponseCode());
+			
+			//a body or an image larger than the limits is refused before it is decoded
+			server.setMaxBodyBytes(16);
+			java.net.HttpURLConnection large = (java.net.HttpURLConnection) new java.net.URL(base
+					+ "/stitch?offsetx=0&offsety=0").openConnection();
+			large.setRequestMethod("POST");
+			large.setDoOutput(true);
+			large.getOutputStream().write(new byte[64]);
+			assertEquals(413, large.getResponseCode());
+			server.setMaxBodyBytes(StitchServer.DEFAULT_MAX_BODY_BYTES);
+			server.setMaxPixels(100);
+			java.net.HttpURLConnection pixels = (java.net.HttpURLConnection) new java.net.URL(base
+					+ "/stitch?offsetx=0&offsety=0").openConnection();
+			pixels.setRequestMethod("POST");
+			pixels.setDoOutput(true);
+			java.awt.image.BufferedImage wide = new java.awt.image.BufferedImage(20, 20,
+					java.awt.image.BufferedImage.TYPE_INT_RGB);
+			java.io.ByteArrayOutputStream png = new java.io.ByteArrayOutputStream();
+			javax.imageio.ImageIO.write(wide, "png", png);
+			java.io.DataOutputStream out = new java.io.DataOutputStream(pixels.getOutputStream());
+			out.writeInt(png.size());
+			png.writeTo(out);
+			assertEquals(413, pixels.getResponseCode());
+			server.setMaxPixels(StitchServer.DEFAULT_MAX_PIXELS);
+			
+			//the slot of the last request is released before its reply is sent
+			long deadline = System.currentTimeMillis() + 10000;
+			while (server.getInFlight() != 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(0, server.getInFlight());
+			
+			//a request that holds the only slot while its body is missing makes the next request bounce
+			try (java.net.Socket slow = new java.net.Socket("127.0.0.1", server.getPort())) {
+				slow.getOutputStream().write(("POST /stitch?offsetx=0&offsety=0 HTTP/1.1\r\nHost: localhost\r\n"
+						+ "Content-Length: 100\r\n\r\n").getBytes("US-ASCII"));
+				slow.getOutputStream().flush();
+				deadline = System.currentTimeMillis() + 10000;
+				while (server.getInFlight() == 0 && System.currentTimeMillis() < deadline) {
+					Thread.sleep(10);
+				}
+				assertEquals(1, server.getInFlight());
+				java.net.HttpURLConnection busy = (java.net.HttpURLConnection) new java.net.URL(base
+						+ "/stitch?offsetx=0&offsety=0").openConnection();
+				busy.setRequestMethod("POST");
+				assertEquals(503, busy.getResponseCode());
+				assertEquals("1", busy.getHeaderField("Retry-After"));
+			}
+			assertEquals(3, server.getCompleted());
+			assertEquals(1, server.getRejected());
+		} finally {
+			server.stop(0);
+		}
+	}
+	
+	@Test
+	public void serverTestRoot() throws Exception {
+		Random random = new Random(53);
+		java.nio.file.Path root = java.nio.file.Files.createTempDirectory("stitch");
+		java.nio.file.Path outside = java.nio.file.Files.createTempFile("stitch", ".png");
+		StitchServer server = new StitchServer(0, 1, 0, root);
+		server.start();
+		try {
+			int[][] image1 = randomImage(random, 20, 30);
+			int[][] image2 = randomImage(random, 25, 30);
+			for (String name : new String[] {"image1.png", "image2.png"}) {
+				int[][] image = name.equals("image1.png") ? image1 : image2;
+				java.awt.image.BufferedImage buffered = new java.awt.image.BufferedImage(image[0].length, image.length,
+						java.awt.image.BufferedImage.TYPE_INT_RGB);
+				for (int y = 0; y < image.length; y++) {
+					buffered.setRGB(0, y, image[0].length, 1, image[y], 0, image[0].length);
+				}
+				javax.imageio.ImageIO.write(buffered, "png", root.resolve(name).toFile());
+			}
+			String base = "http://127.0.0.1:" + server.getPort() + "/stitch?offsetx=10&offsety=5";
+			java.net.HttpURLConnection connection = (java.net.HttpURLConnection) new java.net.URL(base
+					+ "&image1=image1.png&image2=image2.png&output=result.png").openConnection();
+			connection.setRequestMethod("POST");
+			assertEquals(200, connection.getResponseCode());
+			java.awt.image.BufferedImage result = javax.imageio.ImageIO.read(root.resolve("result.png").toFile());
+			int[][] expected = ImageCompositor.composite(image1, image2, 10, 5);
+			for (int y = 0; y < expected.length; y++) {
+				for (int x = 0; x < expected[0].length; x++) {
+					assertEquals(expected[y][x] & 0xFFFFFF, result.getRGB(x, y) & 0xFFFFFF);
+				}
+			}
+			
+			//paths that leave the root are refused, for reading and for writing
+			String escape = "../" + outside.getFileName();
+			for (String query : new String[] {"&image1=" + escape + "&image2=image2.png",
+					"&image1=image1.png&image2=image2.png&output=" + escape,
+					"&image1=" + outside + "&image2=image2.png"}) {
+				java.net.HttpURLConnection refused = (java.net.HttpURLConnection) new java.net.URL(base + query)
+						.openConnection();
+				refused.setRequestMethod("POST");
+				assertEquals(query, 400, refused.getResponseCode());
+			}
+			assertEquals(0, java.nio.file.Files.size(outside));
+			
+			//requests from web pages are refused, HttpURLConnection does not send an Origin header
+			try (java.net.Socket page = new java.net.Socket("127.0.0.1", server.getPort())) {
+				page.getOutputStream().write(("POST /stitch?offsetx=10&offsety=5&image1=image1.png&image2=image2.png"
+						+ "&output=page.png HTTP/1.1\r\nHost: localhost\r\nOrigin: http://example.com\r\n"
+						+ "Content-Length: 0\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+				page.getOutputStream().flush();
+				String status = new java.io.BufferedReader(new java.io.InputStreamReader(page.getInputStream(),
+						"US-ASCII")).readLine();
+				assertTrue(status, status.contains(" 403 "));
+			}
+			assertTrue(!java.nio.file.Files.exists(root.resolve("page.png")));
+		} finally {
+			server.stop(0);
+			for (String name : new String[] {"image1.png", "image2.png", "result.png", "page.png"}) {
+				java.nio.file.Files.deleteIfExists(root.resolve(name));
+			}
+			java.nio.file.Files.delete(root);
+			java.nio.file.Files.delete(outside);
+		}
+	}
+	
+	@Test
+	public void metricsTestListener() {
+		Random random = new Random(47);
+		StitchMetrics metrics = new StitchMetrics();
+		Stitcher stitcher = new Stitcher(SeamMode.DIJKSTRA);
+		stitcher.setListener(metrics);
+		int[][] image1 = randomImage(random, 30, 40);
+		int[][] image2 = randomImage(random, 30, 40);
+		SeamSearch search = stitcher.search(image1, image2);
+		assertEquals(1, metrics.getSearches());
+		assertEquals(search.getSettledVertices(), metrics.getSettledVertices());
+		assertTrue(search.getPushes() >= search.getSettledVertices() - 1);
+		assertEquals(search.getPushes(), metrics.getPushes());
+		assertTrue(search.getPeakQueueSize() > 0 && search.getPeakQueueSize() <= search.getPushes());
+		assertTrue(search.getBufferBytes() > 0);
+		assertEquals(1, metrics.getCalls("cost"));
+		assertEquals(1, metrics.getCalls("seam"));
+		
+		//the buffers are reused by the next search
+		assertEquals(0, stitcher.search(image1, image2).getBufferBytes());
+		//and by a smaller search, which finds the same seam as a search with new buffers
+		int[][] small1 = randomImage(random, 20, 25);
+		int[][] small2 = randomImage(random, 20, 25);
+		SeamSearch small = stitcher.search(small1, small2);
+		assertEquals(0, small.getBufferBytes());
+		SeamSearch fresh = new Stitcher(SeamMode.DIJKSTRA).search(small1, small2);
+		assertEquals(fresh.getCost(), small.getCost());
+		assertEquals(fresh.getSeam(), small.getSeam());
+		//a workspace larger than the pool allows is dropped, the next search allocates again
+		stitcher.setMaxPooledWorkspaceBytes(1024);
+		stitcher.search(image1, image2);
+		assertTrue(stitcher.search(image1, image2).getBufferBytes() > 0);
+		stitcher.setMaxPooledWorkspaceBytes(64L << 20);
+		stitcher.setMaxPooledWorkspaces(0);
+		stitcher.search(image1, image2);
+		assertTrue(stitcher.search(image1, image2).getBufferBytes() > 0);
+		stitcher.setMaxPooledWorkspaces(1);
+		assertEquals(64L << 20, stitcher.getMaxPooledBytes());
+		metrics.reset();
+		
+		Stitch[][] mask = randomMask(random, 20, 20);
+		long empty = 0;
+		for (Stitch[] row : mask) {
+			for (Stitch stitch : row) {
+				empty += stitch == Stitch.EMPTY ? 1 : 0;
+			}
+		}
+		stitcher.floodfill(mask);
+		for (Stitch[] row : mask) {
+			for (Stitch stitch : row) {
+				//pixels that are cut off from both corners stay empty
+				empty -= stitch == Stitch.EMPTY ? 1 : 0;
+			}
+		}
+		assertEquals(empty, metrics.getFilledPixels());
+		assertEquals(1, metrics.getCalls("fill"));
+		
+		ImageCompositor.composite(image1, image2, 10, 5, stitcher);
+		for (String phase : new String[] {"overlap", "seam", "mask", "composite"}) {
+			assertTrue(phase, metrics.getCalls(phase) > 0);
+			assertTrue(metrics.getJson().contains("\"" + phase + "\""));
+		}
+		metrics.reset();
+		assertEquals(0, metrics.getSearches());
+		
+		//without a listener nothing is reported
+		stitcher.setListener(null);
+		stitcher.seam(image1, image2);
+		assertEquals(0, metrics.getSearches());
+	}
+	
+	@Test
+	public void seamTestRandomImages() {
+		Random random = new Random(42);
+		for (int i = 0; i < 20; i++) {
+			int[][] image1 = randomImage(random, 1 + random.nextInt(25), 1 + random.nextInt(25));
+			int[][] image2 = randomImage(random, image1.length, image1[0].length);
+			List<Position> seam = new Stitcher().seam(image1, image2);
+			
+			assertEquals(new Position(0, 0), seam.get(0));
+			assertEquals(new Position(image1.length - 1, image1[0].length - 1), seam.get(seam.size() - 1));
+			for (int j = 1; j < seam.size(); j++) {
+				assertTrue(seam.get(j - 1).isAdjacentTo(seam.get(j)));
+			}
+			assertEquals(referenceCost(image1, image2), seamCost(image1, image2, seam));
+		}
+	}
+	
+	@Test
+	public void seamTestSeamModes() {
+		Random random = new Random(7);
+		for (int i = 0; i < 20; i++) {
+			int[][] image1 = randomImage(random, 1 + random.nextInt(40), 1 + random.nextInt(40));
+			int[][] image2 = randomImage(random, image1.length, image1[0].length);
+			long expected = referenceCost(image1, image2);
+			for (SeamMode mode : SeamMode.values()) {
+				if (mode == SeamMode.PYRAMID) {
+					continue;
+				}
+				List<Position> seam = new Stitcher(mode).seam(image1, image2);
+				assertEquals(mode.toString(), expected, seamCost(image1, image2, seam));
+			}
+		}
+	}
+	
+	@Test
+	public void seamTestPyramid() {
+		Random random = new Random(3);
+		int[][] image1 = randomImage(random, 150, 200);
+		int[][] image2 = randomImage(random, 150, 200);
+		long expected = referenceCost(image1, image2);
+		
+		Stitcher stitcher = new Stitcher(SeamMode.PYRAMID);
+		List<Position> seam = stitcher.seam(image1, image2);
+		assertEquals(new Position(0, 0), seam.get(0));
+		assertEquals(new Position(149, 199), seam.get(seam.size() - 1));
+		for (int j = 1; j < seam.size(); j++) {
+			assertTrue(seam.get(j - 1).isAdjacentTo(seam.get(j)));
+		}
+		assertTrue(seamCost(image1, image2, seam) >= expected);
+		
+		//a band that covers the whole image gives the optimal seam
+		PyramidSeamSolver solver = new PyramidSeamSolver(CostMap.of(image1, image2), 200);
+		solver.solve(new long[150 * 200], new int[150 * 200]);
+		assertEquals(expected, solver.getCost());
+		assertEquals(0, solver.measureCostGap());
+	}
+	
+	@Test
+	public void seamTestCostFunction() {
+		Random random = new Random(11);
+		int[][] image1 = randomImage(random, 30, 40);
+		int[][] image2 = randomImage(random, 30, 40);
+		CostMap costMap = CostMap.of(image1, image2, CostFunction.GRADIENT);
+		
+		Stitcher stitcher = new Stitcher(SeamMode.DIAL);
+		stitcher.setCostFunction(CostFunction.GRADIENT);
+		SeamSearch search = stitcher.search(image1, image2);
+		List<Position> seam = search.getSeam();
+		long cost = 0;
+		for (Position p : seam.subList(1, seam.size())) {
+			cost += costMap.getCost(p.getY(), p.getX());
+		}
+		assertEquals(search.getCost(), cost);
+		
+		Stitcher dijkstra = new Stitcher(SeamMode.DIJKSTRA);
+		assertEquals(cost, dijkstra.search(costMap).getCost());
+
+		//costs up to Integer.MAX_VALUE need too many buckets, DIAL searches them with the heap
+		int[] costs = new int[30 * 40];
+		for (int i = 0; i < costs.length; i++) {
+			costs[i] = random.nextInt(3) == 0 ? Integer.MAX_VALUE : random.nextInt(BucketQueue.MIN_BUCKETS * 2);
+		}
+		CostMap large = new CostMap(30, 40, costs);
+		assertFalse(BucketQueue.supports(costs.length, large.getMaxCost()));
+		long expected = dijkstra.search(large).getCost();
+		assertEquals(expected, stitcher.search(large).getCost());
+		assertEquals(expected, stitcher.search(large, SeamCorridor.diagonal(30, 40, 40)).getCost());
+		PyramidSeamSolver solver = new PyramidSeamSolver(large, 40);
+		solver.solve(new long[30 * 40], new int[30 * 40]);
+		assertEquals(expected, solver.getCost());
+	}
+	
+	/**
+	 * Returns a mask with random SEAM pixels, including pockets that the floodfill cannot reach.
+	 */
+	static Stitch[][] randomMask(Random random, int height, int width) {
+		Stitch[][] mask = new Stitch[height][width];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				mask[y][x] = random.nextInt(3) == 0 ? Stitch.SEAM : Stitch.EMPTY;
+			}
+		}
+		return mask;
+	}
+	
+	/**
+	 * Pixel by pixel reference for the floodfill, it returns a filled copy of the mask.
+	 */
+	static Stitch[][] referenceFloodfill(Stitch[][] input) {
+		Stitch[][] mask = new Stitch[input.length][];
+		for (int y = 0; y < input.length; y++) {
+			mask[y] = input[y].clone();
+		}
+		referenceFill(mask, mask.length - 1, 0, Stitch.IMAGE1);
+		referenceFill(mask, 0, mask[0].length - 1, Stitch.IMAGE2);
+		return mask;
+	}
+	
+	private static void referenceFill(Stitch[][] mask, int y, int x, Stitch type) {
+		java.util.ArrayDeque<int[]> stack = new java.util.ArrayDeque<>();
+		stack.push(new int[] {y, x});
+		while (!stack.isEmpty()) {
+			int[] p = stack.pop();
+			if (p[0] < 0 || p[1] < 0 || p[0] >= mask.length || p[1] >= mask[0].length || mask[p[0]][p[1]] != Stitch.EMPTY) {
+				continue;
+			}
+			mask[p[0]][p[1]] = type;
+			stack.push(new int[] {p[0] - 1, p[1]});
+			stack.push(new int[] {p[0] + 1, p[1]});
+			stack.push(new int[] {p[0], p[1] - 1});
+			stack.push(new int[] {p[0], p[1] + 1});
+		}
+	}
+	
+	/**
+	 * Returns an image of the given dimensions with random pixels with few colors, so seams have ties.
+	 */
+	/**
+	 * Returns the pixels without their alpha values.
+	 */
+	static int[] maskAlpha(int[] pixels) {
+		int[] rgb = new int[pixels.length];
+		for (int i = 0; i < pixels.length; i++) {
+			rgb[i] = pixels[i] & 0xFFFFFF;
+		}
+		return rgb;
+	}
+	
+	static int[][] randomImage(Random random, int height, int width) {
+		int[][] image = new int[height][width];
+		for (int i = 0; i < height; i++) {
+			for (int j = 0; j < width; j++) {
+				image[i][j] = random.nextInt(4) * 0x405060;
+			}
+		}
+		return image;
+	}
+	
+	/**
+	 * Returns the cost of the seam, the start position is not counted.
+	 */
+	static long seamCost(int[][] image1, int[][] image2, List<Position> seam) {
+		long cost = 0;
+		for (Position p : seam.subList(1, seam.size())) {
+			cost += ImageCompositor.pixelSqDistance(image1[p.getY()][p.getX()], image2[p.getY()][p.getX()]);
+		}
+		return cost;
+	}
+	
+	/**
+	 * Returns the cost of the seam in the cost map, the start position is not counted.
+	 */
+	static long seamCost(CostMap costMap, List<Position> seam) {
+		long cost = 0;
+		for (Position p : seam.subList(1, seam.size())) {
+			cost += costMap.getCost(p.getY(), p.getX());
+		}
+		return cost;
+	}
+	
+	/**
+	 * Bellman-Ford reference for the cost of the cheapest seam.
+	 */
+	static long referenceCost(int[][] image1, int[][] image2) {
+		int height = image1.length, width = image1[0].length;
+		long[][] dist = new long[height][width];
+		for (long[] row : dist) {
+			java.util.Arrays.fill(row, Long.MAX_VALUE);
+		}
+		dist[0][0] = 0;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					for (int dy = -1; dy <= 1; dy++) {
+						for (int dx = -1; dx <= 1; dx++) {
+							int ny = y + dy, nx = x + dx;
+							if (ny < 0 || nx < 0 || ny >= height || nx >= width || dist[ny][nx] == Long.MAX_VALUE) {
+								continue;
+							}
+							long d = dist[ny][nx] + ImageCompositor.pixelSqDistance(image1[y][x], image2[y][x]);
+							if (d < dist[y][x]) {
+								dist[y][x] = d;
+								changed = true;
+							}
+						}
+					}
+				}
+			}
+		}
+		return dist[height - 1][width - 1];
+	}
 
 }
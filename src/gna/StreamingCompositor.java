@@ -0,0 +1,244 @@
+package gna;
+
+import java.io.IOException;
+
+/**
+ * Composes two images like ImageCompositor, but reads the inputs and writes the result in bands of rows.
+ * Only the overlap of both images is kept in memory, as the cost map and the mask of the seam, so the
+ * memory needed for the rest of the images does not grow with their size.
+ *
+ * The inputs are read twice: once for the rows of the overlap, to calculate the seam, and once band by
+ * band to write the result. When both inputs are memory-mapped RawImages they are not read into bands at all:
+ * the overlap is costed through views of the mappings, and the rows of the result are copied from the mappings.
+ */
+public class StreamingCompositor
+{
+	/**
+	 * The default number of rows per band.
+	 */
+	public static final int DEFAULT_BAND_HEIGHT = 64;
+
+	/**
+	 * An upper bound on the bytes kept per pixel of the overlap: the cost, distance and previous vertex
+	 * of the seam search, the entries of the bucket queue and the mask.
+	 */
+	public static final int BYTES_PER_OVERLAP_PIXEL = 36;
+
+	/**
+	 * Variable storing the number of rows per band.
+	 */
+	private final int bandHeight;
+
+	/**
+	 * Variable storing the stitcher that calculates the mask of the overlap.
+	 */
+	private final Stitcher stitcher;
+
+	/**
+	 * Creates a compositor with the default band height and a default stitcher.
+	 */
+	public StreamingCompositor() {
+		this(DEFAULT_BAND_HEIGHT, new Stitcher());
+	}
+
+	/**
+	 * Creates a compositor.
+	 * @param bandHeight The number of rows per band.
+	 * @param stitcher   The stitcher that calculates the mask of the overlap.
+	 * @throws IllegalArgumentException when the band height is not positive or the stitcher equals null
+	 *                                  | bandHeight <= 0 || stitcher == null
+	 */
+	public StreamingCompositor(int bandHeight, Stitcher stitcher) {
+		if (bandHeight <= 0 || stitcher == null) {
+			throw new IllegalArgumentException("The band height must be positive and the stitcher cannot be null.");
+		}
+		this.bandHeight = bandHeight;
+		this.stitcher = stitcher;
+	}
+
+	/**
+	 * Returns the width of the composition of images of the given widths.
+	 * @param width1  The width of image 1.
+	 * @param width2  The width of image 2.
+	 * @param offsetx The x-offset of image 2.
+	 * @return The width of the result.
+	 */
+	public static int getResultWidth(int width1, int width2, int offsetx) {
+		return Math.max(width1, width2 + offsetx);
+	}
+
+	/**
+	 * Returns the height of the composition of images of the given heights.
+	 * @param height1 The height of image 1.
+	 * @param height2 The height of image 2.
+	 * @param offsety The y-offset of image 2.
+	 * @return The height of the result.
+	 */
+	public static int getResultHeight(int height1, int height2, int offsety) {
+		return offsety > 0 ? Math.max(height1, height2 + offsety) : Math.max(height1 - offsety, height2);
+	}
+
+	/**
+	 * Returns an estimate of the memory composite needs for images of the given dimensions, in bytes.
+	 * The workspace of the seam search is counted, the idle workspaces the stitcher keeps in its pool after the
+	 * search are not: they are bounded by Stitcher.getMaxPooledBytes.
+	 * @param width1  The width of image 1.
+	 * @param height1 The height of image 1.
+	 * @param width2  The width of image 2.
+	 * @param height2 The height of image 2.
+	 * @param offsetx The x-offset of image 2.
+	 * @param offsety The y-offset of image 2.
+	 * @return The estimated number of bytes.
+	 */
+	public long estimateMemory(int width1, int height1, int width2, int height2, int offsetx, int offsety) {
+		long stitchWidth = Math.max(0, Math.min(offsetx + width2, width1) - offsetx);
+		long stitchHeight = Math.max(0, Math.min(offsety + height2, height1) - Math.max(offsety, 0));
+		long bands = 4L * bandHeight * (width1 + width2 + getResultWidth(width1, width2, offsetx));
+		return stitchWidth * stitchHeight * BYTES_PER_OVERLAP_PIXEL + bands;
+	}
+
+	/**
+	 * Composes the two images and writes the result from the top row to the bottom row.
+	 * Image 2 is placed offsetx to the right and offsety below image 1, as in ImageCompositor.
+	 * @param image1  The first image.
+	 * @param image2  The second image.
+	 * @param offsetx The x-offset of image 2.
+	 * @param offsety The y-offset of image 2.
+	 * @param output  The sink that receives getResultHeight rows of getResultWidth pixels.
+	 * @throws IOException when an image cannot be read or the result cannot be written
+	 * @throws IllegalArgumentException when offsetx is negative or the images do not overlap
+	 *                                  | offsetx < 0 || the overlap is empty
+	 */
+	public void composite(PixelSource image1, PixelSource image2, int offsetx, int offsety, PixelSink output) throws IOException {
+		int width1 = image1.getWidth();
+		int height1 = image1.getHeight();
+		int width2 = image2.getWidth();
+		int height2 = image2.getHeight();
+		if (offsetx < 0) {
+			throw new IllegalArgumentException("Negative offsetx not supported (switch both the images instead)");
+		}
+		//the overlap in the coordinates of image1
+		int stitchXstart = offsetx;
+		int stitchXend = Math.min(stitchXstart + width2, width1);
+		int stitchYstart = Math.max(offsety, 0);
+		int stitchYend = Math.min(offsety + height2, height1);
+		int stitchHeight = stitchYend - stitchYstart;
+		int stitchWidth = stitchXend - stitchXstart;
+		if (stitchHeight <= 0 || stitchWidth <= 0) {
+			throw new IllegalArgumentException("The images do not overlap.");
+		}
+		boolean shouldFlip = offsety != 0 && stitchXend == width1 && stitchYend == height1;
+		//mapped images are read where they are
+		ImageView view1 = image1 instanceof RawImage && image2 instanceof RawImage ? ImageView.of((RawImage) image1) : null;
+		ImageView view2 = view1 != null ? ImageView.of((RawImage) image2) : null;
+		PackedMask mask;
+		if (view1 != null) {
+			mask = stitcher.stitchPacked(view1.window(stitchYstart, stitchXstart, stitchHeight, stitchWidth),
+					view2.window(stitchYstart - offsety, 0, stitchHeight, stitchWidth),
+					shouldFlip ? SeamCorners.BOTTOM_LEFT_TO_TOP_RIGHT : SeamCorners.TOP_LEFT_TO_BOTTOM_RIGHT);
+		} else {
+			mask = this.stitchOverlap(image1, image2, stitchXstart, stitchYstart, stitchYstart - offsety,
+					stitchHeight, stitchWidth, shouldFlip);
+		}
+
+		int resultWidth = getResultWidth(width1, width2, offsetx);
+		int resultHeight = getResultHeight(height1, height2, offsety);
+		//the first row of both images and of the overlap in the result
+		int top1 = Math.max(0, -offsety);
+		int top2 = Math.max(0, offsety);
+		int stitchTop = Math.abs(offsety);
+		int[] band1 = view1 == null ? new int[bandHeight * width1] : null;
+		int[] band2 = view1 == null ? new int[bandHeight * width2] : null;
+		int[] result = new int[bandHeight * resultWidth];
+		byte[] codes = mask.getCodes();
+		for (int bandTop = 0; bandTop < resultHeight; bandTop += bandHeight) {
+			int rows = Math.min(bandHeight, resultHeight - bandTop);
+			if (view1 != null) {
+				for (int y = bandTop; y < bandTop + rows; y++) {
+					int y1 = y >= top1 && y < top1 + height1 ? y - top1 : -1;
+					int y2 = y >= top2 && y < top2 + height2 ? y - top2 : -1;
+					RowCompositor.compositeRow(view1, y1, view2, y2, offsetx, codes, (y - stitchTop) * stitchWidth,
+							stitchWidth, result, (y - bandTop) * resultWidth, resultWidth);
+				}
+				output.writeRows(result, rows);
+				continue;
+			}
+			int first1 = Math.max(bandTop, top1);
+			int end1 = Math.min(bandTop + rows, top1 + height1);
+			if (first1 < end1) {
+				image1.readRows(first1 - top1, end1 - first1, band1);
+			}
+			int first2 = Math.max(bandTop, top2);
+			int end2 = Math.min(bandTop + rows, top2 + height2);
+			if (first2 < end2) {
+				image2.readRows(first2 - top2, end2 - first2, band2);
+			}
+			for (int y = bandTop; y < bandTop + rows; y++) {
+				boolean covered1 = y >= first1 && y < end1;
+				boolean covered2 = y >= first2 && y < end2;
+				RowCompositor.compositeRow(covered1 ? band1 : null, (y - first1) * width1, width1,
+						covered2 ? band2 : null, (y - first2) * width2, width2, offsetx, codes, (y - stitchTop) * stitchWidth,
+						stitchWidth, result, (y - bandTop) * resultWidth, resultWidth);
+			}
+			output.writeRows(result, rows);
+		}
+	}
+
+	/**
+	 * Calculates the mask of the overlap, reading the rows of the overlap band by band into a cost map.
+	 * When shouldFlip is true the seam runs from the lower left to the upper right corner, as in ImageCompositor:
+	 * the cost map is filled in mirrored row order and the mask is written in the orientation of the overlap.
+	 * @param image1       The first image.
+	 * @param image2       The second image.
+	 * @param x1           The first column of the overlap in image 1, the overlap starts in column 0 of image 2.
+	 * @param y1           The first row of the overlap in image 1.
+	 * @param y2           The first row of the overlap in image 2.
+	 * @param stitchHeight The height of the overlap.
+	 * @param stitchWidth  The width of the overlap.
+	 * @param shouldFlip   Whether the overlap is mirrored.
+	 * @return The mask of the overlap, not mirrored.
+	 */
+	private PackedMask stitchOverlap(PixelSource image1, PixelSource image2, int x1, int y1, int y2,
+			int stitchHeight, int stitchWidth, boolean shouldFlip) throws IOException {
+		int width1 = image1.getWidth();
+		int width2 = image2.getWidth();
+		CostFunction costFunction = stitcher.getCostFunction();
+		int[] costs = new int[stitchHeight * stitchWidth];
+		int[] band1 = new int[bandHeight * width1];
+		int[] band2 = new int[bandHeight * width2];
+		//the cost function may look at the row below, so the previous row of the overlap is kept
+		int[][] rows1 = new int[2][stitchWidth];
+		int[][] rows2 = new int[2][stitchWidth];
+		for (int bandTop = 0; bandTop < stitchHeight; bandTop += bandHeight) {
+			int count = Math.min(bandHeight, stitchHeight - bandTop);
+			image1.readRows(y1 + bandTop, count, band1);
+			image2.readRows(y2 + bandTop, count, band2);
+			for (int r = 0; r < count; r++) {
+				int row = bandTop + r;
+				int[] swap1 = rows1[0];
+				rows1[0] = rows1[1];
+				rows1[1] = swap1;
+				int[] swap2 = rows2[0];
+				rows2[0] = rows2[1];
+				rows2[1] = swap2;
+				System.arraycopy(band1, r * width1 + x1, rows1[1], 0, stitchWidth);
+				System.arraycopy(band2, r * width2, rows2[1], 0, stitchWidth);
+				if (shouldFlip) {
+					//in the mirrored overlap the row below is the previous row
+					int[][] window1 = {rows1[1], row > 0 ? rows1[0] : rows1[1]};
+					int[][] window2 = {rows2[1], row > 0 ? rows2[0] : rows2[1]};
+					costFunction.computeRow(window1, window2, 0, costs, (stitchHeight - 1 - row) * stitchWidth);
+				} else if (row > 0) {
+					costFunction.computeRow(rows1, rows2, 0, costs, (row - 1) * stitchWidth);
+				}
+			}
+		}
+		if (!shouldFlip) {
+			int[][] last1 = {rows1[1], rows1[1]};
+			int[][] last2 = {rows2[1], rows2[1]};
+			costFunction.computeRow(last1, last2, 0, costs, (stitchHeight - 1) * stitchWidth);
+		}
+		return stitcher.stitchPacked(new CostMap(stitchHeight, stitchWidth, costs),
+				shouldFlip ? SeamCorners.BOTTOM_LEFT_TO_TOP_RIGHT : SeamCorners.TOP_LEFT_TO_BOTTOM_RIGHT);
+	}
+}